@@ -0,0 +1,33 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the DAO benchmarks with the GC profiler attached, so every result
+ * carries its allocation rate next to throughput and the latency
+ * percentiles from sample mode. Regular JMH command line options (a
+ * benchmark regex, -p products=50000, -f 3, ...) are passed through.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("dao-benchmarks.json");
+
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include("bench\\..*DAOBenchmark");
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,142 @@
+package bench;
+
+import cart.CartCache;
+import dao.CartDAO;
+import hibernate.CartItem;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import model.CartLine;
+import model.CartView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class CartDAOBenchmark {
+
+    private final CartDAO cartDAO = new CartDAO();
+
+    @Benchmark
+    public CartItem getCartItemByUserAndProduct(CatalogState catalog) {
+        return cartDAO.getCartItemByUserAndProduct(catalog.randomUserId(), catalog.randomProductId());
+    }
+
+    @Benchmark
+    public List<CartItem> getCartItemsByUser(CatalogState catalog) {
+        return cartDAO.getCartItemsByUser(catalog.randomUserId());
+    }
+
+    @Benchmark
+    public CartView getCartView(CatalogState catalog) {
+        return cartDAO.getCartView(catalog.randomUserId());
+    }
+
+    @Benchmark
+    public int getCartItemCount(CatalogState catalog) {
+        return cartDAO.getCartItemCount(catalog.randomUserId());
+    }
+
+    @Benchmark
+    public double getCartTotal(CatalogState catalog) {
+        return cartDAO.getCartTotal(catalog.randomUserId());
+    }
+
+    // Adding an existing line takes the update path, a new one the insert path
+    @Benchmark
+    public boolean addToCartExistingLine(CatalogState catalog) {
+        Long userId = catalog.randomUserId();
+        List<CartItem> items = cartDAO.getCartItemsByUser(userId);
+        Long productId = items.isEmpty() ? catalog.randomProductId() : items.get(0).getProduct().getId();
+        return cartDAO.addToCart(userId, productId, 1);
+    }
+
+    @Benchmark
+    public boolean addUpdateAndRemoveLine(CatalogState catalog) {
+        Long userId = catalog.randomUserId();
+        Long productId = catalog.randomProductId();
+        if (!cartDAO.addToCart(userId, productId, 1)) {
+            return false;
+        }
+        CartItem item = cartDAO.getCartItemByUserAndProduct(userId, productId);
+        return cartDAO.updateCartItemQuantity(item.getId(), 2) && cartDAO.removeFromCart(item.getId());
+    }
+
+    // Clears a throwaway cart so seeded carts stay intact
+    @Benchmark
+    public boolean clearUserCart(CatalogState catalog) {
+        return cartDAO.clearUserCart((long) catalog.users + 1);
+    }
+
+    // 8 threads adding the same product to one cached cart at once, as the storefront does, with a
+    // write of the cart after every FLUSH_EVERY adds; SharedLine fails the run if a unit is lost
+    @Benchmark
+    @Threads(8)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void addToCartConcurrent(SharedLine line) {
+        CartCache.getInstance().add(line.userId, line.productId, 1);
+        if (line.adds.incrementAndGet() % SharedLine.FLUSH_EVERY == 0) {
+            CartCache.getInstance().flush(line.userId);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedLine {
+
+        static final int FLUSH_EVERY = 16;
+
+        private final CartDAO cartDAO = new CartDAO();
+        final AtomicInteger adds = new AtomicInteger();
+        Long userId;
+        Long productId;
+
+        // A fresh line per iteration, so the expected quantity is the number of adds
+        @Setup(Level.Iteration)
+        public void pick(CatalogState catalog) {
+            userId = catalog.randomUserId();
+            productId = catalog.randomProductId();
+            CartCache.getInstance().remove(userId, productId);
+            if (!CartCache.getInstance().flush(userId)) {
+                throw new IllegalStateException("Cart of user " + userId + " could not be stored");
+            }
+            adds.set(0);
+        }
+
+        // What the cache holds must reach cart_items as one row with every unit added
+        @TearDown(Level.Iteration)
+        public void verify() {
+            if (!CartCache.getInstance().flush(userId)) {
+                throw new IllegalStateException("Cart of user " + userId + " could not be stored");
+            }
+            int rows = 0;
+            int quantity = 0;
+            for (CartLine line : cartDAO.getCartLines(userId)) {
+                if (line.getProductId().equals(productId)) {
+                    rows++;
+                    quantity += line.getQuantity();
+                }
+            }
+            if (rows != 1 || quantity != adds.get()) {
+                throw new IllegalStateException(adds.get() + " concurrent adds of product " + productId
+                        + " left " + rows + " cart lines holding " + quantity + " units");
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package bench;
+
+import hibernate.CartItem;
+import hibernate.Category;
+import hibernate.HibernateUtil;
+import hibernate.Order;
+import hibernate.OrderItem;
+import hibernate.OrderStatus;
+import hibernate.Product;
+import hibernate.User;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Boots the regular hibernate.cfg.xml mappings against an in-memory H2
+ * database in MySQL mode and seeds it once per fork. Every @Param
+ * combination runs in its own JVM, so HibernateUtil picks up the
+ * properties set here before it is first touched.
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+
+    @Param({ "20" })
+    public int categories;
+
+    @Param({ "1000", "10000" })
+    public int products;
+
+    @Param({ "500" })
+    public int users;
+
+    @Param({ "2000" })
+    public int orders;
+
+    @Param({ "3" })
+    public int itemsPerOrder;
+
+    // Stock is large enough that checkout benchmarks never run a product dry
+    private static final int STOCK = 1_000_000;
+    private static final int BATCH_SIZE = 500;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("hibernate.connection.driver_class", "org.h2.Driver");
+        System.setProperty("hibernate.connection.url", "jdbc:h2:mem:eshop;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        System.setProperty("hibernate.connection.username", "sa");
+        System.setProperty("hibernate.connection.password", "");
+        System.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        System.setProperty("hibernate.hbm2ddl.auto", "create");
+        System.setProperty("hibernate.show_sql", "false");
+        System.setProperty("hibernate.format_sql", "false");
+        System.setProperty("hibernate.jdbc.batch_size", String.valueOf(BATCH_SIZE));
+        seed();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.getSessionFactory().close();
+    }
+
+    private void seed() {
+        StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession();
+        Transaction transaction = session.beginTransaction();
+        try {
+            long now = System.currentTimeMillis();
+
+            Category[] categoryRows = new Category[categories];
+            for (int i = 0; i < categories; i++) {
+                categoryRows[i] = new Category("Category " + i, "Seeded category " + i);
+                session.insert(categoryRows[i]);
+            }
+
+            Product[] productRows = new Product[products];
+            for (int i = 0; i < products; i++) {
+                productRows[i] = new Product("Product " + i, "Seeded product number " + i,
+                        BigDecimal.valueOf(1 + (i * 37L) % 2000, 0), STOCK, null, categoryRows[i % categories]);
+                productRows[i].setCreatedAt(new Date(now - i * 60_000L));
+                session.insert(productRows[i]);
+            }
+
+            User[] userRows = new User[users];
+            for (int i = 0; i < users; i++) {
+                userRows[i] = new User(null, "user" + i, "user" + i + "@example.com", "password", "User " + i,
+                        "Address " + i, "0770000000", new Date(now - i * 3_600_000L));
+                session.insert(userRows[i]);
+            }
+
+            for (int i = 0; i < orders; i++) {
+                Order order = new Order();
+                order.setUser(userRows[i % users]);
+                order.setOrderDate(new Date(now - i * 600_000L));
+                order.setStatus(OrderStatus.values()[i % OrderStatus.values().length]);
+                order.setShippingAddress("Address " + i);
+                BigDecimal total = BigDecimal.ZERO;
+                for (int j = 0; j < itemsPerOrder; j++) {
+                    total = total.add(productRows[(i + j * 7) % products].getPrice());
+                }
+                order.setTotalAmount(total);
+                session.insert(order);
+                for (int j = 0; j < itemsPerOrder; j++) {
+                    Product product = productRows[(i + j * 7) % products];
+                    session.insert(new OrderItem(order, product, 1, product.getPrice()));
+                }
+            }
+
+            // A couple of cart lines per user so cart reads have something to return
+            for (int i = 0; i < users; i++) {
+                for (int j = 0; j < 2; j++) {
+                    CartItem item = new CartItem(userRows[i], productRows[(i * 3 + j) % products], 1);
+                    session.insert(item);
+                }
+            }
+
+            transaction.commit();
+        } catch (RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    // Seeded ids start at 1 because every table is freshly created
+    public Long randomCategoryId() {
+        return 1L + ThreadLocalRandom.current().nextInt(categories);
+    }
+
+    public Long randomProductId() {
+        return 1L + ThreadLocalRandom.current().nextInt(products);
+    }
+
+    public Long randomUserId() {
+        return 1L + ThreadLocalRandom.current().nextInt(users);
+    }
+
+    public Long randomOrderId() {
+        return 1L + ThreadLocalRandom.current().nextInt(orders);
+    }
+
+    public int randomUserIndex() {
+        return ThreadLocalRandom.current().nextInt(users);
+    }
+}
@@ -0,0 +1,58 @@
+package bench;
+
+import dao.CategoryDAO;
+import hibernate.Category;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class CategoryDAOBenchmark {
+
+    private final CategoryDAO categoryDAO = new CategoryDAO();
+    private Category sampleCategory;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState catalog) {
+        sampleCategory = categoryDAO.getCategoryById(1L);
+    }
+
+    @Benchmark
+    public List<Category> getAllCategories(CatalogState catalog) {
+        return categoryDAO.getAllCategories();
+    }
+
+    @Benchmark
+    public Category getCategoryById(CatalogState catalog) {
+        return categoryDAO.getCategoryById(catalog.randomCategoryId());
+    }
+
+    @Benchmark
+    public boolean updateCategory(CatalogState catalog) {
+        sampleCategory.setDescription("Updated at " + System.nanoTime());
+        return categoryDAO.updateCategory(sampleCategory);
+    }
+
+    // Insert and delete in one operation so the category count stays constant
+    @Benchmark
+    public boolean saveAndDeleteCategory(CatalogState catalog) {
+        Category category = new Category("Benchmark category", "Temporary");
+        return categoryDAO.saveCategory(category) && categoryDAO.deleteCategory(category.getId());
+    }
+}
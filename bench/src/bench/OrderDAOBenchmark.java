@@ -0,0 +1,182 @@
+package bench;
+
+import dao.CartDAO;
+import dao.OrderDAO;
+import dao.UserDAO;
+import hibernate.Order;
+import hibernate.OrderStatus;
+import inventory.FlashSaleStock;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import model.CartLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class OrderDAOBenchmark {
+
+    private final OrderDAO orderDAO = new OrderDAO();
+    private final CartDAO cartDAO = new CartDAO();
+    private final UserDAO userDAO = new UserDAO();
+
+    @Benchmark
+    public Order getOrderWithUserData(CatalogState catalog) {
+        return orderDAO.getOrderWithUserData(catalog.randomOrderId());
+    }
+
+    @Benchmark
+    public Order getOrderById(CatalogState catalog) {
+        return orderDAO.getOrderById(catalog.randomOrderId());
+    }
+
+    @Benchmark
+    public List<Order> getAllOrders(CatalogState catalog) {
+        return orderDAO.getAllOrders();
+    }
+
+    @Benchmark
+    public List<Order> getOrdersByUser(CatalogState catalog) {
+        return orderDAO.getOrdersByUser(catalog.randomUserId());
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> getRecentOrders(CatalogState catalog) {
+        return orderDAO.getRecentOrders(10);
+    }
+
+    @Benchmark
+    public Double getTotalRevenue(CatalogState catalog) {
+        return orderDAO.getTotalRevenue();
+    }
+
+    @Benchmark
+    public Double getTodayRevenue(CatalogState catalog) {
+        return orderDAO.getTodayRevenue();
+    }
+
+    @Benchmark
+    public Long getTodayOrdersCount(CatalogState catalog) {
+        return orderDAO.getTodayOrdersCount();
+    }
+
+    @Benchmark
+    public Map<String, Long> getOrdersByStatus(CatalogState catalog) {
+        return orderDAO.getOrdersByStatus();
+    }
+
+    @Benchmark
+    public Map<Long, Long> getUnitsSoldByProduct(CatalogState catalog) {
+        return orderDAO.getUnitsSoldByProduct();
+    }
+
+    @Benchmark
+    public boolean updateOrderStatus(CatalogState catalog) {
+        return orderDAO.updateOrderStatus(catalog.randomOrderId(), OrderStatus.PROCESSING);
+    }
+
+    @Benchmark
+    public Order createOrder(CatalogState catalog) {
+        Order order = new Order();
+        order.setUser(userDAO.getUserById(catalog.randomUserId()));
+        order.setTotalAmount(BigDecimal.TEN);
+        order.setShippingAddress("Benchmark address");
+        return orderDAO.createOrder(order);
+    }
+
+    // Full checkout path: one cart line turned into an order and the cart cleared
+    @Benchmark
+    public Order createOrderFromCart(CatalogState catalog) {
+        Long userId = catalog.randomUserId();
+        cartDAO.addToCart(userId, catalog.randomProductId(), 1);
+        return orderDAO.createOrderFromCart(userId, "Benchmark address", BigDecimal.TEN);
+    }
+
+    // A FullCart.LINES line cart turned into one order; the cart is filled outside the measured call
+    @Benchmark
+    public Order createOrderFromFullCart(FullCart cart) {
+        return orderDAO.createOrderFromCart(cart.userId, "Benchmark address", BigDecimal.TEN);
+    }
+
+    // 50 buyers checking out at once against the same products; throughput only, in orders per second
+    @Benchmark
+    @Threads(50)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Order createOrderFromCartConcurrent(CatalogState catalog) {
+        Long userId = catalog.randomUserId();
+        cartDAO.addToCart(userId, catalog.randomProductId(), 1);
+        return orderDAO.createOrderFromCart(userId, "Benchmark address", BigDecimal.TEN);
+    }
+
+    // 50 buyers checking out the same promoted product at once, with and without flash-sale mode
+    @Benchmark
+    @Threads(50)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Order createOrderFromHotProduct(HotProduct hot, CatalogState catalog) {
+        Long userId = catalog.randomUserId();
+        cartDAO.addToCart(userId, HotProduct.PRODUCT_ID, 1);
+        return orderDAO.createOrderFromCart(userId, "Benchmark address", BigDecimal.TEN);
+    }
+
+    @State(Scope.Benchmark)
+    public static class HotProduct {
+
+        public static final Long PRODUCT_ID = 1L;
+
+        @Param({ "false", "true" })
+        public boolean flashSale;
+
+        @Setup(Level.Trial)
+        public void setUp(CatalogState catalog) {
+            if (flashSale && !FlashSaleStock.getInstance().enable(PRODUCT_ID)) {
+                throw new IllegalStateException("Product " + PRODUCT_ID + " could not be put in flash-sale mode");
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FullCart {
+
+        public static final int LINES = 20;
+
+        private final CartDAO cartDAO = new CartDAO();
+        Long userId;
+
+        @Setup(Level.Invocation)
+        public void fill(CatalogState catalog) {
+            userId = catalog.randomUserId();
+            long first = catalog.randomProductId();
+            List<CartLine> lines = new ArrayList<>(LINES);
+            for (int i = 0; i < LINES; i++) {
+                // Distinct products spread over the catalog
+                long productId = 1 + (first - 1 + i * 37L) % catalog.products;
+                lines.add(new CartLine(null, productId, 1, new Date()));
+            }
+            cartDAO.saveCarts(Collections.singletonMap(userId, lines),
+                    Collections.singletonMap(userId, Collections.<Long>emptySet()));
+        }
+    }
+}
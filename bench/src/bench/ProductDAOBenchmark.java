@@ -0,0 +1,150 @@
+package bench;
+
+import dao.ProductDAO;
+import dao.ProductSort;
+import hibernate.HibernateUtil;
+import hibernate.Product;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import model.ProductPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class ProductDAOBenchmark {
+
+    @Param({ "NEWEST", "PRICE_LOW" })
+    public ProductSort sort;
+
+    private static final int IMPORT_SIZE = 500;
+
+    private final ProductDAO productDAO = new ProductDAO();
+    private String secondPageCursor;
+    private Product sampleProduct;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState catalog) {
+        secondPageCursor = productDAO.getProductsPage(null, null, sort, null, null, 20).getNextCursor();
+        sampleProduct = productDAO.getProductById(1L);
+    }
+
+    @Benchmark
+    public List<Product> getAllProducts(CatalogState catalog) {
+        return productDAO.getAllProducts(sort);
+    }
+
+    // The three equivalent category lookups
+    @Benchmark
+    public List<Product> getProductsByCategoryCriteria(CatalogState catalog) {
+        return productDAO.getProductsByCategory(catalog.randomCategoryId(), sort);
+    }
+
+    @Benchmark
+    public List<Product> getProductsByCategoryHQL(CatalogState catalog) {
+        return productDAO.getProductsByCategoryHQL(catalog.randomCategoryId(), sort);
+    }
+
+    @Benchmark
+    public List<Product> getProductsByCategorySQL(CatalogState catalog) {
+        return productDAO.getProductsByCategorySQL(catalog.randomCategoryId(), sort);
+    }
+
+    @Benchmark
+    public List<Product> searchProducts(CatalogState catalog) {
+        return productDAO.searchProducts("Product 12", sort);
+    }
+
+    @Benchmark
+    public ProductPage getProductsPageFirst(CatalogState catalog) {
+        return productDAO.getProductsPage(catalog.randomCategoryId(), null, sort, null, null, 20);
+    }
+
+    @Benchmark
+    public ProductPage getProductsPageCursor(CatalogState catalog) {
+        return productDAO.getProductsPage(null, null, sort, secondPageCursor, null, 20);
+    }
+
+    @Benchmark
+    public Product getProductById(CatalogState catalog) {
+        return productDAO.getProductById(catalog.randomProductId());
+    }
+
+    @Benchmark
+    public List<Product> getLowStockProducts(CatalogState catalog) {
+        return productDAO.getLowStockProducts(10);
+    }
+
+    @Benchmark
+    public Long getOutOfStockCount(CatalogState catalog) {
+        return productDAO.getOutOfStockCount();
+    }
+
+    @Benchmark
+    public Long getLowStockCount(CatalogState catalog) {
+        return productDAO.getLowStockCount(10);
+    }
+
+    @Benchmark
+    public List<Product> getRelatedProducts(CatalogState catalog) {
+        return productDAO.getRelatedProducts(sampleProduct);
+    }
+
+    @Benchmark
+    public boolean updateProduct(CatalogState catalog) {
+        sampleProduct.setDescription("Updated at " + System.nanoTime());
+        return productDAO.updateProduct(sampleProduct);
+    }
+
+    // Insert and delete in one operation so the catalog size stays constant
+    @Benchmark
+    public boolean saveAndDeleteProduct(CatalogState catalog) {
+        Product product = new Product("Benchmark product", "Temporary", BigDecimal.TEN, 1, null,
+                sampleProduct.getCategory());
+        return productDAO.saveProduct(product) && productDAO.deleteProduct(product.getId());
+    }
+
+    // Bulk import of IMPORT_SIZE products per call; scores are per product
+    @Benchmark
+    @OperationsPerInvocation(IMPORT_SIZE)
+    public boolean saveProducts(CatalogState catalog) {
+        List<Product> products = new ArrayList<>(IMPORT_SIZE);
+        for (int i = 0; i < IMPORT_SIZE; i++) {
+            products.add(new Product("Imported product", "Bulk import", BigDecimal.TEN, 1, null,
+                    sampleProduct.getCategory()));
+        }
+        return productDAO.saveProducts(products);
+    }
+
+    // Imported products are dropped after every iteration so the catalog keeps its seeded size
+    @TearDown(Level.Iteration)
+    public void deleteImportedProducts() {
+        org.hibernate.Session session = HibernateUtil.getSessionFactory().openSession();
+        try {
+            org.hibernate.Transaction transaction = session.beginTransaction();
+            session.createQuery("DELETE FROM Product p WHERE p.name = 'Imported product'").executeUpdate();
+            transaction.commit();
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package bench;
+
+import dao.UserDAO;
+import hibernate.User;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class UserDAOBenchmark {
+
+    private final UserDAO userDAO = new UserDAO();
+    private final AtomicLong registrations = new AtomicLong();
+    private User sampleUser;
+
+    @Setup(Level.Trial)
+    public void setUp(CatalogState catalog) {
+        sampleUser = userDAO.getUserById(1L);
+    }
+
+    @Benchmark
+    public User getUserByUsername(CatalogState catalog) {
+        return userDAO.getUserByUsername("user" + catalog.randomUserIndex());
+    }
+
+    @Benchmark
+    public User getUserByEmail(CatalogState catalog) {
+        return userDAO.getUserByEmail("user" + catalog.randomUserIndex() + "@example.com");
+    }
+
+    @Benchmark
+    public boolean isUsernameExists(CatalogState catalog) {
+        return userDAO.isUsernameExists("user" + catalog.randomUserIndex());
+    }
+
+    @Benchmark
+    public boolean isEmailExists(CatalogState catalog) {
+        return userDAO.isEmailExists("user" + catalog.randomUserIndex() + "@example.com");
+    }
+
+    @Benchmark
+    public User getUserById(CatalogState catalog) {
+        return userDAO.getUserById(catalog.randomUserId());
+    }
+
+    @Benchmark
+    public Long getTotalUsersCount(CatalogState catalog) {
+        return userDAO.getTotalUsersCount();
+    }
+
+    @Benchmark
+    public Long getTodayRegisteredUsersCount(CatalogState catalog) {
+        return userDAO.getTodayRegisteredUsersCount();
+    }
+
+    @Benchmark
+    public List<User> getRecentUsers(CatalogState catalog) {
+        return userDAO.getRecentUsers(10);
+    }
+
+    @Benchmark
+    public boolean updateUser(CatalogState catalog) {
+        sampleUser.setAddress("Updated at " + System.nanoTime());
+        return userDAO.updateUser(sampleUser);
+    }
+
+    // Usernames and emails are unique, so every registration needs a fresh one
+    @Benchmark
+    public boolean saveUser(CatalogState catalog) {
+        long n = registrations.incrementAndGet();
+        return userDAO.saveUser(new User(null, "bench" + n, "bench" + n + "@example.com", "password",
+                "Bench " + n, null, null, new Date()));
+    }
+}
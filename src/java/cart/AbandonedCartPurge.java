@@ -0,0 +1,70 @@
+package cart;
+
+import dao.CartDAO;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes cart lines that were added more than PURGE_AFTER_DAYS ago, so
+ * abandoned carts do not pile up in cart_items. Runs as a background job:
+ * every batch is its own short transaction over at most BATCH_SIZE rows,
+ * with a pause in between so checkout and cart writes are never queued
+ * behind the purge for long.
+ *
+ * Guest carts never reach the database; GuestCartStore expires them itself.
+ */
+public class AbandonedCartPurge {
+
+    // All can be set with -D on the server command line
+    public static final long INTERVAL_MINUTES = Long.getLong("cart.purgeIntervalMinutes", 60L);
+    private static final int PURGE_AFTER_DAYS = Integer.getInteger("cart.purgeAfterDays", 30);
+    private static final int BATCH_SIZE = Integer.getInteger("cart.purgeBatchSize", 500);
+    private static final long PAUSE_MILLIS = 50L;
+
+    private final CartDAO cartDAO;
+
+    public AbandonedCartPurge(CartDAO cartDAO) {
+        this.cartDAO = cartDAO;
+    }
+
+    /**
+     * Purges every line older than the cutoff and returns the number of rows
+     * deleted. Stops early when a batch fails or the thread is interrupted;
+     * the next run carries on from there.
+     */
+    public int run() {
+        long started = System.nanoTime();
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(PURGE_AFTER_DAYS));
+        int total = 0;
+        int batches = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<Long> userIds = new HashSet<>();
+            int deleted = cartDAO.deleteCartItemsAddedBefore(cutoff, BATCH_SIZE, userIds);
+            if (deleted < 0) {
+                System.err.println("Abandoned cart purge stopped after a failed batch");
+                break;
+            }
+            if (!userIds.isEmpty()) {
+                CartCache.getInstance().discard(userIds);
+            }
+            total += deleted;
+            batches++;
+            if (deleted < BATCH_SIZE) {
+                break;
+            }
+            try {
+                Thread.sleep(PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.out.println("Abandoned cart purge removed " + total + " cart items older than "
+                + PURGE_AFTER_DAYS + " days in " + batches + " batches, " + millis + " ms");
+        return total;
+    }
+}
@@ -0,0 +1,415 @@
+package cart;
+
+import dao.CartDAO;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import model.CartLine;
+
+/**
+ * Carts of recently active users, held in memory so the cart page and the
+ * cart badge polled on every page never touch cart_items. Mutations change
+ * the cached cart and mark it dirty; a background writer stores dirty carts
+ * in batches every FLUSH_SECONDS, so that is the most a crash can lose.
+ * Checkout and logout flush the user's cart right away.
+ *
+ * At most MAX_CARTS carts are kept, least recently used go first. Dirty
+ * carts and carts being written are never evicted, so whatever is not
+ * cached is exactly what the database holds.
+ */
+public class CartCache {
+
+    private static final CartCache INSTANCE = new CartCache(new CartDAO());
+
+    // Both can be set with -D on the server command line
+    public static final long FLUSH_SECONDS = Long.getLong("cart.flushSeconds", 5L);
+    private static final int MAX_CARTS = Integer.getInteger("cart.maxCarts", 10000);
+    private static final int CARTS_PER_BATCH = 200;
+
+    private final CartDAO cartDAO;
+
+    // userId -> cart, least recently used first; everything below is guarded by this
+    private final LinkedHashMap<Long, Cart> carts = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> dirty = new LinkedHashSet<>();
+    private final Set<Long> flushing = new HashSet<>();
+    // Users whose checkout is running; their carts are held until it ends
+    private final Set<Long> checkingOut = new HashSet<>();
+    private long writes;
+
+    // Held for a whole write so an older state of a cart never lands after a newer one
+    private final Object writeLock = new Object();
+
+    private CartCache(CartDAO cartDAO) {
+        this.cartDAO = cartDAO;
+    }
+
+    public static CartCache getInstance() {
+        return INSTANCE;
+    }
+
+    public ShoppingCart forUser(final Long userId) {
+        return new ShoppingCart() {
+            @Override
+            public List<CartLine> getLines() { return CartCache.this.getLines(userId); }
+            @Override
+            public int getLineCount() { return CartCache.this.getLineCount(userId); }
+            @Override
+            public void add(Long productId, int quantity) { CartCache.this.add(userId, productId, quantity); }
+            @Override
+            public boolean setQuantity(Long productId, int quantity) { return CartCache.this.setQuantity(userId, productId, quantity); }
+            @Override
+            public boolean remove(Long productId) { return CartCache.this.remove(userId, productId); }
+            @Override
+            public void clear() { CartCache.this.clear(userId); }
+            @Override
+            public void apply(List<CartOperation> operations) { CartCache.this.apply(userId, operations); }
+            @Override
+            public Long findProductId(Long cartItemId) { return CartCache.this.findProductId(userId, cartItemId); }
+        };
+    }
+
+    // Lines of the user's cart, most recently added first
+    public List<CartLine> getLines(Long userId) {
+        List<CartLine> lines = withCart(userId, cart -> new ArrayList<>(cart.lines.values()));
+        lines.sort(NEWEST_FIRST);
+        return lines;
+    }
+
+    public int getLineCount(Long userId) {
+        return withCart(userId, cart -> cart.lines.size());
+    }
+
+    // Product of the line stored under the given cart_items id, or null
+    public Long findProductId(Long userId, Long cartItemId) {
+        return withCart(userId, cart -> {
+            for (CartLine line : cart.lines.values()) {
+                if (cartItemId.equals(line.getId())) {
+                    return line.getProductId();
+                }
+            }
+            return null;
+        });
+    }
+
+    public void add(Long userId, Long productId, int quantity) {
+        withCart(userId, cart -> {
+            cart.add(productId, quantity, new Date());
+            dirty.add(userId);
+            return null;
+        });
+    }
+
+    // See ShoppingCart.apply; the whole batch is stored by the same write
+    public void apply(Long userId, List<CartOperation> operations) {
+        withCart(userId, cart -> {
+            Date now = new Date();
+            for (CartOperation operation : operations) {
+                switch (operation.getOp()) {
+                    case CartOperation.ADD:
+                        cart.add(operation.getProductId(), operation.getQuantity(), now);
+                        break;
+                    case CartOperation.UPDATE:
+                        cart.set(operation.getProductId(), operation.getQuantity(), now);
+                        break;
+                    case CartOperation.REMOVE:
+                        cart.remove(operation.getProductId());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown cart operation: " + operation.getOp());
+                }
+            }
+            dirty.add(userId);
+            return null;
+        });
+    }
+
+    /**
+     * Adds the lines of a guest cart to the user's cart and stores the
+     * result right away, as one batched write. Quantities of products that
+     * are in both carts are summed. False when the write failed, in which
+     * case the merged cart is retried by the background writer.
+     */
+    public boolean merge(Long userId, List<CartLine> lines) {
+        withCart(userId, cart -> {
+            for (CartLine line : lines) {
+                cart.add(line.getProductId(), line.getQuantity(), line.getAddedDate());
+            }
+            dirty.add(userId);
+            return null;
+        });
+        return flush(userId);
+    }
+
+    // A quantity of zero or less removes the line; false when the product is not in the cart
+    public boolean setQuantity(Long userId, Long productId, int quantity) {
+        if (quantity <= 0) {
+            return remove(userId, productId);
+        }
+        return withCart(userId, cart -> {
+            CartLine line = cart.lines.get(productId);
+            if (line == null) {
+                return false;
+            }
+            cart.put(line.withQuantity(quantity));
+            dirty.add(userId);
+            return true;
+        });
+    }
+
+    public boolean remove(Long userId, Long productId) {
+        return withCart(userId, cart -> {
+            if (!cart.remove(productId)) {
+                return false;
+            }
+            dirty.add(userId);
+            return true;
+        });
+    }
+
+    public void clear(Long userId) {
+        withCart(userId, cart -> {
+            for (Long productId : new ArrayList<>(cart.lines.keySet())) {
+                cart.remove(productId);
+            }
+            dirty.add(userId);
+            return null;
+        });
+    }
+
+    /**
+     * Starts a checkout of the user's cart: pending changes are stored, and
+     * until endCheckout every other use of the cart waits, so nothing is
+     * added to the lines the order takes or written back over them. False
+     * when the cart could not be stored, in which case the checkout has
+     * already ended.
+     */
+    public boolean beginCheckout(Long userId) {
+        synchronized (this) {
+            awaitCheckout(userId);
+            checkingOut.add(userId);
+        }
+        boolean stored = false;
+        try {
+            stored = flush(userId);
+            return stored;
+        } finally {
+            if (!stored) {
+                endCheckout(userId, false);
+            }
+        }
+    }
+
+    /**
+     * Ends a checkout started by beginCheckout. When an order was placed it
+     * deleted the cart rows, so the cached cart is dropped and loads that
+     * read the rows before are retried.
+     */
+    public synchronized void endCheckout(Long userId, boolean ordered) {
+        if (ordered) {
+            carts.remove(userId);
+            dirty.remove(userId);
+            writes++;
+        }
+        checkingOut.remove(userId);
+        notifyAll();
+    }
+
+    /**
+     * Drops the cached carts of users whose rows were deleted behind the
+     * cache, as the abandoned cart purge does. Carts with unsaved changes are
+     * kept: their owners are active, and the next write stores what they see.
+     */
+    public synchronized void discard(Collection<Long> userIds) {
+        for (Long userId : userIds) {
+            if (!dirty.contains(userId) && !flushing.contains(userId)) {
+                carts.remove(userId);
+            }
+        }
+        // Loads that started before the delete retry instead of caching the purged lines
+        writes++;
+    }
+
+    // Writes the user's cart now if it has unsaved changes; false when the write failed
+    public boolean flush(Long userId) {
+        synchronized (writeLock) {
+            return write(Collections.singletonList(userId));
+        }
+    }
+
+    // Writes every dirty cart; run by the background writer and at shutdown
+    public boolean flushAll() {
+        synchronized (writeLock) {
+            List<Long> userIds;
+            synchronized (this) {
+                userIds = new ArrayList<>(dirty);
+            }
+            boolean saved = true;
+            for (int start = 0; start < userIds.size(); start += CARTS_PER_BATCH) {
+                saved &= write(userIds.subList(start, Math.min(userIds.size(), start + CARTS_PER_BATCH)));
+            }
+            return saved;
+        }
+    }
+
+    private boolean write(Collection<Long> userIds) {
+        Map<Long, List<CartLine>> lines = new HashMap<>();
+        Map<Long, Set<Long>> removed = new HashMap<>();
+        synchronized (this) {
+            for (Long userId : userIds) {
+                if (!dirty.remove(userId)) {
+                    continue;
+                }
+                // Dirty carts are never evicted
+                Cart cart = carts.get(userId);
+                lines.put(userId, new ArrayList<>(cart.lines.values()));
+                removed.put(userId, cart.removed);
+                cart.removed = new HashSet<>();
+                flushing.add(userId);
+            }
+        }
+        if (lines.isEmpty()) {
+            return true;
+        }
+
+        boolean saved = cartDAO.saveCarts(lines, removed);
+
+        synchronized (this) {
+            flushing.removeAll(lines.keySet());
+            writes++;
+            if (!saved) {
+                // Hand the changes back so the next run retries them
+                for (Long userId : lines.keySet()) {
+                    Cart cart = carts.get(userId);
+                    if (cart == null) {
+                        continue; // invalidated meanwhile
+                    }
+                    for (Long productId : removed.get(userId)) {
+                        if (!cart.lines.containsKey(productId)) {
+                            cart.removed.add(productId);
+                        }
+                    }
+                    dirty.add(userId);
+                }
+            }
+            evictIfFull(null);
+        }
+        return saved;
+    }
+
+    // Runs the function on the user's cart while it is cached and locked, loading it first if needed
+    private <T> T withCart(Long userId, Function<Cart, T> function) {
+        while (true) {
+            long writesBefore;
+            synchronized (this) {
+                awaitCheckout(userId);
+                Cart cart = carts.get(userId);
+                if (cart != null) {
+                    return function.apply(cart);
+                }
+                writesBefore = writes;
+            }
+
+            // Loaded without the lock so one slow query does not stall every other cart
+            List<CartLine> stored = cartDAO.getCartLines(userId);
+            if (stored == null) {
+                throw new IllegalStateException("Cart of user " + userId + " could not be loaded");
+            }
+
+            synchronized (this) {
+                // A write or checkout that finished meanwhile may have been for this cart, so the load
+                // could be stale; a checkout that is still running holds the cart
+                if (!carts.containsKey(userId) && writes == writesBefore && !checkingOut.contains(userId)) {
+                    Cart cart = new Cart();
+                    for (CartLine line : stored) {
+                        cart.lines.put(line.getProductId(), line);
+                    }
+                    carts.put(userId, cart);
+                    T result = function.apply(cart);
+                    evictIfFull(userId);
+                    return result;
+                }
+            }
+        }
+    }
+
+    // Called with the lock held; waits until no checkout holds the user's cart
+    private void awaitCheckout(Long userId) {
+        while (checkingOut.contains(userId)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while the cart of user " + userId + " is checked out");
+            }
+        }
+    }
+
+    // Never evicts the cart of keepUserId, which the caller has just loaded
+    private void evictIfFull(Long keepUserId) {
+        Iterator<Long> iterator = carts.keySet().iterator();
+        while (carts.size() > MAX_CARTS && iterator.hasNext()) {
+            Long userId = iterator.next();
+            if (!userId.equals(keepUserId) && !dirty.contains(userId) && !flushing.contains(userId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    static final Comparator<CartLine> NEWEST_FIRST = (a, b) -> {
+        int result = Long.compare(time(b.getAddedDate()), time(a.getAddedDate()));
+        return result != 0 ? result : Long.compare(b.getProductId(), a.getProductId());
+    };
+
+    private static long time(Date date) {
+        return date != null ? date.getTime() : 0L;
+    }
+
+    private static class Cart {
+        // productId -> line
+        final Map<Long, CartLine> lines = new LinkedHashMap<>();
+        // Products removed since the last write, so their rows can be deleted
+        Set<Long> removed = new HashSet<>();
+
+        void add(Long productId, int quantity, Date addedDate) {
+            if (quantity <= 0) {
+                return; // see ShoppingCart.add
+            }
+            CartLine line = lines.get(productId);
+            put(line != null ? line.withQuantity(line.getQuantity() + quantity)
+                    : new CartLine(null, productId, quantity, addedDate));
+        }
+
+        void set(Long productId, int quantity, Date addedDate) {
+            if (quantity <= 0) {
+                remove(productId);
+                return;
+            }
+            CartLine line = lines.get(productId);
+            put(line != null ? line.withQuantity(quantity) : new CartLine(null, productId, quantity, addedDate));
+        }
+
+        void put(CartLine line) {
+            lines.put(line.getProductId(), line);
+            removed.remove(line.getProductId());
+        }
+
+        boolean remove(Long productId) {
+            if (lines.remove(productId) == null) {
+                return false;
+            }
+            removed.add(productId);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package cart;
+
+// One step of a batch cart change, posted as {"op": "update", "productId": 3, "quantity": 2}
+public class CartOperation {
+
+    public static final String ADD = "add";
+    public static final String UPDATE = "update";
+    public static final String REMOVE = "remove";
+
+    private String op;
+    private Long productId;
+    private Integer quantity;
+
+    public CartOperation() {
+    }
+
+    public CartOperation(String op, Long productId, Integer quantity) {
+        this.op = op;
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    // Getters
+    public String getOp() { return op; }
+    public Long getProductId() { return productId; }
+    public Integer getQuantity() { return quantity; }
+}
@@ -0,0 +1,224 @@
+package cart;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import model.CartLine;
+
+/**
+ * Carts of visitors who are not logged in, kept only in memory and keyed by
+ * a random token in the guest_cart cookie. Nothing is written to the
+ * database until LoginServlet merges the cart into the user's.
+ *
+ * At most MAX_CARTS carts are kept, least recently used go first, and a
+ * cart left alone for longer than the cookie lives is dropped.
+ */
+public class GuestCartStore {
+
+    private static final GuestCartStore INSTANCE = new GuestCartStore();
+
+    public static final String COOKIE_NAME = "guest_cart";
+    private static final int COOKIE_MAX_AGE = (int) TimeUnit.DAYS.toSeconds(7);
+    private static final int MAX_CARTS = Integer.getInteger("cart.maxGuestCarts", 50000);
+    private static final int TOKEN_BYTES = 16;
+
+    private final SecureRandom random = new SecureRandom();
+
+    // token -> cart, least recently used first, guarded by this
+    private final LinkedHashMap<String, GuestCart> carts = new LinkedHashMap<String, GuestCart>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GuestCart> eldest) {
+            return size() > MAX_CARTS
+                    || System.currentTimeMillis() - eldest.getValue().lastUsed > COOKIE_MAX_AGE * 1000L;
+        }
+    };
+
+    private GuestCartStore() {
+    }
+
+    public static GuestCartStore getInstance() {
+        return INSTANCE;
+    }
+
+    public String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    // The guest cart named by the token; a null token reads as an empty cart that cannot be changed
+    public ShoppingCart forToken(final String token) {
+        return new ShoppingCart() {
+            @Override
+            public List<CartLine> getLines() {
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    List<CartLine> lines = cart != null ? new ArrayList<>(cart.lines.values()) : new ArrayList<CartLine>();
+                    lines.sort(CartCache.NEWEST_FIRST);
+                    return lines;
+                }
+            }
+
+            @Override
+            public int getLineCount() {
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    return cart != null ? cart.lines.size() : 0;
+                }
+            }
+
+            @Override
+            public void add(Long productId, int quantity) {
+                if (token == null) {
+                    throw new IllegalStateException("Guest cart has no token");
+                }
+                if (quantity <= 0) {
+                    return;
+                }
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    if (cart == null) {
+                        cart = new GuestCart();
+                        carts.put(token, cart);
+                    }
+                    CartLine line = cart.lines.get(productId);
+                    cart.lines.put(productId, line != null ? line.withQuantity(line.getQuantity() + quantity)
+                            : new CartLine(null, productId, quantity, new Date()));
+                }
+            }
+
+            @Override
+            public boolean setQuantity(Long productId, int quantity) {
+                if (quantity <= 0) {
+                    return remove(productId);
+                }
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    CartLine line = cart != null ? cart.lines.get(productId) : null;
+                    if (line == null) {
+                        return false;
+                    }
+                    cart.lines.put(productId, line.withQuantity(quantity));
+                    return true;
+                }
+            }
+
+            @Override
+            public boolean remove(Long productId) {
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    return cart != null && cart.lines.remove(productId) != null;
+                }
+            }
+
+            @Override
+            public void clear() {
+                synchronized (GuestCartStore.this) {
+                    if (token != null) {
+                        carts.remove(token);
+                    }
+                }
+            }
+
+            @Override
+            public void apply(List<CartOperation> operations) {
+                if (token == null) {
+                    throw new IllegalStateException("Guest cart has no token");
+                }
+                synchronized (GuestCartStore.this) {
+                    GuestCart cart = find(token);
+                    if (cart == null) {
+                        cart = new GuestCart();
+                        carts.put(token, cart);
+                    }
+                    Date now = new Date();
+                    for (CartOperation operation : operations) {
+                        Long productId = operation.getProductId();
+                        CartLine line = cart.lines.get(productId);
+                        switch (operation.getOp()) {
+                            case CartOperation.ADD:
+                                cart.lines.put(productId, line != null
+                                        ? line.withQuantity(line.getQuantity() + operation.getQuantity())
+                                        : new CartLine(null, productId, operation.getQuantity(), now));
+                                break;
+                            case CartOperation.UPDATE:
+                                if (operation.getQuantity() <= 0) {
+                                    cart.lines.remove(productId);
+                                } else {
+                                    cart.lines.put(productId, line != null ? line.withQuantity(operation.getQuantity())
+                                            : new CartLine(null, productId, operation.getQuantity(), now));
+                                }
+                                break;
+                            case CartOperation.REMOVE:
+                                cart.lines.remove(productId);
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unknown cart operation: " + operation.getOp());
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public Long findProductId(Long cartItemId) {
+                return null; // guest lines are never stored
+            }
+        };
+    }
+
+    // Removes the guest cart and returns its lines, for merging at login
+    public synchronized List<CartLine> take(String token) {
+        GuestCart cart = token != null ? carts.remove(token) : null;
+        if (cart == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(cart.lines.values());
+    }
+
+    private GuestCart find(String token) {
+        if (token == null) {
+            return null;
+        }
+        GuestCart cart = carts.get(token);
+        if (cart != null) {
+            cart.lastUsed = System.currentTimeMillis();
+        }
+        return cart;
+    }
+
+    // Token from the request's guest_cart cookie, or null
+    public static String tokenFrom(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName()) && cookie.getValue() != null
+                        && !cookie.getValue().isEmpty() && cookie.getValue().length() <= 64) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    public static Cookie cookie(HttpServletRequest request, String token) {
+        Cookie cookie = new Cookie(COOKIE_NAME, token != null ? token : "");
+        cookie.setHttpOnly(true);
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setMaxAge(token != null ? COOKIE_MAX_AGE : 0);
+        return cookie;
+    }
+
+    private static class GuestCart {
+        // productId -> line
+        final Map<Long, CartLine> lines = new LinkedHashMap<>();
+        long lastUsed = System.currentTimeMillis();
+    }
+}
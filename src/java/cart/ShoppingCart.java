@@ -0,0 +1,37 @@
+package cart;
+
+import java.util.List;
+import model.CartLine;
+
+/**
+ * What the cart endpoints can do with one cart, whether it belongs to a
+ * logged-in user (CartCache) or to a guest (GuestCartStore). Lines are
+ * addressed by product.
+ */
+public interface ShoppingCart {
+
+    // Most recently added first
+    List<CartLine> getLines();
+
+    int getLineCount();
+
+    // Sums the quantity into the product's line; a quantity of zero or less changes nothing
+    void add(Long productId, int quantity);
+
+    // A quantity of zero or less removes the line; false when the product is not in the cart
+    boolean setQuantity(Long productId, int quantity);
+
+    boolean remove(Long productId);
+
+    void clear();
+
+    /**
+     * Applies validated operations all at once, so no reader sees half of
+     * them: add sums quantities, update sets the quantity (adding the line if
+     * needed, removing it at zero) and remove drops the line if present.
+     */
+    void apply(List<CartOperation> operations);
+
+    // Product of the line stored under the given cart_items id, or null
+    Long findProductId(Long cartItemId);
+}
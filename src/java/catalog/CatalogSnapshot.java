@@ -0,0 +1,292 @@
+package catalog;
+
+import dao.CategoryDAO;
+import dao.ProductDAO;
+import dao.ProductSort;
+import hibernate.Category;
+import hibernate.Product;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import model.CategoryDTO;
+import model.ProductDTO;
+import model.ProductPage;
+import util.DataVersions;
+
+/**
+ * Immutable, denormalised view of the whole catalog for storefront reads.
+ * Products are kept as ready-to-serialise DTOs in one array, and for every
+ * sort key there is an array of positions into it, globally and per category,
+ * ordered exactly like the database listing (sort key, then id).
+ *
+ * Readers grab the current snapshot once and slice its arrays without locks
+ * or database access. Admin writes build a new snapshot and swap it in.
+ *
+ * Sales do not rebuild it, so a DTO's quantity is only what was on hand at
+ * the last admin write; stock shown or checked on the storefront comes from
+ * ReservationIndex, which every sale and restock keeps current.
+ */
+public final class CatalogSnapshot {
+
+    private static final CatalogSnapshot EMPTY = new CatalogSnapshot(new ArrayList<ProductDTO>(),
+            new ArrayList<CategoryDTO>(), false);
+
+    private static volatile CatalogSnapshot current = EMPTY;
+
+    private final ProductDTO[] products;
+    private final Map<Long, ProductDTO> productsById;
+    private final List<CategoryDTO> categories;
+    private final Map<Long, CategoryDTO> categoriesById;
+    private final Map<ProductSort, int[]> allSorted;
+    private final Map<Long, Map<ProductSort, int[]>> sortedByCategory;
+    private final boolean ready;
+
+    private CatalogSnapshot(List<ProductDTO> productList, List<CategoryDTO> categoryList, boolean ready) {
+        this.ready = ready;
+        this.products = productList.toArray(new ProductDTO[0]);
+
+        Map<Long, ProductDTO> byId = new HashMap<>();
+        Map<Long, List<Integer>> positionsByCategory = new HashMap<>();
+        for (int i = 0; i < products.length; i++) {
+            byId.put(products[i].getId(), products[i]);
+            Long categoryId = products[i].getCategoryId();
+            if (categoryId != null) {
+                List<Integer> positions = positionsByCategory.get(categoryId);
+                if (positions == null) {
+                    positions = new ArrayList<>();
+                    positionsByCategory.put(categoryId, positions);
+                }
+                positions.add(i);
+            }
+        }
+        this.productsById = Collections.unmodifiableMap(byId);
+
+        Map<Long, CategoryDTO> categoryMap = new LinkedHashMap<>();
+        for (CategoryDTO category : categoryList) {
+            categoryMap.put(category.getId(), category);
+        }
+        this.categories = Collections.unmodifiableList(new ArrayList<>(categoryList));
+        this.categoriesById = Collections.unmodifiableMap(categoryMap);
+
+        int[] everything = new int[products.length];
+        for (int i = 0; i < everything.length; i++) {
+            everything[i] = i;
+        }
+        this.allSorted = sortAll(everything);
+
+        Map<Long, Map<ProductSort, int[]>> byCategory = new HashMap<>();
+        for (Map.Entry<Long, List<Integer>> entry : positionsByCategory.entrySet()) {
+            int[] positions = new int[entry.getValue().size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = entry.getValue().get(i);
+            }
+            byCategory.put(entry.getKey(), sortAll(positions));
+        }
+        this.sortedByCategory = byCategory;
+    }
+
+    // Current snapshot; hold on to it for the whole request to read a consistent catalog
+    public static CatalogSnapshot get() {
+        return current;
+    }
+
+    /**
+     * Loads every product and category from the database and swaps the
+     * snapshot in. Used at startup and whenever a category changes, since
+     * category names are copied into the product DTOs.
+     */
+    public static void reload() {
+        rebuild(new ProductDAO().getAllProducts(), new CategoryDAO().getAllCategories());
+    }
+
+    // Replaces the snapshot with entities already loaded by the caller
+    public static synchronized void rebuild(List<Product> productEntities, List<Category> categoryEntities) {
+        List<ProductDTO> productList = new ArrayList<>(productEntities.size());
+        for (Product product : productEntities) {
+            productList.add(new ProductDTO(product));
+        }
+        List<CategoryDTO> categoryList = new ArrayList<>(categoryEntities.size());
+        for (Category category : categoryEntities) {
+            categoryList.add(new CategoryDTO(category));
+        }
+        current = new CatalogSnapshot(productList, categoryList, true);
+        DataVersions.categoriesChanged();
+        DataVersions.catalogChanged();
+    }
+
+    // Copy-on-write: adds or replaces one product
+    public static synchronized void putProduct(ProductDTO product) {
+        CatalogSnapshot snapshot = current;
+        List<ProductDTO> productList = new ArrayList<>(snapshot.products.length + 1);
+        for (ProductDTO existing : snapshot.products) {
+            if (!existing.getId().equals(product.getId())) {
+                productList.add(existing);
+            }
+        }
+        productList.add(product);
+        current = new CatalogSnapshot(productList, snapshot.categories, snapshot.ready);
+        // Bumped again after the swap so no tag is handed out for the old snapshot
+        DataVersions.productChanged(product.getId());
+    }
+
+    // Copy-on-write: drops one product
+    public static synchronized void removeProduct(Long productId) {
+        CatalogSnapshot snapshot = current;
+        List<ProductDTO> productList = new ArrayList<>(snapshot.products.length);
+        for (ProductDTO existing : snapshot.products) {
+            if (!existing.getId().equals(productId)) {
+                productList.add(existing);
+            }
+        }
+        current = new CatalogSnapshot(productList, snapshot.categories, snapshot.ready);
+        DataVersions.productChanged(productId);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public ProductDTO getProduct(Long id) {
+        return productsById.get(id);
+    }
+
+    public List<CategoryDTO> getCategories() {
+        return categories;
+    }
+
+    public CategoryDTO getCategory(Long id) {
+        return categoriesById.get(id);
+    }
+
+    // Number of products in the category, or in the whole catalog when categoryId is null
+    public int count(Long categoryId) {
+        return positions(categoryId, ProductSort.NEWEST).length;
+    }
+
+    public List<ProductDTO> list(Long categoryId, ProductSort sort, int offset, int limit) {
+        return slice(positions(categoryId, sort), offset, limit);
+    }
+
+    /**
+     * Same contract as ProductDAO.getProductsPage without search: the cursor is
+     * interchangeable with the one produced by the database listing.
+     */
+    public ProductPage page(Long categoryId, ProductSort sort, String cursor, Integer page, int size) {
+        int[] positions = positions(categoryId, sort);
+
+        int start = 0;
+        Long totalCount = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            Object[] keyset = sort.parseCursor(cursor);
+            start = seek(positions, sort, keyset[0], (Long) keyset[1]);
+        } else {
+            totalCount = (long) positions.length;
+            if (page != null && page > 1) {
+                start = (int) Math.min(positions.length, (long) (page - 1) * size);
+            }
+        }
+
+        List<ProductDTO> items = slice(positions, start, size);
+        String nextCursor = null;
+        if (start + size < positions.length) {
+            ProductDTO last = items.get(items.size() - 1);
+            nextCursor = sort.cursor(last.getId(), last.getPrice(), last.getName(), last.getCreatedAt());
+        }
+        return new ProductPage(items, nextCursor, totalCount, size);
+    }
+
+    private int[] positions(Long categoryId, ProductSort sort) {
+        if (categoryId == null) {
+            return allSorted.get(sort);
+        }
+        Map<ProductSort, int[]> sorted = sortedByCategory.get(categoryId);
+        return sorted != null ? sorted.get(sort) : new int[0];
+    }
+
+    private List<ProductDTO> slice(int[] positions, int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, positions.length));
+        int to = (int) Math.min(positions.length, (long) from + Math.max(0, limit));
+        List<ProductDTO> items = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            items.add(products[positions[i]]);
+        }
+        return items;
+    }
+
+    // First position ordered strictly after the cursor row
+    private int seek(int[] positions, ProductSort sort, Object value, Long id) {
+        int low = 0;
+        int high = positions.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            ProductDTO product = products[positions[mid]];
+            if (compare(sort, key(product, sort), product.getId(), value, id) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Map<ProductSort, int[]> sortAll(int[] positions) {
+        Map<ProductSort, int[]> sorted = new HashMap<>();
+        for (ProductSort sort : ProductSort.values()) {
+            Integer[] boxed = new Integer[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                boxed[i] = positions[i];
+            }
+            Arrays.sort(boxed, comparator(sort));
+            int[] result = new int[boxed.length];
+            for (int i = 0; i < boxed.length; i++) {
+                result[i] = boxed[i];
+            }
+            sorted.put(sort, result);
+        }
+        return sorted;
+    }
+
+    private Comparator<Integer> comparator(final ProductSort sort) {
+        return (a, b) -> compare(sort, key(products[a], sort), products[a].getId(),
+                key(products[b], sort), products[b].getId());
+    }
+
+    private static Object key(ProductDTO product, ProductSort sort) {
+        switch (sort) {
+            case PRICE_LOW:
+            case PRICE_HIGH:
+                return product.getPrice();
+            case NAME:
+                return product.getName();
+            case NEWEST:
+            default:
+                return product.getCreatedAt();
+        }
+    }
+
+    // Matches the SQL ordering: nulls first, names case-insensitive, id as tie-breaker
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compare(ProductSort sort, Object aKey, Long aId, Object bKey, Long bId) {
+        int result;
+        if (aKey == null || bKey == null) {
+            result = aKey == bKey ? 0 : (aKey == null ? -1 : 1);
+        } else if (aKey instanceof String) {
+            result = ((String) aKey).compareToIgnoreCase((String) bKey);
+        } else if (aKey instanceof Date) {
+            // java.sql.Timestamp does not compare cleanly with a plain Date
+            result = Long.compare(((Date) aKey).getTime(), ((Date) bKey).getTime());
+        } else {
+            result = ((Comparable) aKey).compareTo(bKey);
+        }
+        if (result == 0) {
+            result = aId.compareTo(bId);
+        }
+        return sort.isAscending() ? result : -result;
+    }
+}
@@ -5,19 +5,12 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import hibernate.User;
 
 @WebServlet("/admin-auth")
 public class AdminAuthServlet extends HttpServlet {
     
-    private Gson gson;
-    
-    @Override
-    public void init() throws ServletException {
-        gson = new Gson();
-    }
-    
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
         
@@ -36,9 +29,9 @@ public class AdminAuthServlet extends HttpServlet {
                     User user = (User) session.getAttribute("user");
                     boolean isAdmin = (user != null && user.isAdmin());
                     
-                    out.write(gson.toJson(new AuthResponse(isAdmin, isAdmin ? user.getUsername() : null)));
+                    JsonResponse.write(out, new AuthResponse(isAdmin, isAdmin ? user.getUsername() : null));
                 } else {
-                    out.write(gson.toJson(new AuthResponse(false, null)));
+                    JsonResponse.write(out, new AuthResponse(false, null));
                 }
             }
             
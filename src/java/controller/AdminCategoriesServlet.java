@@ -4,25 +4,28 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
-import com.google.gson.Gson;
+import json.JsonResponse;
+import catalog.CatalogSnapshot;
 import dao.CategoryDAO;
 import hibernate.Category;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import search.ProductSearchIndex;
+import search.SuggestIndex;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/admin-categories")
 @MultipartConfig
 public class AdminCategoriesServlet extends HttpServlet {
     
     private CategoryDAO categoryDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         categoryDAO = new CategoryDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -44,7 +47,9 @@ public class AdminCategoriesServlet extends HttpServlet {
         
         try {
             if ("list".equals(action)) {
-                sendCategoryList(out);
+                if (!ConditionalGet.isNotModified(request, response, DataVersions.catalog())) {
+                    sendCategoryList(out);
+                }
             } else if ("get".equals(action)) {
                 sendCategoryDetails(request, response, out);
             } else {
@@ -94,6 +99,7 @@ public class AdminCategoriesServlet extends HttpServlet {
     
     private void sendCategoryList(PrintWriter out) {
         List<Category> categories = categoryDAO.getAllCategories();
+        CatalogSnapshot catalog = CatalogSnapshot.get();
         List<Map<String, Object>> categoryList = new ArrayList<Map<String, Object>>();
         
         for (Category category : categories) {
@@ -102,13 +108,12 @@ public class AdminCategoriesServlet extends HttpServlet {
             categoryMap.put("name", category.getName());
             categoryMap.put("description", category.getDescription());
             categoryMap.put("imageUrl", category.getImageUrl());
-            // You can add product count here if you implement it in CategoryDAO
-            categoryMap.put("productCount", 0); // Placeholder
+            categoryMap.put("productCount", catalog.count(category.getId()));
             
             categoryList.add(categoryMap);
         }
         
-        out.write(gson.toJson(categoryList));
+        JsonResponse.write(out, categoryList);
     }
     
     private void sendCategoryDetails(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
@@ -135,7 +140,7 @@ public class AdminCategoriesServlet extends HttpServlet {
             categoryMap.put("description", category.getDescription());
             categoryMap.put("imageUrl", category.getImageUrl());
             
-            out.write(gson.toJson(categoryMap));
+            JsonResponse.write(out, categoryMap);
             
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -179,8 +184,17 @@ public class AdminCategoriesServlet extends HttpServlet {
             category.setImageUrl(imageUrl.trim());
         }
         
-        // For now, just return success - you'll need to implement save/update in CategoryDAO
-        out.write("{\"success\": true, \"message\": \"Category saved successfully\"}");
+        boolean success = categoryDAO.saveCategory(category);
+        if (success) {
+            // Product DTOs carry the category name, so rebuild rather than patch
+            CatalogSnapshot.reload();
+            ProductSearchIndex.getInstance().reindexCategory(category.getId(), CatalogSnapshot.get());
+            SuggestIndex.getInstance().putCategory(category.getId(), category.getName());
+            out.write("{\"success\": true, \"message\": \"Category saved successfully\"}");
+        } else {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            out.write("{\"error\": \"Failed to save category\"}");
+        }
     }
     
     private void deleteCategory(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
@@ -193,9 +207,16 @@ public class AdminCategoriesServlet extends HttpServlet {
         
         try {
             Long categoryId = Long.parseLong(id);
-            // Implement delete in CategoryDAO
-            // boolean success = categoryDAO.deleteCategory(categoryId);
-            out.write("{\"success\": true, \"message\": \"Category deleted successfully\"}");
+            boolean success = categoryDAO.deleteCategory(categoryId);
+            if (success) {
+                CatalogSnapshot.reload();
+                ProductSearchIndex.getInstance().reindexCategory(categoryId, CatalogSnapshot.get());
+                SuggestIndex.getInstance().removeCategory(categoryId);
+                out.write("{\"success\": true, \"message\": \"Category deleted successfully\"}");
+            } else {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.write("{\"error\": \"Failed to delete category\"}");
+            }
             
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
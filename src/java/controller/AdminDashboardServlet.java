@@ -5,13 +5,16 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import dao.ProductDAO;
 import dao.UserDAO;
 import dao.OrderDAO;
+import hibernate.HibernateUtil;
 import hibernate.User;
 import hibernate.Product;
 import java.util.*;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 
 @WebServlet("/admin-dashboard")
 public class AdminDashboardServlet extends HttpServlet {
@@ -19,14 +22,12 @@ public class AdminDashboardServlet extends HttpServlet {
     private ProductDAO productDAO;
     private UserDAO userDAO;
     private OrderDAO orderDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         productDAO = new ProductDAO();
         userDAO = new UserDAO();
         orderDAO = new OrderDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -60,6 +61,9 @@ public class AdminDashboardServlet extends HttpServlet {
                 case "status-counts":
                     sendOrderStatusCounts(out);
                     break;
+                case "cache-stats":
+                    sendCacheStats(out);
+                    break;
                 default:
                     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                     out.write("{\"error\": \"Invalid action\"}");
@@ -73,6 +77,39 @@ public class AdminDashboardServlet extends HttpServlet {
         }
     }
     
+    // Second-level and query cache counters, used to size the regions in ehcache.xml
+    private void sendCacheStats(PrintWriter out) {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        Map<String, Object> stats = new HashMap<>();
+        
+        stats.put("secondLevelHits", statistics.getSecondLevelCacheHitCount());
+        stats.put("secondLevelMisses", statistics.getSecondLevelCacheMissCount());
+        stats.put("secondLevelPuts", statistics.getSecondLevelCachePutCount());
+        stats.put("queryHits", statistics.getQueryCacheHitCount());
+        stats.put("queryMisses", statistics.getQueryCacheMissCount());
+        stats.put("queryPuts", statistics.getQueryCachePutCount());
+        stats.put("since", new Date(statistics.getStartTime()));
+        
+        List<Map<String, Object>> regions = new ArrayList<>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics region = statistics.getSecondLevelCacheStatistics(regionName);
+            if (region == null) {
+                continue;
+            }
+            Map<String, Object> regionMap = new HashMap<>();
+            regionMap.put("name", regionName);
+            regionMap.put("hits", region.getHitCount());
+            regionMap.put("misses", region.getMissCount());
+            regionMap.put("puts", region.getPutCount());
+            regionMap.put("elementsInMemory", region.getElementCountInMemory());
+            regionMap.put("sizeInMemory", region.getSizeInMemory());
+            regions.add(regionMap);
+        }
+        stats.put("regions", regions);
+        
+        JsonResponse.write(out, stats);
+    }
+    
     private void sendDashboardStats(PrintWriter out) {
         Map<String, Object> stats = new HashMap<>();
         
@@ -101,7 +138,7 @@ public class AdminDashboardServlet extends HttpServlet {
         stats.put("lowStockCount", lowStockCount);
         stats.put("outOfStockCount", outOfStockCount);
         
-        out.write(gson.toJson(stats));
+        JsonResponse.write(out, stats);
     }
     
     private void sendRecentOrders(PrintWriter out) {
@@ -120,7 +157,7 @@ public class AdminDashboardServlet extends HttpServlet {
             formattedOrders.add(formattedOrder);
         }
         
-        out.write(gson.toJson(formattedOrders));
+        JsonResponse.write(out, formattedOrders);
     }
     
     private void sendLowStockAlerts(PrintWriter out) {
@@ -137,12 +174,12 @@ public class AdminDashboardServlet extends HttpServlet {
             alerts.add(alert);
         }
         
-        out.write(gson.toJson(alerts));
+        JsonResponse.write(out, alerts);
     }
     
     private void sendOrderStatusCounts(PrintWriter out) {
         Map<String, Long> statusCounts = orderDAO.getOrdersByStatus();
-        out.write(gson.toJson(statusCounts));
+        JsonResponse.write(out, statusCounts);
     }
     
     private String formatDate(Object dateObj) {
@@ -4,8 +4,9 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import dao.OrderDAO;
+import dao.StatusChange;
 import hibernate.Order;
 import hibernate.OrderItem;
 import hibernate.OrderStatus; // Import the separate OrderStatus enum
@@ -13,17 +14,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import util.ConditionalGet;
+import util.DataVersions;
+import model.OrderRowDTO;
 
 @WebServlet("/admin-orders")
 public class AdminOrdersServlet extends HttpServlet {
     
     private OrderDAO orderDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         orderDAO = new OrderDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -45,7 +47,10 @@ public class AdminOrdersServlet extends HttpServlet {
         
         try {
             if ("list".equals(action)) {
-                sendOrderList(request, out);
+                // The list shows customer names and emails next to each order
+                if (!ConditionalGet.isNotModified(request, response, DataVersions.orders(), DataVersions.users())) {
+                    sendOrderList(request, out);
+                }
             } else if ("get".equals(action)) {
                 sendOrderDetails(request, response, out);
             } else {
@@ -99,34 +104,17 @@ public class AdminOrdersServlet extends HttpServlet {
         
         // Use getAllOrders instead of getRecentOrders since getRecentOrders returns Map
         List<Order> orders = orderDAO.getAllOrders();
-        List<Map<String, Object>> orderList = new ArrayList<Map<String, Object>>();
+        List<OrderRowDTO> orderList = new ArrayList<OrderRowDTO>();
         
         for (Order order : orders) {
             // Apply status filter if provided
             if (statusFilter != null && !statusFilter.isEmpty() && !statusFilter.equals(order.getStatus().name())) {
                 continue;
             }
-            
-            Map<String, Object> orderMap = new HashMap<String, Object>();
-            orderMap.put("id", order.getId());
-            orderMap.put("orderDate", order.getOrderDate());
-            orderMap.put("totalAmount", order.getTotalAmount());
-            orderMap.put("status", order.getStatus().name());
-            orderMap.put("shippingAddress", order.getShippingAddress());
-            orderMap.put("itemCount", order.getOrderItems() != null ? order.getOrderItems().size() : 0);
-            
-            if (order.getUser() != null) {
-                orderMap.put("customerName", order.getUser().getFullName());
-                orderMap.put("customerEmail", order.getUser().getEmail());
-            } else {
-                orderMap.put("customerName", "Guest");
-                orderMap.put("customerEmail", "");
-            }
-            
-            orderList.add(orderMap);
+            orderList.add(new OrderRowDTO(order));
         }
         
-        out.write(gson.toJson(orderList));
+        JsonResponse.write(out, orderList);
     }
     
     private void sendOrderDetails(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
@@ -177,7 +165,7 @@ public class AdminOrdersServlet extends HttpServlet {
             }
             orderMap.put("orderItems", orderItems);
             
-            out.write(gson.toJson(orderMap));
+            JsonResponse.write(out, orderMap);
             
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -188,6 +176,8 @@ public class AdminOrdersServlet extends HttpServlet {
     private void updateOrderStatus(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
         String id = request.getParameter("id");
         String status = request.getParameter("status");
+        // Optional: the status the admin was looking at, so a change made meanwhile is not overwritten
+        String expectedParam = request.getParameter("expected");
         
         if (id == null || status == null) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -200,22 +190,40 @@ public class AdminOrdersServlet extends HttpServlet {
             
             // Convert string status to OrderStatus enum (using the separate enum class)
             OrderStatus orderStatus;
+            OrderStatus expected = null;
             try {
                 orderStatus = OrderStatus.valueOf(status);
+                if (expectedParam != null && !expectedParam.isEmpty()) {
+                    expected = OrderStatus.valueOf(expectedParam);
+                }
             } catch (IllegalArgumentException e) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 out.write("{\"error\": \"Invalid status value\"}");
                 return;
             }
             
-            // Use your existing updateOrderStatus method
-            boolean success = orderDAO.updateOrderStatus(orderId, orderStatus);
+            StatusChange change = orderDAO.changeStatus(orderId, expected, orderStatus);
             
-            if (success) {
-                out.write("{\"success\": true, \"message\": \"Order status updated successfully\"}");
-            } else {
-                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                out.write("{\"error\": \"Failed to update order status\"}");
+            switch (change) {
+                case APPLIED:
+                case UNCHANGED:
+                    out.write("{\"success\": true, \"message\": \"Order status updated successfully\"}");
+                    break;
+                case NOT_FOUND:
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.write("{\"error\": \"Order not found\"}");
+                    break;
+                case NOT_ALLOWED:
+                    response.setStatus(HttpServletResponse.SC_CONFLICT);
+                    out.write("{\"error\": \"The order cannot be moved to " + orderStatus + " from its current status\"}");
+                    break;
+                case CONFLICT:
+                    response.setStatus(HttpServletResponse.SC_CONFLICT);
+                    out.write("{\"error\": \"The order status was changed meanwhile, reload the order and try again\"}");
+                    break;
+                default:
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    out.write("{\"error\": \"Failed to update order status\"}");
             }
             
         } catch (NumberFormatException e) {
@@ -4,7 +4,7 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import dao.ProductDAO;
 import dao.CategoryDAO;
 import hibernate.Product;
@@ -14,6 +14,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import catalog.CatalogSnapshot;
+import inventory.FlashSaleStock;
+import inventory.ReservationIndex;
+import model.ProductDTO;
+import search.ProductSearchIndex;
+import search.SuggestIndex;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/admin-products")
 @MultipartConfig
@@ -21,13 +29,11 @@ public class AdminProductsServlet extends HttpServlet {
     
     private ProductDAO productDAO;
     private CategoryDAO categoryDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         productDAO = new ProductDAO();
         categoryDAO = new CategoryDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -49,7 +55,9 @@ public class AdminProductsServlet extends HttpServlet {
         
         try {
             if ("list".equals(action)) {
-                sendProductList(out);
+                if (!ConditionalGet.isNotModified(request, response, DataVersions.catalog())) {
+                    sendProductList(out);
+                }
             } else if ("get".equals(action)) {
                 sendProductDetails(request, response, out);
             } else {
@@ -85,6 +93,8 @@ public class AdminProductsServlet extends HttpServlet {
         try {
             if ("delete".equals(action)) {
                 deleteProduct(request, response, out);
+            } else if ("flashSale".equals(action)) {
+                setFlashSale(request, response, out);
             } else {
                 saveProduct(request, response, out);
             }
@@ -110,6 +120,7 @@ public class AdminProductsServlet extends HttpServlet {
             productMap.put("Quantity", product.getQuantity());
             productMap.put("imageUrl", product.getImageUrl());
             productMap.put("createdAt", product.getCreatedAt());
+            productMap.put("flashSale", FlashSaleStock.getInstance().isFlashSale(product.getId()));
             
             if (product.getCategory() != null) {
                 productMap.put("categoryId", product.getCategory().getId());
@@ -122,7 +133,7 @@ public class AdminProductsServlet extends HttpServlet {
             productList.add(productMap);
         }
         
-        out.write(gson.toJson(productList));
+        JsonResponse.write(out, productList);
     }
     
     private void sendProductDetails(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
@@ -150,6 +161,7 @@ public class AdminProductsServlet extends HttpServlet {
             productMap.put("price", product.getPrice());
             productMap.put("Quantity", product.getQuantity());
             productMap.put("imageUrl", product.getImageUrl());
+            productMap.put("flashSale", FlashSaleStock.getInstance().isFlashSale(product.getId()));
             
             if (product.getCategory() != null) {
                 productMap.put("categoryId", product.getCategory().getId());
@@ -157,7 +169,7 @@ public class AdminProductsServlet extends HttpServlet {
                 productMap.put("categoryId", null);
             }
             
-            out.write(gson.toJson(productMap));
+            JsonResponse.write(out, productMap);
             
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
@@ -194,6 +206,7 @@ public class AdminProductsServlet extends HttpServlet {
         }
         
         Product product;
+        int previousQuantity = 0;
         if (id != null && !id.isEmpty()) {
             // Update existing product
             Long productId = Long.parseLong(id);
@@ -203,6 +216,7 @@ public class AdminProductsServlet extends HttpServlet {
                 out.write("{\"error\": \"Product not found\"}");
                 return;
             }
+            previousQuantity = product.getQuantity();
         } else {
             // Create new product
             product = new Product();
@@ -230,6 +244,14 @@ public class AdminProductsServlet extends HttpServlet {
         // Save product using ProductDAO
         boolean success = productDAO.saveProduct(product);
         if (success) {
+            // Units added or written off by the edit change what a flash sale can still sell
+            FlashSaleStock.getInstance().add(product.getId(), product.getQuantity() - previousQuantity);
+            ReservationIndex.getInstance().setOnHand(product.getId(), product.getQuantity());
+            ProductSearchIndex.getInstance().index(product);
+            SuggestIndex.getInstance().putProduct(product.getId(), product.getName(),
+                    product.getCategory() != null ? product.getCategory().getId() : null);
+            // Last, because swapping the snapshot bumps the catalog ETag
+            CatalogSnapshot.putProduct(new ProductDTO(product));
             out.write("{\"success\": true, \"message\": \"Product saved successfully\"}");
         } else {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -250,6 +272,11 @@ public class AdminProductsServlet extends HttpServlet {
             // Delete product using ProductDAO
             boolean success = productDAO.deleteProduct(productId);
             if (success) {
+                FlashSaleStock.getInstance().forget(productId);
+                ReservationIndex.getInstance().forget(productId);
+                ProductSearchIndex.getInstance().remove(productId);
+                SuggestIndex.getInstance().removeProduct(productId);
+                CatalogSnapshot.removeProduct(productId);
                 out.write("{\"success\": true, \"message\": \"Product deleted successfully\"}");
             } else {
                 response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -262,6 +289,33 @@ public class AdminProductsServlet extends HttpServlet {
         }
     }
     
+    // Switches a product in or out of flash-sale mode
+    private void setFlashSale(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
+        String id = request.getParameter("id");
+        if (id == null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Product ID required\"}");
+            return;
+        }
+        
+        try {
+            Long productId = Long.parseLong(id);
+            boolean enabled = Boolean.parseBoolean(request.getParameter("enabled"));
+            boolean success = enabled ? FlashSaleStock.getInstance().enable(productId)
+                    : FlashSaleStock.getInstance().disable(productId);
+            if (success) {
+                out.write("{\"success\": true, \"flashSale\": " + enabled + "}");
+            } else {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                out.write("{\"error\": \"Failed to switch flash-sale mode\"}");
+            }
+            
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Invalid product ID\"}");
+        }
+    }
+    
     private boolean isAdmin(HttpServletRequest request) {
         HttpSession session = request.getSession(false);
         if (session != null) {
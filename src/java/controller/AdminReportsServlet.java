@@ -4,7 +4,7 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import dao.OrderDAO;
 import dao.ProductDAO;
 import dao.UserDAO;
@@ -23,14 +23,12 @@ public class AdminReportsServlet extends HttpServlet {
     private OrderDAO orderDAO;
     private ProductDAO productDAO;
     private UserDAO userDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         orderDAO = new OrderDAO();
         productDAO = new ProductDAO();
         userDAO = new UserDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -96,7 +94,7 @@ public class AdminReportsServlet extends HttpServlet {
         stats.put("totalProducts", totalProducts);
         stats.put("totalUsers", totalUsers);
         
-        out.write(gson.toJson(stats));
+        JsonResponse.write(out, stats);
     }
     
     private void sendSalesReport(HttpServletRequest request, PrintWriter out) throws Exception {
@@ -171,7 +169,7 @@ public class AdminReportsServlet extends HttpServlet {
         report.put("bestCategory", bestCategory);
         report.put("dailySales", dailySales);
         
-        out.write(gson.toJson(report));
+        JsonResponse.write(out, report);
     }
     
     private void sendInventoryReport(PrintWriter out) {
@@ -236,7 +234,7 @@ public class AdminReportsServlet extends HttpServlet {
         report.put("outOfStockValue", String.format("%.2f", outOfStockValue));
         report.put("topProducts", topProducts);
         
-        out.write(gson.toJson(report));
+        JsonResponse.write(out, report);
     }
     
     private void sendCustomerReport(HttpServletRequest request, PrintWriter out) throws Exception {
@@ -349,7 +347,7 @@ public class AdminReportsServlet extends HttpServlet {
         report.put("customerGrowth", customerGrowth);
         report.put("topCustomers", topCustomers);
         
-        out.write(gson.toJson(report));
+        JsonResponse.write(out, report);
     }
     
     private void sendPaymentReceipts(PrintWriter out) {
@@ -380,7 +378,7 @@ public class AdminReportsServlet extends HttpServlet {
             }
         }
         
-        out.write(gson.toJson(receipts));
+        JsonResponse.write(out, receipts);
     }
     
     private void exportSalesReport(HttpServletRequest request, HttpServletResponse response) throws Exception {
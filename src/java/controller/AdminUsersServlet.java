@@ -4,24 +4,24 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.*;
 import java.io.*;
-import com.google.gson.Gson;
+import json.JsonResponse;
 import dao.UserDAO;
 import hibernate.User;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/admin-users")
 public class AdminUsersServlet extends HttpServlet {
     
     private UserDAO userDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         userDAO = new UserDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -43,7 +43,9 @@ public class AdminUsersServlet extends HttpServlet {
         
         try {
             if ("list".equals(action)) {
-                sendUserList(out);
+                if (!ConditionalGet.isNotModified(request, response, DataVersions.users())) {
+                    sendUserList(out);
+                }
             } else if ("get".equals(action)) {
                 sendUserDetails(request, response, out);
             } else {
@@ -110,7 +112,7 @@ public class AdminUsersServlet extends HttpServlet {
             userList.add(userMap);
         }
         
-        out.write(gson.toJson(userList));
+        JsonResponse.write(out, userList);
     }
     
     private void sendUserDetails(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
@@ -141,7 +143,7 @@ public class AdminUsersServlet extends HttpServlet {
             userMap.put("role", user.getRole().name());
             userMap.put("createdAt", user.getCreatedAt());
             
-            out.write(gson.toJson(userMap));
+            JsonResponse.write(out, userMap);
             
         } catch (NumberFormatException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
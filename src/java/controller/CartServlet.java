@@ -1,12 +1,14 @@
 package controller;
 
-import dao.CartDAO;
+import cart.CartCache;
+import cart.CartOperation;
+import cart.GuestCartStore;
+import cart.ShoppingCart;
+import catalog.CatalogSnapshot;
 import dao.ProductDAO;
-import hibernate.CartItem;
 import hibernate.User;
-import hibernate.HibernateUtil;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import inventory.ReservationIndex;
+import json.JsonResponse;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -18,26 +20,31 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Enumeration;
-import org.hibernate.Session;
+import model.CartLine;
+import model.CartLineDTO;
+import model.CartView;
+import model.ProductDTO;
+import com.google.gson.JsonParseException;
 
 @WebServlet("/cart")
 public class CartServlet extends HttpServlet {
 
-    private CartDAO cartDAO;
+    private static final int MAX_BATCH_OPERATIONS = 100;
+
+    private CartCache cartCache;
+    private GuestCartStore guestCarts;
     private ProductDAO productDAO;
-    private Gson gson;
 
     @Override
     public void init() throws ServletException {
         try {
-            cartDAO = new CartDAO();
+            cartCache = CartCache.getInstance();
+            guestCarts = GuestCartStore.getInstance();
             productDAO = new ProductDAO();
-            gson = new GsonBuilder().setPrettyPrinting().create();
             System.out.println("✅ CartServlet initialized successfully");
         } catch (Exception e) {
             System.err.println("❌ Failed to initialize CartServlet: " + e.getMessage());
@@ -53,31 +60,17 @@ public class CartServlet extends HttpServlet {
         System.out.println("📥 CartServlet GET request received");
 
         try {
-            HttpSession session = request.getSession(false);
-            if (session == null) {
-                System.out.println("❌ No session found");
-                sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-
-            User user = (User) session.getAttribute("user");
-            if (user == null) {
-                System.out.println("❌ No user in session");
-                sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-
-            System.out.println("✅ User authenticated: " + user.getUsername() + " (ID: " + user.getId() + ")");
-
             String action = request.getParameter("action");
             String format = request.getParameter("format");
 
             System.out.println("🔧 GET Parameters - Action: " + action + ", Format: " + format);
 
+            ShoppingCart cart = resolveCart(request, response, false);
+
             if ("count".equals(action) && "json".equals(format)) {
-                getCartCount(user, response);
+                getCartCount(cart, response);
             } else if ("json".equals(format)) {
-                getCartItems(user, response);
+                getCartItems(cart, response);
             } else {
                 // Redirect to cart page for non-JSON requests
                 response.sendRedirect("cart.html");
@@ -97,22 +90,6 @@ public class CartServlet extends HttpServlet {
         System.out.println("📥 CartServlet POST request received");
 
         try {
-            HttpSession session = request.getSession(false);
-            if (session == null) {
-                System.out.println("❌ No session found in POST");
-                sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-
-            User user = (User) session.getAttribute("user");
-            if (user == null) {
-                System.out.println("❌ No user in session in POST");
-                sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-                return;
-            }
-
-            System.out.println("✅ User authenticated: " + user.getUsername() + " (ID: " + user.getId() + ")");
-
             String action = request.getParameter("action");
             System.out.println("🔧 POST Action parameter: " + action);
 
@@ -122,18 +99,24 @@ public class CartServlet extends HttpServlet {
                 return;
             }
 
+            // Only adding gives a guest a cart of their own
+            ShoppingCart cart = resolveCart(request, response, "add".equals(action) || "batch".equals(action));
+
             switch (action) {
                 case "add":
-                    addToCart(user, request, response);
+                    addToCart(cart, request, response);
                     break;
                 case "update":
-                    updateCartItem(user, request, response);
+                    updateCartItem(cart, request, response);
                     break;
                 case "remove":
-                    removeFromCart(user, request, response);
+                    removeFromCart(cart, request, response);
                     break;
                 case "clear":
-                    clearCart(user, response);
+                    clearCart(cart, response);
+                    break;
+                case "batch":
+                    batchUpdate(cart, request, response);
                     break;
                 default:
                     System.err.println("❌ Invalid action: " + action);
@@ -147,54 +130,13 @@ public class CartServlet extends HttpServlet {
         }
     }
 
-    private void getCartItems(User user, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void getCartItems(ShoppingCart cart, HttpServletResponse response) throws IOException {
         try {
-            System.out.println("🛒 Getting cart items for user ID: " + user.getId());
-
-            // Open a Hibernate session to avoid LazyInitializationException
-            hibernateSession = HibernateUtil.getSessionFactory().openSession();
-
-            List<CartItem> cartItems = cartDAO.getCartItemsByUser(user.getId());
-            List<Map<String, Object>> cartData = new ArrayList<>();
-
-            if (cartItems != null) {
-                System.out.println("📦 Found " + cartItems.size() + " cart items");
-                for (CartItem item : cartItems) {
-                    // Initialize lazy-loaded objects within the Hibernate session
-                    Map<String, Object> itemData = new HashMap<>();
-                    itemData.put("id", item.getId());
-
-                    // Access the product within the Hibernate session context
-                    if (item.getProduct() != null) {
-                        itemData.put("productId", item.getProduct().getId());
-                        itemData.put("productName", item.getProduct().getName());
-                        itemData.put("price", item.getProduct().getPrice());
-                        itemData.put("productImage", item.getProduct().getImageUrl());
-                    } else {
-                        itemData.put("productId", 0);
-                        itemData.put("productName", "Unknown Product");
-                        itemData.put("price", 0.0);
-                        itemData.put("productImage", "https://via.placeholder.com/100?text=No+Image");
-                    }
-
-                    itemData.put("quantity", item.getQuantity());
-                    itemData.put("subtotal", item.getSubtotal());
-                    cartData.add(itemData);
-
-                    System.out.println("  - " + (item.getProduct() != null ? item.getProduct().getName() : "Unknown") + " x" + item.getQuantity() + " (CartItem ID: " + item.getId() + ")");
-                }
-            } else {
-                System.out.println("📦 No cart items found (cartItems is null)");
-            }
+            System.out.println("🛒 Getting cart items");
 
-            Map<String, Object> responseData = new HashMap<>();
-            responseData.put("success", true);
-            responseData.put("items", cartData);
-            responseData.put("totalItems", cartData.size());
-            responseData.put("cartTotal", cartDAO.getCartTotal(user.getId()));
+            Map<String, Object> responseData = cartState(cart);
 
-            System.out.println("✅ Returning " + cartData.size() + " cart items to frontend");
+            System.out.println("✅ Returning " + responseData.get("totalItems") + " cart items to frontend");
             sendJsonResponse(response, responseData);
 
         } catch (Exception e) {
@@ -202,44 +144,36 @@ public class CartServlet extends HttpServlet {
             e.printStackTrace();
             sendErrorResponse(response, "Error retrieving cart items: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            // Close Hibernate session
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
-            }
         }
     }
 
-    private void checkAuthentication(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        HttpSession session = request.getSession(false);
-        if (session == null) {
-            System.out.println("❌ No session found");
-            sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-            return;
-        }
+    // Lines come from the cart cache and are priced from the catalog snapshot
+    private Map<String, Object> cartState(ShoppingCart cart) {
+        List<CartLine> lines = cart.getLines();
+        CatalogSnapshot catalog = CatalogSnapshot.get();
+        List<CartLineDTO> cartData = new ArrayList<>(lines.size());
 
-        User user = (User) session.getAttribute("user");
-        if (user == null) {
-            System.out.println("❌ No user in session");
-            // Debug session contents
-            System.out.println("🔍 Session ID: " + (session != null ? session.getId() : "null"));
-            if (session != null) {
-                java.util.Enumeration<String> attributeNames = session.getAttributeNames();
-                while (attributeNames.hasMoreElements()) {
-                    String name = attributeNames.nextElement();
-                    System.out.println("🔍 Session attribute: " + name + " = " + session.getAttribute(name));
-                }
-            }
-            sendErrorResponse(response, "User not logged in", HttpServletResponse.SC_UNAUTHORIZED);
-            return;
+        System.out.println("📦 Found " + lines.size() + " cart items");
+        for (CartLine line : lines) {
+            CartLineDTO item = new CartLineDTO(line, catalog.getProduct(line.getProductId()));
+            cartData.add(item);
+
+            System.out.println("  - " + item.getProductName() + " x" + item.getQuantity() + " (Product ID: " + item.getProductId() + ")");
         }
+        CartView view = new CartView(cartData);
+
+        Map<String, Object> responseData = new HashMap<>();
+        responseData.put("success", true);
+        responseData.put("items", view.getItems());
+        responseData.put("totalItems", view.getItems().size());
+        responseData.put("cartTotal", view.getSubtotal());
+        return responseData;
     }
 
-    private void getCartCount(User user, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void getCartCount(ShoppingCart cart, HttpServletResponse response) throws IOException {
         try {
-            System.out.println("🔢 Getting cart count for user ID: " + user.getId());
-            int count = cartDAO.getCartItemCount(user.getId());
+            System.out.println("🔢 Getting cart count");
+            int count = cart.getLineCount();
 
             Map<String, Object> responseData = new HashMap<>();
             responseData.put("success", true);
@@ -253,21 +187,15 @@ public class CartServlet extends HttpServlet {
             e.printStackTrace();
             sendErrorResponse(response, "Error getting cart count: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
-            }
         }
     }
 
-    private void addToCart(User user, HttpServletRequest request, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void addToCart(ShoppingCart cart, HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
             String productIdParam = request.getParameter("productId");
             String quantityParam = request.getParameter("quantity");
 
-            System.out.println("➕ Add to cart - User: " + user.getId()
-                    + ", Product ID: " + productIdParam
+            System.out.println("➕ Add to cart - Product ID: " + productIdParam
                     + ", Quantity: " + quantityParam);
 
             if (productIdParam == null || productIdParam.trim().isEmpty()) {
@@ -294,39 +222,22 @@ public class CartServlet extends HttpServlet {
                 return;
             }
 
-            // Validate product exists and has sufficient stock
-            hibernateSession = HibernateUtil.getSessionFactory().openSession();
-            hibernate.Product product = productDAO.getProductById(productId);
-            if (product == null) {
-                System.err.println("❌ Product not found with ID: " + productId);
-                sendErrorResponse(response, "Product not found", HttpServletResponse.SC_NOT_FOUND);
-                return;
-            }
-
-            System.out.println("📦 Product found: " + product.getName()
-                    + ", Stock: " + product.getQuantity()
-                    + ", Requested: " + quantity);
-
-            if (!product.hasSufficientStock(quantity)) {
-                System.err.println("❌ Insufficient stock - Available: " + product.getQuantity() + ", Requested: " + quantity);
-                sendErrorResponse(response, "Insufficient stock. Available: " + product.getQuantity(),
-                        HttpServletResponse.SC_BAD_REQUEST);
+            // The same checks as an add in a batch: a positive quantity of a product that is in stock
+            String error = validateOperation(new CartOperation(CartOperation.ADD, productId, quantity));
+            if (error != null) {
+                System.err.println("❌ Rejected add to cart: " + error);
+                sendErrorResponse(response, error, HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            boolean success = cartDAO.addToCart(user.getId(), productId, quantity);
+            cart.add(productId, quantity);
 
-            if (success) {
-                Map<String, Object> responseData = new HashMap<>();
-                responseData.put("success", true);
-                responseData.put("message", "Product added to cart successfully");
-                responseData.put("cartCount", cartDAO.getCartItemCount(user.getId()));
-                System.out.println("✅ Successfully added product to cart");
-                sendJsonResponse(response, responseData);
-            } else {
-                System.err.println("❌ Failed to add product to cart (DAO returned false)");
-                sendErrorResponse(response, "Failed to add product to cart", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            }
+            Map<String, Object> responseData = new HashMap<>();
+            responseData.put("success", true);
+            responseData.put("message", "Product added to cart successfully");
+            responseData.put("cartCount", cart.getLineCount());
+            System.out.println("✅ Successfully added product to cart");
+            sendJsonResponse(response, responseData);
 
         } catch (NumberFormatException e) {
             System.err.println("❌ Invalid number format: " + e.getMessage());
@@ -336,154 +247,237 @@ public class CartServlet extends HttpServlet {
             e.printStackTrace();
             sendErrorResponse(response, "Failed to add product to cart: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
-            }
         }
     }
 
-    private void updateCartItem(User user, HttpServletRequest request, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void updateCartItem(ShoppingCart cart, HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
+            String productIdParam = request.getParameter("productId");
             String cartItemIdParam = request.getParameter("cartItemId");
             String quantityParam = request.getParameter("quantity");
 
-            System.out.println("✏️ Update cart item - User: " + user.getId()
+            System.out.println("✏️ Update cart item - Product ID: " + productIdParam
                     + ", Cart Item ID: " + cartItemIdParam
                     + ", Quantity: " + quantityParam);
 
-            if (cartItemIdParam == null || cartItemIdParam.trim().isEmpty()) {
-                sendErrorResponse(response, "Cart item ID is required", HttpServletResponse.SC_BAD_REQUEST);
+            if (isBlank(productIdParam) && isBlank(cartItemIdParam)) {
+                sendErrorResponse(response, "Product ID is required", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            if (quantityParam == null || quantityParam.trim().isEmpty()) {
+            if (isBlank(quantityParam)) {
                 sendErrorResponse(response, "Quantity is required", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            Long cartItemId = Long.parseLong(cartItemIdParam);
+            Long productId = lineProductId(cart, productIdParam, cartItemIdParam);
             Integer quantity = Integer.parseInt(quantityParam);
 
-            boolean success = cartDAO.updateCartItemQuantity(cartItemId, quantity);
-
-            if (success) {
+            if (productId != null && cart.setQuantity(productId, quantity)) {
                 Map<String, Object> responseData = new HashMap<>();
                 responseData.put("success", true);
                 responseData.put("message", "Cart updated successfully");
                 System.out.println("✅ Successfully updated cart item");
                 sendJsonResponse(response, responseData);
             } else {
-                System.err.println("❌ Failed to update cart item (DAO returned false)");
-                sendErrorResponse(response, "Failed to update cart item", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                System.err.println("❌ Cart item not found for update");
+                sendErrorResponse(response, "Item is not in the cart", HttpServletResponse.SC_NOT_FOUND);
             }
 
         } catch (NumberFormatException e) {
             System.err.println("❌ Invalid number format: " + e.getMessage());
-            sendErrorResponse(response, "Invalid cart item ID or quantity format", HttpServletResponse.SC_BAD_REQUEST);
+            sendErrorResponse(response, "Invalid product ID or quantity format", HttpServletResponse.SC_BAD_REQUEST);
         } catch (Exception e) {
             System.err.println("❌ Error updating cart item: " + e.getMessage());
             e.printStackTrace();
             sendErrorResponse(response, "Failed to update cart item: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
-            }
         }
     }
 
-    private void removeFromCart(User user, HttpServletRequest request, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void removeFromCart(ShoppingCart cart, HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
+            String productIdParam = request.getParameter("productId");
             String cartItemIdParam = request.getParameter("cartItemId");
 
-            System.out.println("🗑️ Remove from cart - User: " + user.getId()
+            System.out.println("🗑️ Remove from cart - Product ID: " + productIdParam
                     + ", Cart Item ID: " + cartItemIdParam);
 
-            if (cartItemIdParam == null || cartItemIdParam.trim().isEmpty()) {
-                sendErrorResponse(response, "Cart item ID is required", HttpServletResponse.SC_BAD_REQUEST);
+            if (isBlank(productIdParam) && isBlank(cartItemIdParam)) {
+                sendErrorResponse(response, "Product ID is required", HttpServletResponse.SC_BAD_REQUEST);
                 return;
             }
 
-            Long cartItemId = Long.parseLong(cartItemIdParam);
+            Long productId = lineProductId(cart, productIdParam, cartItemIdParam);
 
-            boolean success = cartDAO.removeFromCart(cartItemId);
-
-            if (success) {
+            if (productId != null && cart.remove(productId)) {
                 Map<String, Object> responseData = new HashMap<>();
                 responseData.put("success", true);
                 responseData.put("message", "Item removed from cart");
                 System.out.println("✅ Successfully removed item from cart");
                 sendJsonResponse(response, responseData);
             } else {
-                System.err.println("❌ Failed to remove item from cart (DAO returned false)");
-                sendErrorResponse(response, "Failed to remove item from cart", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                System.err.println("❌ Cart item not found for removal");
+                sendErrorResponse(response, "Item is not in the cart", HttpServletResponse.SC_NOT_FOUND);
             }
 
         } catch (NumberFormatException e) {
             System.err.println("❌ Invalid number format: " + e.getMessage());
-            sendErrorResponse(response, "Invalid cart item ID format", HttpServletResponse.SC_BAD_REQUEST);
+            sendErrorResponse(response, "Invalid product ID format", HttpServletResponse.SC_BAD_REQUEST);
         } catch (Exception e) {
             System.err.println("❌ Error removing from cart: " + e.getMessage());
             e.printStackTrace();
             sendErrorResponse(response, "Failed to remove item from cart: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
-            }
         }
     }
 
-    private void clearCart(User user, HttpServletResponse response) throws IOException {
-        Session hibernateSession = null;
+    private void clearCart(ShoppingCart cart, HttpServletResponse response) throws IOException {
         try {
-            System.out.println("🧹 Clear cart - User: " + user.getId());
+            System.out.println("🧹 Clear cart");
 
-            boolean success = cartDAO.clearUserCart(user.getId());
+            cart.clear();
 
-            if (success) {
-                Map<String, Object> responseData = new HashMap<>();
-                responseData.put("success", true);
-                responseData.put("message", "Cart cleared successfully");
-                System.out.println("✅ Successfully cleared cart");
-                sendJsonResponse(response, responseData);
-            } else {
-                System.err.println("❌ Failed to clear cart (DAO returned false)");
-                sendErrorResponse(response, "Failed to clear cart", HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            }
+            Map<String, Object> responseData = new HashMap<>();
+            responseData.put("success", true);
+            responseData.put("message", "Cart cleared successfully");
+            System.out.println("✅ Successfully cleared cart");
+            sendJsonResponse(response, responseData);
 
         } catch (Exception e) {
             System.err.println("❌ Error clearing cart: " + e.getMessage());
             e.printStackTrace();
             sendErrorResponse(response, "Failed to clear cart: " + e.getMessage(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-        } finally {
-            if (hibernateSession != null && hibernateSession.isOpen()) {
-                hibernateSession.close();
+        }
+    }
+
+    /**
+     * Applies a list of add/update/remove operations, posted as JSON in the
+     * operations parameter, in one step and answers with the new cart, so a
+     * multi-line edit costs one request and one write.
+     */
+    private void batchUpdate(ShoppingCart cart, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            String operationsParam = request.getParameter("operations");
+            System.out.println("📦 Batch cart update: " + operationsParam);
+
+            if (isBlank(operationsParam)) {
+                sendErrorResponse(response, "Operations are required", HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+
+            CartOperation[] operations = JsonResponse.gson().fromJson(operationsParam, CartOperation[].class);
+            if (operations == null || operations.length == 0 || operations.length > MAX_BATCH_OPERATIONS) {
+                sendErrorResponse(response, "Between 1 and " + MAX_BATCH_OPERATIONS + " operations are required",
+                        HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+
+            // Everything is checked before anything is applied
+            for (CartOperation operation : operations) {
+                String error = validateOperation(operation);
+                if (error != null) {
+                    System.err.println("❌ Rejected batch: " + error);
+                    sendErrorResponse(response, error, HttpServletResponse.SC_BAD_REQUEST);
+                    return;
+                }
+            }
+
+            cart.apply(Arrays.asList(operations));
+
+            Map<String, Object> responseData = cartState(cart);
+            responseData.put("message", "Cart updated successfully");
+            System.out.println("✅ Applied " + operations.length + " cart operations");
+            sendJsonResponse(response, responseData);
+
+        } catch (JsonParseException e) {
+            System.err.println("❌ Invalid operations JSON: " + e.getMessage());
+            sendErrorResponse(response, "Invalid operations format", HttpServletResponse.SC_BAD_REQUEST);
+        } catch (Exception e) {
+            System.err.println("❌ Error applying cart operations: " + e.getMessage());
+            e.printStackTrace();
+            sendErrorResponse(response, "Failed to update cart: " + e.getMessage(),
+                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    // Error message for an operation that cannot be applied, or null
+    private String validateOperation(CartOperation operation) {
+        if (operation == null || operation.getOp() == null) {
+            return "Operation is required";
+        }
+        if (operation.getProductId() == null) {
+            return "Product ID is required";
+        }
+        switch (operation.getOp()) {
+            case CartOperation.REMOVE:
+                return null;
+            case CartOperation.ADD:
+            case CartOperation.UPDATE:
+                break;
+            default:
+                return "Invalid operation: " + operation.getOp();
+        }
+        if (operation.getQuantity() == null) {
+            return "Quantity is required";
+        }
+        if (operation.getQuantity() <= 0) {
+            return CartOperation.ADD.equals(operation.getOp()) ? "Quantity must be positive" : null;
+        }
+
+        CatalogSnapshot catalog = CatalogSnapshot.get();
+        Integer stock;
+        String name;
+        if (catalog.isReady()) {
+            ProductDTO product = catalog.getProduct(operation.getProductId());
+            if (product == null) {
+                return "Product not found: " + operation.getProductId();
             }
+            stock = ReservationIndex.getInstance().available(product);
+            name = product.getName();
+        } else {
+            hibernate.Product product = productDAO.getProductById(operation.getProductId());
+            if (product == null) {
+                return "Product not found: " + operation.getProductId();
+            }
+            stock = product.getAvailable();
+            name = product.getName();
         }
+        if (stock != null && operation.getQuantity() > stock) {
+            return "Insufficient stock for " + name + ". Available: " + stock;
+        }
+        return null;
     }
 
-    private void debugSession(HttpServletRequest request) {
+    // Lines are addressed by product; cartItemId is still accepted for lines that are already stored
+    private Long lineProductId(ShoppingCart cart, String productIdParam, String cartItemIdParam) {
+        if (!isBlank(productIdParam)) {
+            return Long.parseLong(productIdParam.trim());
+        }
+        return cart.findProductId(Long.parseLong(cartItemIdParam.trim()));
+    }
+
+    // The logged-in user's cart, or else the guest cart named by the cookie; a guest gets a token on first add
+    private ShoppingCart resolveCart(HttpServletRequest request, HttpServletResponse response, boolean create) {
         HttpSession session = request.getSession(false);
-        System.out.println("🐛 DEBUG SESSION:");
-        System.out.println("  - Session exists: " + (session != null));
-        if (session != null) {
-            System.out.println("  - Session ID: " + session.getId());
-            System.out.println("  - Creation time: " + new Date(session.getCreationTime()));
-            System.out.println("  - Last accessed: " + new Date(session.getLastAccessedTime()));
-
-            java.util.Enumeration<String> attributeNames = session.getAttributeNames();
-            while (attributeNames.hasMoreElements()) {
-                String name = attributeNames.nextElement();
-                Object value = session.getAttribute(name);
-                System.out.println("  - Attribute: " + name + " = "
-                        + (value instanceof User ? ((User) value).getUsername() : value));
-            }
+        User user = session != null ? (User) session.getAttribute("user") : null;
+        if (user != null) {
+            System.out.println("✅ User authenticated: " + user.getUsername() + " (ID: " + user.getId() + ")");
+            return cartCache.forUser(user.getId());
+        }
+
+        String token = GuestCartStore.tokenFrom(request);
+        if (token == null && create) {
+            token = guestCarts.newToken();
+            response.addCookie(GuestCartStore.cookie(request, token));
         }
+        System.out.println("👤 Guest cart" + (token != null ? "" : " (none yet)"));
+        return guestCarts.forToken(token);
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
     }
 
     private void sendJsonResponse(HttpServletResponse response, Object data) throws IOException {
@@ -491,10 +485,9 @@ public class CartServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
         response.setHeader("Access-Control-Allow-Origin", "*");
         PrintWriter out = response.getWriter();
-        out.print(gson.toJson(data));
-        out.flush();
+        JsonResponse.write(out, data);
 
-        System.out.println("📤 Sent JSON response: " + gson.toJson(data));
+        System.out.println("📤 Sent JSON response");
     }
 
     private void sendErrorResponse(HttpServletResponse response, String message, int statusCode) throws IOException {
@@ -508,7 +501,7 @@ public class CartServlet extends HttpServlet {
         errorResponse.put("error", message);
 
         PrintWriter out = response.getWriter();
-        String jsonResponse = gson.toJson(errorResponse);
+        String jsonResponse = JsonResponse.gson().toJson(errorResponse);
         out.print(jsonResponse);
         out.flush();
 
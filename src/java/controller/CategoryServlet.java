@@ -9,19 +9,20 @@ import java.util.List;
 import java.util.stream.Collectors;
 import hibernate.Category;
 import dao.CategoryDAO;
+import catalog.CatalogSnapshot;
 import model.CategoryDTO;
-import com.google.gson.Gson;
+import json.JsonResponse;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/categories")
 public class CategoryServlet extends HttpServlet {
     
     private CategoryDAO categoryDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         categoryDAO = new CategoryDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -30,20 +31,29 @@ public class CategoryServlet extends HttpServlet {
         String format = request.getParameter("format");
         
         if ("json".equals(format)) {
+            if (ConditionalGet.isNotModified(request, response, DataVersions.categories())) {
+                return;
+            }
+            
             response.setContentType("application/json");
             response.setCharacterEncoding("UTF-8");
             PrintWriter out = response.getWriter();
             
             try {
-                List<Category> categories = categoryDAO.getAllCategories();
-                
-                // Convert to DTOs to avoid any Hibernate issues
-                List<CategoryDTO> categoryDTOs = categories.stream()
-                    .map(CategoryDTO::new)
-                    .collect(Collectors.toList());
+                List<CategoryDTO> categoryDTOs;
+                CatalogSnapshot catalog = CatalogSnapshot.get();
+                if (catalog.isReady()) {
+                    categoryDTOs = catalog.getCategories();
+                } else {
+                    List<Category> categories = categoryDAO.getAllCategories();
+                    
+                    // Convert to DTOs to avoid any Hibernate issues
+                    categoryDTOs = categories.stream()
+                        .map(CategoryDTO::new)
+                        .collect(Collectors.toList());
+                }
                 
-                String json = gson.toJson(categoryDTOs);
-                out.write(json);
+                JsonResponse.write(out, categoryDTOs);
                 System.out.println("Returning " + categoryDTOs.size() + " categories as JSON");
                 
             } catch (Exception e) {
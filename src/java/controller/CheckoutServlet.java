@@ -1,14 +1,16 @@
 package controller;
 
 import dao.OrderDAO;
+import cart.CartCache;
 import dao.CartDAO;
+import dao.StatusChange;
 import dao.UserDAO;
 import hibernate.Order;
 import hibernate.OrderStatus;
 import hibernate.User;
-import hibernate.CartItem;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import idempotency.IdempotencyStore;
+import json.JsonResponse;
+import model.CartView;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -21,8 +23,6 @@ import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
 
 @WebServlet("/checkout/*")
 public class CheckoutServlet extends HttpServlet {
@@ -30,14 +30,12 @@ public class CheckoutServlet extends HttpServlet {
     private OrderDAO orderDAO;
     private CartDAO cartDAO;
     private UserDAO userDAO;
-    private Gson gson;
 
     @Override
     public void init() throws ServletException {
         orderDAO = new OrderDAO();
         cartDAO = new CartDAO();
         userDAO = new UserDAO();
-        gson = new Gson();
     }
 
     @Override
@@ -115,21 +113,67 @@ public class CheckoutServlet extends HttpServlet {
                 return;
             }
 
-            // Create order from cart
-            Order order = orderDAO.createOrderFromCart(userId, shippingAddress, totalAmount);
-
-            if (order != null) {
-                Map<String, Object> responseData = new HashMap<>();
-                responseData.put("success", true);
-                responseData.put("orderId", order.getId());
-                responseData.put("message", "Order created successfully");
-
-                // Store order ID in session for payment processing
-                session.setAttribute("currentOrderId", order.getId());
+            // Optional; a retry that sends the same key gets the first response instead of a second order
+            String idempotencyKey = request.getHeader("Idempotency-Key");
+            IdempotencyStore.Claim claim = null;
+            if (idempotencyKey != null && !idempotencyKey.trim().isEmpty()) {
+                if (idempotencyKey.length() > IdempotencyStore.MAX_KEY_LENGTH) {
+                    sendErrorResponse(response, "Idempotency key is too long");
+                    return;
+                }
+                claim = IdempotencyStore.getInstance().begin("order:" + userId, idempotencyKey.trim());
+                if (claim.isReplay()) {
+                    System.out.println("🔁 Replaying order response for user " + userId);
+                    out.write(claim.getResponse());
+                    return;
+                }
+                if (!claim.isOwned()) {
+                    response.setStatus(HttpServletResponse.SC_CONFLICT);
+                    sendErrorResponse(response, "Request already in progress");
+                    return;
+                }
+            }
 
-                out.write(gson.toJson(responseData));
-            } else {
-                sendErrorResponse(response, "Failed to create order");
+            boolean completed = false;
+            try {
+                // The order is built from cart_items, so the cart is stored first and held until the
+                // order has taken its lines
+                if (!CartCache.getInstance().beginCheckout(userId)) {
+                    sendErrorResponse(response, "Failed to save cart");
+                    return;
+                }
+
+                Order order = null;
+                try {
+                    // Create order from cart
+                    order = orderDAO.createOrderFromCart(userId, shippingAddress, totalAmount);
+                } finally {
+                    CartCache.getInstance().endCheckout(userId, order != null);
+                }
+
+                if (order != null) {
+                    Map<String, Object> responseData = new HashMap<>();
+                    responseData.put("success", true);
+                    responseData.put("orderId", order.getId());
+                    responseData.put("message", "Order created successfully");
+
+                    // Store order ID in session for payment processing
+                    session.setAttribute("currentOrderId", order.getId());
+
+                    String body = JsonResponse.gson().toJson(responseData);
+                    if (claim != null) {
+                        IdempotencyStore.getInstance().complete(claim, body);
+                        completed = true;
+                    }
+                    out.write(body);
+                } else {
+                    sendErrorResponse(response, "Failed to create order");
+                }
+            } finally {
+                // Nothing was created, so a retry with the same key may run again
+                if (claim != null && !completed) {
+                    IdempotencyStore.getInstance().release(claim);
+                }
             }
 
         } catch (Exception e) {
@@ -185,7 +229,7 @@ public class CheckoutServlet extends HttpServlet {
             responseData.put("payhereData", payHereData);
             responseData.put("paymentUrl", "https://sandbox.payhere.lk/pay/checkout"); // Sandbox URL
 
-            response.getWriter().write(gson.toJson(responseData));
+            JsonResponse.write(response.getWriter(), responseData);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -228,22 +272,31 @@ public class CheckoutServlet extends HttpServlet {
             Long orderId = Long.parseLong(orderIdStr);
             Long userId = (Long) session.getAttribute("userId");
 
-            // Update order status to PROCESSING
-            boolean success = orderDAO.updateOrderStatus(orderId, OrderStatus.PROCESSING);
+            // Confirming takes the order's held units for good, so only its owner may do it
+            if (!userId.equals(orderDAO.getOrderUserId(orderId))) {
+                sendErrorResponse(response, "Order not found");
+                return;
+            }
+
+            // Only an order still waiting for confirmation moves to PROCESSING
+            StatusChange change = orderDAO.changeStatus(orderId, OrderStatus.PENDING, OrderStatus.PROCESSING);
 
             Map<String, Object> responseData = new HashMap<>();
-            if (success) {
+            if (change.isSuccess()) {
                 responseData.put("success", true);
                 responseData.put("message", "Order confirmed successfully");
                 responseData.put("orderId", orderId);
                 // Clear current order from session
                 session.removeAttribute("currentOrderId");
+            } else if (change == StatusChange.CONFLICT || change == StatusChange.NOT_ALLOWED) {
+                responseData.put("success", false);
+                responseData.put("error", "Order can no longer be confirmed");
             } else {
                 responseData.put("success", false);
                 responseData.put("error", "Failed to confirm order");
             }
 
-            response.getWriter().write(gson.toJson(responseData));
+            JsonResponse.write(response.getWriter(), responseData);
 
         } catch (NumberFormatException e) {
             sendErrorResponse(response, "Invalid order ID");
@@ -268,33 +321,9 @@ public class CheckoutServlet extends HttpServlet {
         PrintWriter out = response.getWriter();
 
         try {
-            List<CartItem> cartItems = cartDAO.getCartItemsByUser(userId);
-
-            if (cartItems == null) {
-                cartItems = new ArrayList<>();
-            }
-
-            // Convert to simple format for JSON
-            List<Map<String, Object>> items = new ArrayList<>();
-            BigDecimal subtotal = BigDecimal.ZERO;
-
-            for (CartItem cartItem : cartItems) {
-                Map<String, Object> itemData = new HashMap<>();
-                itemData.put("id", cartItem.getId());
-                itemData.put("cartItemId", cartItem.getId());
-                itemData.put("productId", cartItem.getProduct().getId());
-                itemData.put("productName", cartItem.getProduct().getName());
-                itemData.put("price", cartItem.getProduct().getPrice());
-                itemData.put("quantity", cartItem.getQuantity());
-                itemData.put("imageUrl", cartItem.getProduct().getImageUrl());
-
-                BigDecimal itemSubtotal = cartItem.getProduct().getPrice()
-                        .multiply(BigDecimal.valueOf(cartItem.getQuantity()));
-                itemData.put("subtotal", itemSubtotal);
-
-                items.add(itemData);
-                subtotal = subtotal.add(itemSubtotal);
-            }
+            CartCache.getInstance().flush(userId);
+            CartView cart = cartDAO.getCartView(userId);
+            BigDecimal subtotal = cart.getSubtotal();
 
             // Calculate totals
             BigDecimal shipping = BigDecimal.valueOf(5.99);
@@ -308,11 +337,11 @@ public class CheckoutServlet extends HttpServlet {
             totals.put("total", total);
 
             Map<String, Object> summary = new HashMap<>();
-            summary.put("items", items);
+            summary.put("items", cart.getItems());
             summary.put("totals", totals);
-            summary.put("itemCount", items.size());
+            summary.put("itemCount", cart.getItems().size());
 
-            out.write(gson.toJson(summary));
+            JsonResponse.write(out, summary);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -340,6 +369,6 @@ public class CheckoutServlet extends HttpServlet {
         errorResponse.put("success", false);
         errorResponse.put("error", message);
 
-        response.getWriter().write(gson.toJson(errorResponse));
+        JsonResponse.write(response.getWriter(), errorResponse);
     }
 }
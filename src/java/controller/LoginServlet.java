@@ -7,6 +7,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import hibernate.User;
 import dao.UserDAO;
+import cart.CartCache;
+import cart.GuestCartStore;
+import java.util.List;
+import model.CartLine;
 
 @WebServlet("/login")
 public class LoginServlet extends HttpServlet {
@@ -69,6 +73,8 @@ public class LoginServlet extends HttpServlet {
             // Set session timeout to 30 minutes
             session.setMaxInactiveInterval(30 * 60);
             
+            mergeGuestCart(request, response, user);
+            
             // Success response
             response.setStatus(HttpServletResponse.SC_OK);
             out.write("Login successful");
@@ -81,4 +87,17 @@ public class LoginServlet extends HttpServlet {
             out.close();
         }
     }
+    
+    // Moves whatever the visitor put in the cart before logging in into the user's cart
+    private void mergeGuestCart(HttpServletRequest request, HttpServletResponse response, User user) {
+        String token = GuestCartStore.tokenFrom(request);
+        if (token == null) {
+            return;
+        }
+        List<CartLine> lines = GuestCartStore.getInstance().take(token);
+        if (!lines.isEmpty() && !CartCache.getInstance().merge(user.getId(), lines)) {
+            System.err.println("Guest cart merged in memory but not yet stored for user " + user.getId());
+        }
+        response.addCookie(GuestCartStore.cookie(request, null));
+    }
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
+import cart.CartCache;
+import hibernate.User;
 
 @WebServlet("/logout")
 public class LogoutServlet extends HttpServlet {
@@ -13,6 +15,11 @@ public class LogoutServlet extends HttpServlet {
         
         HttpSession session = request.getSession(false);
         if (session != null) {
+            // Store the cart now instead of leaving it to the background writer
+            User user = (User) session.getAttribute("user");
+            if (user != null) {
+                CartCache.getInstance().flush(user.getId());
+            }
             session.invalidate();
         }
         
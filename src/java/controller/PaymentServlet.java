@@ -1,9 +1,11 @@
 package controller;
 
 import dao.OrderDAO;
+import dao.StatusChange;
 import hibernate.Order;
 import hibernate.OrderStatus;
-import com.google.gson.Gson;
+import inbox.PaymentInbox;
+import json.JsonResponse;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -14,12 +16,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Enumeration;
 
 @WebServlet("/payment/*")
 public class PaymentServlet extends HttpServlet {
     private OrderDAO orderDAO;
-    private Gson gson;
     
     // Your actual merchant ID
     private final String MERCHANT_ID = "1232299";
@@ -27,7 +27,6 @@ public class PaymentServlet extends HttpServlet {
     @Override
     public void init() throws ServletException {
         orderDAO = new OrderDAO();
-        gson = new Gson();
         System.out.println("✅ PaymentServlet initialized with Merchant ID: " + MERCHANT_ID);
     }
 
@@ -64,91 +63,55 @@ public class PaymentServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Stores the notification in the payment inbox and answers right away;
+     * inbox.PaymentInbox applies it to the order in the background. PayHere
+     * only gets ERROR when the notification is invalid or could not be
+     * stored, so that it sends it again.
+     */
     private void handlePayHereNotification(HttpServletRequest request, HttpServletResponse response) 
             throws IOException {
         PrintWriter out = response.getWriter();
         
+        String merchantId = request.getParameter("merchant_id");
+        String orderId = request.getParameter("order_id");
+        String paymentStatus = request.getParameter("status_code");
+        String paymentId = request.getParameter("payment_id");
+        
+        System.out.println("🔔 PayHere notification - Order: " + orderId + ", Payment: " + paymentId
+                + ", Status: " + paymentStatus);
+        
+        // Verify merchant ID
+        if (!MERCHANT_ID.equals(merchantId)) {
+            System.err.println("❌ Merchant ID mismatch. Expected: " + MERCHANT_ID + ", Got: " + merchantId);
+            out.write("ERROR");
+            return;
+        }
+        
+        if (orderId == null || orderId.trim().isEmpty()) {
+            System.err.println("❌ Order ID is missing in notification");
+            out.write("ERROR");
+            return;
+        }
+        
+        // Repeats are recognised by payment and status, so a notification without either cannot be taken
+        if (paymentId == null || paymentId.trim().isEmpty() || paymentStatus == null) {
+            System.err.println("❌ Payment ID or status is missing in notification for order: " + orderId);
+            out.write("ERROR");
+            return;
+        }
+        
         try {
-            // Log all parameters for debugging
-            System.out.println("🔔 PayHere Notification Received - All Parameters:");
-            Enumeration<String> paramNames = request.getParameterNames();
-            while (paramNames.hasMoreElements()) {
-                String paramName = paramNames.nextElement();
-                String paramValue = request.getParameter(paramName);
-                System.out.println("   " + paramName + ": " + paramValue);
-            }
-            
-            String merchantId = request.getParameter("merchant_id");
-            String orderId = request.getParameter("order_id");
-            String paymentStatus = request.getParameter("status_code");
-            String amount = request.getParameter("amount");
-            String transactionId = request.getParameter("payment_id");
-            String method = request.getParameter("method");
-            String statusMessage = request.getParameter("status_message");
-            
-            System.out.println("🔔 PayHere Notification Summary:");
-            System.out.println("   Merchant ID: " + merchantId);
-            System.out.println("   Order ID: " + orderId);
-            System.out.println("   Payment Status: " + paymentStatus);
-            System.out.println("   Amount: " + amount);
-            System.out.println("   Transaction ID: " + transactionId);
-            System.out.println("   Method: " + method);
-            System.out.println("   Status Message: " + statusMessage);
-            
-            // Verify merchant ID
-            if (!MERCHANT_ID.equals(merchantId)) {
-                System.err.println("❌ Merchant ID mismatch. Expected: " + MERCHANT_ID + ", Got: " + merchantId);
-                out.write("ERROR");
-                return;
-            }
-            
-            if (orderId == null || orderId.trim().isEmpty()) {
-                System.err.println("❌ Order ID is missing in notification");
-                out.write("ERROR");
-                return;
-            }
-            
-            // Handle different payment statuses
-            if ("2".equals(paymentStatus)) { 
-                // 2 = success in PayHere
-                System.out.println("✅ Payment SUCCESS for order: " + orderId);
-                
-                Long orderIdLong = Long.parseLong(orderId);
-                boolean success = orderDAO.updateOrderStatus(orderIdLong, OrderStatus.PROCESSING);
-                
-                if (success) {
-                    System.out.println("✅ Order " + orderId + " status updated to PROCESSING");
-                    out.write("OK");
-                } else {
-                    System.err.println("❌ Failed to update order status for: " + orderId);
-                    out.write("ERROR");
-                }
-                
-            } else if ("0".equals(paymentStatus) || "-1".equals(paymentStatus) || "-2".equals(paymentStatus)) {
-                // Payment failed, cancelled, or pending
-                System.out.println("❌ Payment FAILED/CANCELLED for order: " + orderId + ", Status: " + paymentStatus);
-                
-                Long orderIdLong = Long.parseLong(orderId);
-                boolean success = orderDAO.updateOrderStatus(orderIdLong, OrderStatus.CANCELLED);
-                
-                if (success) {
-                    System.out.println("✅ Order " + orderId + " status updated to CANCELLED");
-                }
-                out.write("OK"); // Still return OK to PayHere
-                
-            } else {
-                // Unknown status
-                System.out.println("⚠️ Unknown payment status for order: " + orderId + ", Status: " + paymentStatus);
+            if (PaymentInbox.getInstance().receive(paymentId.trim(), Integer.parseInt(paymentStatus.trim()),
+                    Long.parseLong(orderId.trim()))) {
                 out.write("OK");
+            } else {
+                System.err.println("❌ Could not store PayHere notification for order: " + orderId);
+                out.write("ERROR");
             }
             
         } catch (NumberFormatException e) {
-            System.err.println("❌ Invalid order ID format in notification");
-            e.printStackTrace();
-            out.write("ERROR");
-        } catch (Exception e) {
-            System.err.println("❌ Error processing PayHere notification: " + e.getMessage());
-            e.printStackTrace();
+            System.err.println("❌ Invalid order ID or status code in notification");
             out.write("ERROR");
         }
     }
@@ -181,22 +144,31 @@ public class PaymentServlet extends HttpServlet {
                 System.out.println("💰 Online payment finalized: " + orderId);
             }
             
-            boolean success = orderDAO.updateOrderStatus(orderIdLong, status);
+            // Cash on delivery and completed online payments both keep the stock for good;
+            // moving to PROCESSING confirms it, a COD order confirms it only while still PENDING
+            StatusChange change = status == OrderStatus.PENDING
+                    ? orderDAO.confirmReservations(orderIdLong)
+                    : orderDAO.changeStatus(orderIdLong, null, status);
             
             Map<String, Object> responseData = new HashMap<>();
-            if (success) {
+            if (change.isSuccess()) {
                 responseData.put("success", true);
                 responseData.put("message", "Payment finalized successfully");
                 responseData.put("orderId", orderIdLong);
                 responseData.put("status", status.toString());
                 System.out.println("✅ Payment finalized successfully for order: " + orderId);
+            } else if (change == StatusChange.CONFLICT || change == StatusChange.NOT_ALLOWED) {
+                // Cancelled, shipped or changed by someone else in the meantime
+                responseData.put("success", false);
+                responseData.put("error", "Order can no longer be finalized");
+                System.err.println("❌ Order " + orderId + " cannot move to " + status + ": " + change);
             } else {
                 responseData.put("success", false);
                 responseData.put("error", "Failed to finalize payment");
                 System.err.println("❌ Failed to finalize payment for order: " + orderId);
             }
             
-            response.getWriter().write(gson.toJson(responseData));
+            JsonResponse.write(response.getWriter(), responseData);
             
         } catch (NumberFormatException e) {
             System.err.println("❌ Invalid order ID format in finalize: " + request.getParameter("orderId"));
@@ -213,7 +185,7 @@ public class PaymentServlet extends HttpServlet {
         errorResponse.put("success", false);
         errorResponse.put("error", message);
         
-        String jsonResponse = gson.toJson(errorResponse);
+        String jsonResponse = JsonResponse.gson().toJson(errorResponse);
         response.getWriter().write(jsonResponse);
         
         System.err.println("📤 Sent ERROR response: " + jsonResponse);
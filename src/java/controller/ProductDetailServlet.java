@@ -5,21 +5,27 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import hibernate.Product;
 import dao.ProductDAO;
+import catalog.CatalogSnapshot;
 import model.ProductDTO;
-import com.google.gson.Gson;
+import recommend.CoPurchaseIndex;
+import json.JsonResponse;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/product-details")
 public class ProductDetailServlet extends HttpServlet {
     
+    private static final int RELATED_LIMIT = 4;
+    
     private ProductDAO productDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         productDAO = new ProductDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -40,6 +46,32 @@ public class ProductDetailServlet extends HttpServlet {
             Long id = Long.parseLong(productId);
             System.out.println("Looking for product with ID: " + id);
             
+            boolean related = "related".equals(request.getParameter("view"));
+            if ("json".equals(format)) {
+                // A product's JSON embeds its category name; related lists depend on the whole catalog
+                boolean notModified = related
+                    ? ConditionalGet.isNotModified(request, response, DataVersions.catalog(), DataVersions.recommendations())
+                    : ConditionalGet.isNotModified(request, response, DataVersions.product(id), DataVersions.categories());
+                if (notModified) {
+                    return;
+                }
+            }
+            
+            // JSON is served straight from the catalog snapshot when it has the product
+            CatalogSnapshot catalog = CatalogSnapshot.get();
+            if ("json".equals(format) && related) {
+                writeRelatedProducts(response, catalog, id);
+                return;
+            }
+            if ("json".equals(format) && catalog.isReady() && catalog.getProduct(id) != null) {
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                PrintWriter out = response.getWriter();
+                JsonResponse.write(out, catalog.getProduct(id));
+                out.close();
+                return;
+            }
+            
             Product product = productDAO.getProductById(id);
             
             if (product == null) {
@@ -68,14 +100,13 @@ public class ProductDetailServlet extends HttpServlet {
                 PrintWriter out = response.getWriter();
                 
                 ProductDTO productDTO = new ProductDTO(product);
-                String json = gson.toJson(productDTO);
-                System.out.println("Returning JSON: " + json);
-                out.write(json);
+                JsonResponse.write(out, productDTO);
                 out.close();
             } else {
                 // Return HTML page
                 request.setAttribute("product", product);
-                request.setAttribute("relatedProducts", productDAO.getRelatedProducts(product));
+                request.setAttribute("relatedProducts", getRelatedProducts(CatalogSnapshot.get(), product.getId(),
+                        product.getCategory() != null ? product.getCategory().getId() : null));
                 request.getRequestDispatcher("/product-detail.html").forward(request, response);
             }
             
@@ -88,4 +119,46 @@ public class ProductDetailServlet extends HttpServlet {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error loading product: " + e.getMessage());
         }
     }
+    
+    private void writeRelatedProducts(HttpServletResponse response, CatalogSnapshot catalog, Long id) throws IOException {
+        Long categoryId;
+        ProductDTO cached = catalog.getProduct(id);
+        if (cached != null) {
+            categoryId = cached.getCategoryId();
+        } else {
+            Product product = productDAO.getProductById(id);
+            if (product == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Product not found");
+                return;
+            }
+            categoryId = product.getCategory() != null ? product.getCategory().getId() : null;
+        }
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        JsonResponse.write(out, getRelatedProducts(catalog, id, categoryId));
+        out.close();
+    }
+    
+    // "Customers also bought" from memory; products without co-purchases fall back to their category
+    private List<ProductDTO> getRelatedProducts(CatalogSnapshot catalog, Long productId, Long categoryId) {
+        List<ProductDTO> related = new ArrayList<>();
+        for (long relatedId : CoPurchaseIndex.getInstance().getRelated(productId)) {
+            ProductDTO product = catalog.getProduct(relatedId);
+            if (product != null) {
+                related.add(product);
+                if (related.size() == RELATED_LIMIT) {
+                    break;
+                }
+            }
+        }
+        
+        if (related.isEmpty()) {
+            for (Product product : productDAO.getRelatedProducts(productId, categoryId)) {
+                related.add(new ProductDTO(product));
+            }
+        }
+        return related;
+    }
 }
\ No newline at end of file
@@ -5,27 +5,42 @@ import javax.servlet.http.*;
 import javax.servlet.annotation.WebServlet;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import hibernate.Product;
 import hibernate.Category;
+import catalog.CatalogSnapshot;
 import dao.ProductDAO;
 import dao.CategoryDAO;
+import dao.ProductSort;
 import model.ProductDTO;
-import com.google.gson.Gson;
+import model.ProductPage;
+import search.ProductSearchIndex;
+import search.FacetQuery;
+import search.FacetedResult;
+import search.SearchHits;
+import json.JsonResponse;
+import util.ConditionalGet;
+import util.DataVersions;
 
 @WebServlet("/products")
 public class ProductServlet extends HttpServlet {
     
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    
     private ProductDAO productDAO;
     private CategoryDAO categoryDAO;
-    private Gson gson;
+    private ProductSearchIndex searchIndex;
     
     @Override
     public void init() throws ServletException {
         productDAO = new ProductDAO();
         categoryDAO = new CategoryDAO();
-        gson = new Gson();
+        searchIndex = ProductSearchIndex.getInstance();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -57,23 +72,19 @@ public class ProductServlet extends HttpServlet {
             List<Category> categories = categoryDAO.getAllCategories();
             request.setAttribute("categories", categories);
             
-            // Get products based on filters
+            // Get products based on filters, sorted by the database
+            ProductSort productSort = ProductSort.fromParam(sort);
             List<Product> products;
             if (categoryId != null && !categoryId.isEmpty()) {
-                products = productDAO.getProductsByCategory(Long.parseLong(categoryId));
+                products = productDAO.getProductsByCategory(Long.parseLong(categoryId), productSort);
             } else if (search != null && !search.isEmpty()) {
-                products = productDAO.searchProducts(search);
+                products = productDAO.searchProducts(search, productSort);
             } else {
-                products = productDAO.getAllProducts();
+                products = productDAO.getAllProducts(productSort);
             }
             
             System.out.println("Found " + products.size() + " products");
             
-            // Apply sorting
-            if (sort != null) {
-                products = productDAO.sortProducts(products, sort);
-            }
-            
             request.setAttribute("products", products);
             request.setAttribute("selectedCategory", categoryId);
             request.setAttribute("searchQuery", search);
@@ -90,6 +101,11 @@ public class ProductServlet extends HttpServlet {
     private void handleJsonRequest(HttpServletRequest request, HttpServletResponse response) 
             throws IOException {
         
+        // Listings, search and facets are all derived from the catalog
+        if (ConditionalGet.isNotModified(request, response, DataVersions.catalog())) {
+            return;
+        }
+        
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         PrintWriter out = response.getWriter();
@@ -101,28 +117,46 @@ public class ProductServlet extends HttpServlet {
             
             System.out.println("JSON request - category: " + categoryId + ", search: " + search);
             
-            List<Product> products;
-            if (categoryId != null && !categoryId.isEmpty()) {
-                products = productDAO.getProductsByCategory(Long.parseLong(categoryId));
-            } else if (search != null && !search.isEmpty()) {
-                products = productDAO.searchProducts(search);
-            } else {
-                products = productDAO.getAllProducts();
+            if (request.getParameter("facets") != null) {
+                writeFacetedResult(request, response, out);
+                return;
             }
             
-            if (sort != null) {
-                products = productDAO.sortProducts(products, sort);
+            // Paged mode is opt-in so existing callers keep receiving a plain array
+            if (isPagedRequest(request)) {
+                writeProductPage(request, response, out, categoryId, search, ProductSort.fromParam(sort));
+                return;
             }
             
-            // Convert to DTOs to avoid Hibernate proxy issues
-            List<ProductDTO> productDTOs = products.stream()
-                .map(ProductDTO::new)
-                .collect(Collectors.toList());
+            ProductSort productSort = ProductSort.fromParam(sort);
+            List<ProductDTO> productDTOs;
+            if (search != null && !search.isEmpty() && searchIndex.isReady()) {
+                // Served from the in-memory index, optionally narrowed to the category
+                Long category = categoryId != null && !categoryId.isEmpty() ? Long.parseLong(categoryId) : null;
+                productDTOs = searchIndex.search(search, category, productSort, 0, Integer.MAX_VALUE).getItems();
+            } else if ((search == null || search.isEmpty()) && CatalogSnapshot.get().isReady()) {
+                // Plain listings are array slices of the catalog snapshot
+                Long category = categoryId != null && !categoryId.isEmpty() ? Long.parseLong(categoryId) : null;
+                productDTOs = CatalogSnapshot.get().list(category, productSort, 0, Integer.MAX_VALUE);
+            } else {
+                List<Product> products;
+                if (categoryId != null && !categoryId.isEmpty()) {
+                    products = productDAO.getProductsByCategory(Long.parseLong(categoryId), productSort);
+                } else if (search != null && !search.isEmpty()) {
+                    products = productDAO.searchProducts(search, productSort);
+                } else {
+                    products = productDAO.getAllProducts(productSort);
+                }
+                
+                // Convert to DTOs to avoid Hibernate proxy issues
+                productDTOs = products.stream()
+                    .map(ProductDTO::new)
+                    .collect(Collectors.toList());
+            }
             
             System.out.println("Returning " + productDTOs.size() + " products as JSON");
             
-            String json = gson.toJson(productDTOs);
-            out.write(json);
+            JsonResponse.write(out, productDTOs);
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -132,4 +166,139 @@ public class ProductServlet extends HttpServlet {
             out.close();
         }
     }
+    
+    private boolean isPagedRequest(HttpServletRequest request) {
+        return request.getParameter("page") != null
+            || request.getParameter("cursor") != null
+            || request.getParameter("size") != null;
+    }
+    
+    private void writeProductPage(HttpServletRequest request, HttpServletResponse response, PrintWriter out,
+            String categoryId, String search, ProductSort sort) {
+        
+        String cursor = request.getParameter("cursor");
+        String pageParam = request.getParameter("page");
+        String sizeParam = request.getParameter("size");
+        
+        int size = DEFAULT_PAGE_SIZE;
+        Integer page = null;
+        Long category = null;
+        try {
+            if (sizeParam != null && !sizeParam.isEmpty()) {
+                size = Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(sizeParam)));
+            }
+            if (pageParam != null && !pageParam.isEmpty()) {
+                page = Math.max(1, Integer.parseInt(pageParam));
+            }
+            if (categoryId != null && !categoryId.isEmpty()) {
+                category = Long.parseLong(categoryId);
+            }
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Invalid page, size or category\"}");
+            return;
+        }
+        
+        try {
+            ProductPage productPage;
+            if (search != null && !search.isEmpty() && searchIndex.isReady()) {
+                productPage = searchPage(search, category, sort, cursor, page, size);
+            } else if ((search == null || search.isEmpty()) && CatalogSnapshot.get().isReady()) {
+                productPage = CatalogSnapshot.get().page(category, sort, cursor, page, size);
+            } else {
+                productPage = productDAO.getProductsPage(category, search, sort, cursor, page, size);
+            }
+            System.out.println("Returning page of " + productPage.getItems().size() + " products as JSON");
+            JsonResponse.write(out, productPage);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Invalid cursor\"}");
+        }
+    }
+    
+    /**
+     * Faceted listing: category, price and stock accept several comma separated
+     * or repeated values, page/size select the slice and facet counts are
+     * returned next to the items.
+     */
+    private void writeFacetedResult(HttpServletRequest request, HttpServletResponse response, PrintWriter out) {
+        if (!searchIndex.isReady()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            out.write("{\"error\": \"Catalog index is not ready\"}");
+            return;
+        }
+        
+        FacetQuery query = new FacetQuery();
+        try {
+            query.setText(request.getParameter("search"));
+            query.setSort(ProductSort.fromParam(request.getParameter("sort")));
+            for (String categoryId : multiValue(request, "category")) {
+                query.getCategoryIds().add(Long.parseLong(categoryId));
+            }
+            query.getPriceBuckets().addAll(multiValue(request, "price"));
+            query.getStockStatuses().addAll(multiValue(request, "stock"));
+            
+            String sizeParam = request.getParameter("size");
+            String pageParam = request.getParameter("page");
+            int size = sizeParam != null && !sizeParam.isEmpty()
+                ? Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(sizeParam))) : DEFAULT_PAGE_SIZE;
+            int page = pageParam != null && !pageParam.isEmpty() ? Math.max(1, Integer.parseInt(pageParam)) : 1;
+            query.setLimit(size);
+            query.setOffset((page - 1) * size);
+            
+            FacetedResult result = searchIndex.facetedSearch(query);
+            System.out.println("Returning " + result.getItems().size() + " of " + result.getTotal() + " faceted products as JSON");
+            JsonResponse.write(out, result);
+        } catch (IllegalArgumentException e) {
+            // Also covers NumberFormatException
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Invalid facet parameter: " + e.getMessage() + "\"}");
+        }
+    }
+    
+    private List<String> multiValue(HttpServletRequest request, String name) {
+        List<String> values = new ArrayList<>();
+        String[] params = request.getParameterValues(name);
+        if (params != null) {
+            for (String param : params) {
+                for (String value : param.split(",")) {
+                    if (!value.trim().isEmpty() && !"all".equals(value.trim())) {
+                        values.add(value.trim());
+                    }
+                }
+            }
+        }
+        return values;
+    }
+    
+    // Search results are ranked in memory, so their cursor is simply the next offset
+    private ProductPage searchPage(String search, Long category, ProductSort sort, String cursor, Integer page, int size) {
+        int offset = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            offset = decodeSearchCursor(cursor);
+        } else if (page != null) {
+            offset = (page - 1) * size;
+        }
+        
+        SearchHits hits = searchIndex.search(search, category, sort, offset, size);
+        String nextCursor = offset + size < hits.getTotal() ? encodeSearchCursor(offset + size) : null;
+        return new ProductPage(hits.getItems(), nextCursor, (long) hits.getTotal(), size);
+    }
+    
+    private String encodeSearchCursor(int offset) {
+        String raw = "search:" + offset;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private int decodeSearchCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith("search:")) {
+                throw new IllegalArgumentException("Not a search cursor");
+            }
+            return Math.max(0, Integer.parseInt(raw.substring("search:".length())));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
 }
\ No newline at end of file
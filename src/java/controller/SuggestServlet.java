@@ -0,0 +1,52 @@
+package controller;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import javax.servlet.annotation.WebServlet;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import search.SuggestIndex;
+import json.JsonResponse;
+
+@WebServlet("/products/suggest")
+public class SuggestServlet extends HttpServlet {
+    
+    private static final int DEFAULT_LIMIT = 8;
+    private static final int MAX_LIMIT = 20;
+    
+    private SuggestIndex suggestIndex;
+    
+    @Override
+    public void init() throws ServletException {
+        suggestIndex = SuggestIndex.getInstance();
+    }
+    
+    // Called on every keystroke, so this never touches the database
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+            throws ServletException, IOException {
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        
+        try {
+            String query = request.getParameter("q");
+            String limitParam = request.getParameter("limit");
+            
+            int limit = DEFAULT_LIMIT;
+            if (limitParam != null && !limitParam.isEmpty()) {
+                limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limitParam)));
+            }
+            
+            List<SuggestIndex.Suggestion> suggestions = suggestIndex.suggest(query, limit);
+            JsonResponse.write(out, suggestions);
+            
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            out.write("{\"error\": \"Invalid limit\"}");
+        } finally {
+            out.close();
+        }
+    }
+}
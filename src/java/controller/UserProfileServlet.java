@@ -7,18 +7,16 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import hibernate.User;
 import dao.UserDAO;
-import com.google.gson.Gson;
+import json.JsonResponse;
 
 @WebServlet("/user-profile")
 public class UserProfileServlet extends HttpServlet {
     
     private UserDAO userDAO;
-    private Gson gson;
     
     @Override
     public void init() throws ServletException {
         userDAO = new UserDAO();
-        gson = new Gson();
     }
     
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
@@ -52,8 +50,7 @@ public class UserProfileServlet extends HttpServlet {
             
             // Create a safe user object without password
             UserProfile userProfile = new UserProfile(user);
-            String userJson = gson.toJson(userProfile);
-            out.write(userJson);
+            JsonResponse.write(out, userProfile);
             
         } catch (Exception e) {
             e.printStackTrace();
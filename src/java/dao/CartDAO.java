@@ -1,16 +1,30 @@
 package dao;
 
 import hibernate.CartItem;
-import hibernate.User;
-import hibernate.Product;
+import model.CartLine;
+import model.CartLineDTO;
+import model.CartView;
+import java.math.BigDecimal;
 import hibernate.HibernateUtil;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.criterion.Projections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hibernate.jdbc.Work;
 
 public class CartDAO {
 
@@ -66,31 +80,228 @@ public class CartDAO {
         }
     }
 
-    public boolean addToCart(Long userId, Long productId, Integer quantity) {
+    // Lines of the user's cart without loading users or products; null when the query fails
+    public List<CartLine> getCartLines(Long userId) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            String hql = "SELECT ci.id, ci.product.id, ci.quantity, ci.addedDate FROM CartItem ci "
+                    + "WHERE ci.user.id = :userId";
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = session.createQuery(hql)
+                    .setParameter("userId", userId)
+                    .list();
+
+            List<CartLine> lines = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                lines.add(new CartLine((Long) row[0], (Long) row[1], (Integer) row[2], (Date) row[3]));
+            }
+            return lines;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * The user's cart as flat lines and totals, from one scalar query over
+     * cart_items and products; no entities are loaded.
+     */
+    public CartView getCartView(Long userId) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            String hql = "SELECT ci.id, p.id, p.name, p.price, p.imageUrl, p.Quantity - p.reserved, ci.quantity "
+                    + "FROM CartItem ci JOIN ci.product p "
+                    + "WHERE ci.user.id = :userId "
+                    + "ORDER BY ci.addedDate DESC, ci.id DESC";
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = session.createQuery(hql)
+                    .setParameter("userId", userId)
+                    .list();
+
+            List<CartLineDTO> items = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                items.add(new CartLineDTO((Long) row[0], (Long) row[1], (String) row[2], (BigDecimal) row[3],
+                        (String) row[4], (Integer) row[5], (Integer) row[6]));
+            }
+            return new CartView(items);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new CartView(new ArrayList<CartLineDTO>());
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Stores the given carts in one transaction: the rows of removed products
+     * are deleted and every line is written with its quantity, as two JDBC
+     * batches. Lines of products that no longer exist are skipped.
+     *
+     * Quantities are the cart's absolute state, already summed by CartCache
+     * under its lock, so lines overwrite rather than add to the stored
+     * quantity; the storefront's add path goes through here, not addToCart.
+     */
+    public boolean saveCarts(final Map<Long, List<CartLine>> lines, final Map<Long, Set<Long>> removed) {
         Session session = null;
         Transaction transaction = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             transaction = session.beginTransaction();
 
-            // Check if item already exists in cart
-            CartItem existingItem = getCartItemByUserAndProduct(userId, productId);
-
-            if (existingItem != null) {
-                // Update quantity if item exists
-                existingItem.setQuantity(existingItem.getQuantity() + quantity);
-                session.update(existingItem);
-            } else {
-                // Create new cart item
-                User user = (User) session.get(User.class, userId);
-                Product product = (Product) session.get(Product.class, productId);
-
-                if (user != null && product != null) {
-                    CartItem cartItem = new CartItem(user, product, quantity);
-                    session.save(cartItem);
-                } else {
-                    throw new Exception("User or Product not found");
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    try (PreparedStatement delete = connection.prepareStatement(
+                            "DELETE FROM cart_items WHERE user_id = ? AND product_id = ?")) {
+                        for (Map.Entry<Long, Set<Long>> entry : removed.entrySet()) {
+                            for (Long productId : entry.getValue()) {
+                                delete.setLong(1, entry.getKey());
+                                delete.setLong(2, productId);
+                                delete.addBatch();
+                            }
+                        }
+                        delete.executeBatch();
+                    }
+
+                    try (PreparedStatement upsert = connection.prepareStatement(
+                            "INSERT INTO cart_items (user_id, product_id, quantity, added_date) "
+                            + "SELECT ?, p.id, ?, ? FROM products p WHERE p.id = ? "
+                            + "ON DUPLICATE KEY UPDATE quantity = VALUES(quantity)")) {
+                        for (Map.Entry<Long, List<CartLine>> entry : lines.entrySet()) {
+                            for (CartLine line : entry.getValue()) {
+                                upsert.setLong(1, entry.getKey());
+                                upsert.setInt(2, line.getQuantity());
+                                upsert.setTimestamp(3, new Timestamp(line.getAddedDate().getTime()));
+                                upsert.setLong(4, line.getProductId());
+                                upsert.addBatch();
+                            }
+                        }
+                        upsert.executeBatch();
+                    }
+                }
+            });
+
+            transaction.commit();
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes up to limit of the oldest cart lines added before the cutoff, in
+     * one short transaction: their ids are read through the added_date index
+     * and deleted by primary key, so only those rows are locked. The owners of
+     * the deleted lines are added to userIds. Returns the number of rows
+     * deleted, or -1 when the batch failed.
+     */
+    public int deleteCartItemsAddedBefore(final Date cutoff, final int limit, final Collection<Long> userIds) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            final int[] deleted = new int[1];
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    List<Long> ids = new ArrayList<>(limit);
+                    Set<Long> owners = new HashSet<>();
+                    try (PreparedStatement select = connection.prepareStatement(
+                            "SELECT id, user_id FROM cart_items WHERE added_date < ? "
+                            + "ORDER BY added_date, id LIMIT ?")) {
+                        select.setTimestamp(1, new Timestamp(cutoff.getTime()));
+                        select.setInt(2, limit);
+                        try (ResultSet rows = select.executeQuery()) {
+                            while (rows.next()) {
+                                ids.add(rows.getLong(1));
+                                owners.add(rows.getLong(2));
+                            }
+                        }
+                    }
+                    if (ids.isEmpty()) {
+                        return;
+                    }
+
+                    try (PreparedStatement delete = connection.prepareStatement(
+                            "DELETE FROM cart_items WHERE id = ? AND added_date < ?")) {
+                        for (Long id : ids) {
+                            delete.setLong(1, id);
+                            delete.setTimestamp(2, new Timestamp(cutoff.getTime()));
+                            delete.addBatch();
+                        }
+                        for (int count : delete.executeBatch()) {
+                            // Drivers may report SUCCESS_NO_INFO (-2) for batched statements
+                            deleted[0] += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                        }
+                    }
+                    userIds.addAll(owners);
                 }
+            });
+
+            transaction.commit();
+            return deleted[0];
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the quantity to the user's line for the product, creating the line
+     * if there is none. A single INSERT ... ON DUPLICATE KEY UPDATE against the
+     * unique (user_id, product_id) key, so concurrent adds of the same product
+     * always end up in one row holding the summed quantity. Returns false when
+     * the user or the product does not exist.
+     */
+    public boolean addToCart(Long userId, Long productId, Integer quantity) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            // Selecting from users and products inserts nothing when either id is unknown
+            String sql = "INSERT INTO cart_items (user_id, product_id, quantity, added_date) "
+                    + "SELECT u.id, p.id, :quantity, :addedDate FROM users u, products p "
+                    + "WHERE u.id = :userId AND p.id = :productId "
+                    + "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity)";
+            int affected = session.createSQLQuery(sql)
+                    .addSynchronizedEntityClass(CartItem.class)
+                    .setParameter("quantity", quantity)
+                    .setTimestamp("addedDate", new Date())
+                    .setParameter("userId", userId)
+                    .setParameter("productId", productId)
+                    .executeUpdate();
+
+            if (affected == 0) {
+                throw new Exception("User or Product not found");
             }
 
             transaction.commit();
@@ -6,6 +6,7 @@ import org.hibernate.Session;
 import org.hibernate.Criteria;
 import java.util.List;
 import org.hibernate.Transaction;
+import util.DataVersions;
 
 public class CategoryDAO {
     
@@ -14,6 +15,8 @@ public class CategoryDAO {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Category.class);
+            criteria.setCacheable(true);
+            criteria.setCacheRegion("query.categories");
             return criteria.list();
         } catch (Exception e) {
             e.printStackTrace();
@@ -48,6 +51,7 @@ public class CategoryDAO {
             transaction = session.beginTransaction();
             session.saveOrUpdate(category);
             transaction.commit();
+            DataVersions.categoriesChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -75,6 +79,7 @@ public class CategoryDAO {
             }
             
             transaction.commit();
+            DataVersions.categoriesChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -97,6 +102,7 @@ public class CategoryDAO {
             transaction = session.beginTransaction();
             session.update(category);
             transaction.commit();
+            DataVersions.categoriesChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -0,0 +1,203 @@
+package dao;
+
+import hibernate.HibernateUtil;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+
+public class IdempotencyDAO {
+
+    public static final String IN_PROGRESS = "IN_PROGRESS";
+    public static final String COMPLETED = "COMPLETED";
+
+    /**
+     * Claims the key for a request that is about to run. True when this call
+     * inserted the key or took over an in-progress claim whose lease ran out,
+     * false when the key is taken, null when the database could not be asked.
+     */
+    public Boolean claim(String requestKey, Date leaseUntil) {
+        Date now = new Date();
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            session.createSQLQuery("INSERT INTO idempotency_keys (request_key, status, created_at, expires_at) "
+                    + "VALUES (:requestKey, :status, :now, :leaseUntil)")
+                    .addSynchronizedQuerySpace("idempotency_keys")
+                    .setParameter("requestKey", requestKey)
+                    .setParameter("status", IN_PROGRESS)
+                    .setParameter("now", new Timestamp(now.getTime()))
+                    .setParameter("leaseUntil", new Timestamp(leaseUntil.getTime()))
+                    .executeUpdate();
+            transaction.commit();
+            return true;
+        } catch (ConstraintViolationException e) {
+            // Already there; fall through to the takeover below
+            transaction.rollback();
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            // A request that died without completing or releasing its key, or a completed key past its window
+            int updated = session.createSQLQuery("UPDATE idempotency_keys "
+                    + "SET status = :status, response = NULL, created_at = :now, expires_at = :leaseUntil "
+                    + "WHERE request_key = :requestKey AND expires_at < :now")
+                    .addSynchronizedQuerySpace("idempotency_keys")
+                    .setParameter("requestKey", requestKey)
+                    .setParameter("status", IN_PROGRESS)
+                    .setParameter("now", new Timestamp(now.getTime()))
+                    .setParameter("leaseUntil", new Timestamp(leaseUntil.getTime()))
+                    .executeUpdate();
+            transaction.commit();
+            return updated > 0;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    // Stored response of a completed, unexpired key, or null
+    public String findResponse(String requestKey) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            return (String) session.createSQLQuery("SELECT response FROM idempotency_keys "
+                    + "WHERE request_key = :requestKey AND status = :status AND expires_at >= :now")
+                    .setParameter("requestKey", requestKey)
+                    .setParameter("status", COMPLETED)
+                    .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                    .uniqueResult();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    public boolean complete(String requestKey, String response, Date expiresAt) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            int updated = session.createSQLQuery("UPDATE idempotency_keys "
+                    + "SET status = :status, response = :response, expires_at = :expiresAt "
+                    + "WHERE request_key = :requestKey")
+                    .addSynchronizedQuerySpace("idempotency_keys")
+                    .setParameter("requestKey", requestKey)
+                    .setParameter("status", COMPLETED)
+                    .setParameter("response", response)
+                    .setParameter("expiresAt", new Timestamp(expiresAt.getTime()))
+                    .executeUpdate();
+            transaction.commit();
+            return updated > 0;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    // Frees an in-progress key so the request can be retried
+    public boolean release(String requestKey) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            int deleted = session.createSQLQuery("DELETE FROM idempotency_keys "
+                    + "WHERE request_key = :requestKey AND status = :status")
+                    .addSynchronizedQuerySpace("idempotency_keys")
+                    .setParameter("requestKey", requestKey)
+                    .setParameter("status", IN_PROGRESS)
+                    .executeUpdate();
+            transaction.commit();
+            return deleted > 0;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes up to limit keys that expired before the cutoff, oldest first,
+     * by primary key in one short transaction. Returns the number of rows
+     * deleted, or -1 when the batch failed.
+     */
+    public int deleteExpired(Date cutoff, int limit) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            @SuppressWarnings("unchecked")
+            List<String> keys = session.createSQLQuery("SELECT request_key FROM idempotency_keys "
+                    + "WHERE expires_at < :cutoff ORDER BY expires_at LIMIT :limit")
+                    .setParameter("cutoff", new Timestamp(cutoff.getTime()))
+                    .setParameter("limit", limit)
+                    .list();
+            int deleted = 0;
+            if (!keys.isEmpty()) {
+                deleted = session.createSQLQuery("DELETE FROM idempotency_keys "
+                        + "WHERE request_key IN (:keys) AND expires_at < :cutoff")
+                        .addSynchronizedQuerySpace("idempotency_keys")
+                        .setParameterList("keys", new ArrayList<>(keys))
+                        .setParameter("cutoff", new Timestamp(cutoff.getTime()))
+                        .executeUpdate();
+            }
+
+            transaction.commit();
+            return deleted;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+}
@@ -6,14 +6,29 @@ import org.hibernate.Transaction;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Restrictions;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import inventory.FlashSaleStock;
+import inventory.ReservationExpiry;
+import inventory.ReservationIndex;
 import org.hibernate.criterion.Projections;
 import org.hibernate.transform.Transformers;
+import org.hibernate.type.StringType;
+import outbox.OrderEvents;
+import outbox.OutboxDispatcher;
+import util.DataVersions;
 
 public class OrderDAO {
 
@@ -87,9 +102,26 @@ public class OrderDAO {
     }
 
     // Your existing methods remain the same...
+    /**
+     * Turns the user's cart into an order in one transaction on one session.
+     * The cart rows are read with FOR UPDATE, so a second checkout of the same
+     * cart waits and then finds it empty. Stock is put on hold with one
+     * conditional UPDATE of products.reserved per line, in product id order so
+     * that concurrent checkouts lock products in the same order and cannot
+     * deadlock; a line that is not available fails the whole order. Lines of
+     * products in flash-sale mode take their units from FlashSaleStock instead
+     * and do not touch the product row. The holds
+     * are recorded in stock_reservations and expire after
+     * ReservationExpiry.HOLD_MINUTES unless the payment confirms them. The
+     * order and its items are flushed together, the items as one JDBC batch;
+     * holds and the deleted cart rows go in JDBC batches too. Everything
+     * else that follows an order is left to the outbox event written here.
+     */
     public Order createOrderFromCart(Long userId, String shippingAddress, BigDecimal totalAmount) {
         Session session = null;
         Transaction transaction = null;
+        List<FlashSaleStock.Ticket> tickets = new ArrayList<>();
+        boolean committed = false;
         
         try {
             session = HibernateUtil.getSessionFactory().openSession();
@@ -101,51 +133,440 @@ public class OrderDAO {
                 throw new Exception("User not found");
             }
             
-            // Get cart items
-            CartDAO cartDAO = new CartDAO();
-            List<CartItem> cartItems = cartDAO.getCartItemsByUser(userId);
-            
-            if (cartItems == null || cartItems.isEmpty()) {
+            // productId, quantity pairs ordered by product id
+            final List<long[]> lines = session.doReturningWork(connection -> lockCartLines(connection, userId));
+            if (lines.isEmpty()) {
                 throw new Exception("Cart is empty");
             }
             
+            final List<long[]> rowLines = new ArrayList<>();
+            for (long[] line : lines) {
+                if (!FlashSaleStock.getInstance().isFlashSale(line[0])) {
+                    rowLines.add(line);
+                    continue;
+                }
+                FlashSaleStock.Ticket ticket = FlashSaleStock.getInstance().take(line[0], (int) line[1]);
+                if (ticket == null) {
+                    throw new Exception("Insufficient stock for product: " + line[0]);
+                }
+                tickets.add(ticket);
+            }
+            
+            Long shortProductId = rowLines.isEmpty() ? null
+                    : session.doReturningWork(connection -> reserveStock(connection, rowLines));
+            if (shortProductId != null) {
+                throw new Exception("Insufficient stock for product: " + shortProductId);
+            }
+            
+            // Read after the hold, while this transaction holds the product rows
+            final Map<Long, BigDecimal> prices = session.doReturningWork(connection -> readPrices(connection, lines));
+            
             // Create order
-            Order order = new Order();
+            final Order order = new Order();
             order.setUser(user);
             order.setShippingAddress(shippingAddress);
             order.setTotalAmount(totalAmount);
             order.setStatus(OrderStatus.PENDING);
             
             session.save(order);
+            for (long[] line : lines) {
+                // A proxy is enough for the foreign key; the product is not loaded
+                Product product = (Product) session.load(Product.class, line[0]);
+                session.save(new OrderItem(order, product, (int) line[1], prices.get(line[0])));
+            }
+            // Pooled ids let both inserts wait until here; the rows below refer to the order
+            session.flush();
             
-            // Create order items from cart items and update stock
-            for (CartItem cartItem : cartItems) {
-                Product product = cartItem.getProduct();
-                
-                // Check stock availability
-                if (!product.hasSufficientStock(cartItem.getQuantity())) {
-                    throw new Exception("Insufficient stock for product: " + product.getName());
+            final Date expiresAt = new Date(System.currentTimeMillis()
+                    + TimeUnit.MINUTES.toMillis(ReservationExpiry.HOLD_MINUTES));
+            session.doWork(connection -> {
+                insertReservations(connection, order.getId(), lines, expiresAt);
+                deleteCartLines(connection, userId, lines);
+                OutboxDAO.append(connection, OrderEvents.ORDER_PLACED, order.getId(),
+                        OrderEvents.placed(order.getId(), userId, totalAmount, lines));
+            });
+            
+            transaction.commit();
+            committed = true;
+            OutboxDispatcher.getInstance().wake();
+            
+            // products.reserved was changed behind the second-level cache
+            for (long[] line : rowLines) {
+                HibernateUtil.getSessionFactory().getCache().evictEntity(Product.class, line[0]);
+                ReservationIndex.getInstance().addHeld(line[0], (int) line[1]);
+            }
+            DataVersions.ordersChanged();
+            for (long[] line : lines) {
+                DataVersions.productChanged(line[0]);
+            }
+            return order;
+            
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            for (FlashSaleStock.Ticket ticket : tickets) {
+                ticket.finish(committed);
+            }
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    // A line without a positive quantity would hand stock back instead of holding it, so it is never ordered
+    private static List<long[]> lockCartLines(Connection connection, Long userId) throws SQLException {
+        List<long[]> lines = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT product_id, quantity FROM cart_items WHERE user_id = ? AND quantity > 0 "
+                + "ORDER BY product_id FOR UPDATE")) {
+            select.setLong(1, userId);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    lines.add(new long[] { rows.getLong(1), rows.getInt(2) });
                 }
-                
-                // Create order item
-                OrderItem orderItem = new OrderItem();
-                orderItem.setOrder(order);
-                orderItem.setProduct(product);
-                orderItem.setQuantity(cartItem.getQuantity());
-                orderItem.setPrice(product.getPrice());
-                
-                session.save(orderItem);
-                
-                // Update product stock
-                product.decreaseStock(cartItem.getQuantity());
-                session.update(product);
             }
+        }
+        return lines;
+    }
+    
+    /**
+     * Product id of the first line that is not available, or null when every
+     * line was put on hold. The conditional updates go out as one batch; the
+     * caller rolls back the holds that did succeed when a line is short. A
+     * product switched to flash-sale mode meanwhile counts as short.
+     */
+    private static Long reserveStock(Connection connection, List<long[]> lines) throws SQLException {
+        int[] counts;
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE products SET reserved = reserved + ? WHERE id = ? AND quantity - reserved >= ? "
+                + "AND flash_sale = FALSE")) {
+            for (long[] line : lines) {
+                update.setInt(1, (int) line[1]);
+                update.setLong(2, line[0]);
+                update.setInt(3, (int) line[1]);
+                update.addBatch();
+            }
+            counts = update.executeBatch();
+        }
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                return lines.get(i)[0];
+            }
+        }
+        return null;
+    }
+    
+    private static Map<Long, BigDecimal> readPrices(Connection connection, List<long[]> lines) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id, price FROM products WHERE id IN (");
+        for (int i = 0; i < lines.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+        
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < lines.size(); i++) {
+                select.setLong(i + 1, lines.get(i)[0]);
+            }
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    prices.put(rows.getLong(1), rows.getBigDecimal(2));
+                }
+            }
+        }
+        return prices;
+    }
+    
+    private static void insertReservations(Connection connection, Long orderId, List<long[]> lines,
+            Date expiresAt) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO stock_reservations (order_id, product_id, quantity, status, expires_at) "
+                + "VALUES (?, ?, ?, ?, ?)")) {
+            for (long[] line : lines) {
+                insert.setLong(1, orderId);
+                insert.setLong(2, line[0]);
+                insert.setInt(3, (int) line[1]);
+                insert.setString(4, ReservationStatus.HELD.name());
+                insert.setTimestamp(5, new Timestamp(expiresAt.getTime()));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+    
+    /**
+     * Releases the holds of up to limit pending orders whose holds have
+     * expired and cancels those orders, one short transaction per order.
+     * Returns the number of orders handled, or -1 when one of them failed.
+     */
+    public int releaseExpiredReservations(int limit) {
+        List<Long> orderIds = new ArrayList<>();
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            // Orders that moved on keep their stock, whatever their reservations say
+            String sql = "SELECT r.order_id FROM stock_reservations r JOIN orders o ON o.id = r.order_id "
+                    + "WHERE r.status = :status AND r.expires_at < :now AND o.status = :pending "
+                    + "GROUP BY r.order_id ORDER BY MIN(r.expires_at) LIMIT :limit";
+            List<?> rows = session.createSQLQuery(sql)
+                    .setParameter("status", ReservationStatus.HELD.name())
+                    .setParameter("pending", OrderStatus.PENDING.name())
+                    .setParameter("now", new Date())
+                    .setParameter("limit", limit)
+                    .list();
+            for (Object row : rows) {
+                orderIds.add(((Number) row).longValue());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+        
+        for (Long orderId : orderIds) {
+            if (releaseExpiredHolds(orderId) == null) {
+                return -1;
+            }
+        }
+        return orderIds.size();
+    }
+    
+    /**
+     * Products in flash-sale mode as productId -> { quantity, units on hold },
+     * counting the holds from stock_reservations. Null when the query failed.
+     */
+    public Map<Long, int[]> getFlashSaleStock() {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            String sql = "SELECT p.id, p.quantity, COALESCE(SUM(r.quantity), 0) FROM products p "
+                    + "LEFT JOIN stock_reservations r ON r.product_id = p.id AND r.status = :held "
+                    + "WHERE p.flash_sale = TRUE GROUP BY p.id, p.quantity";
+            List<?> rows = session.createSQLQuery(sql)
+                    .setParameter("held", ReservationStatus.HELD.name())
+                    .list();
+            Map<Long, int[]> stock = new HashMap<>();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                stock.put(((Number) columns[0]).longValue(),
+                        new int[] { ((Number) columns[1]).intValue(), ((Number) columns[2]).intValue() });
+            }
+            return stock;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    // productId -> units on hold in stock_reservations; products with none are left out. Null on failure
+    public Map<Long, Integer> getHeldUnits(Collection<Long> productIds) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            String sql = "SELECT product_id, SUM(quantity) FROM stock_reservations "
+                    + "WHERE status = :held AND product_id IN (:productIds) GROUP BY product_id";
+            List<?> rows = session.createSQLQuery(sql)
+                    .setParameter("held", ReservationStatus.HELD.name())
+                    .setParameterList("productIds", productIds)
+                    .list();
+            Map<Long, Integer> held = new HashMap<>();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                held.put(((Number) columns[0]).longValue(), ((Number) columns[1]).intValue());
+            }
+            return held;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    /**
+     * Sets products.reserved of flash-sale products to the given productId ->
+     * units, as one batch. Products that have left flash-sale mode meanwhile
+     * keep their own count.
+     */
+    public boolean updateReserved(final Map<Long, Integer> reserved) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
             
-            // Clear cart after successful order creation
-            cartDAO.clearUserCart(userId);
+            // Product id order, the same order checkout locks products in
+            final List<Long> productIds = new ArrayList<>(reserved.keySet());
+            Collections.sort(productIds);
+            session.doWork(connection -> {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE products SET reserved = ? WHERE id = ? AND flash_sale = TRUE")) {
+                    for (Long productId : productIds) {
+                        update.setInt(1, reserved.get(productId));
+                        update.setLong(2, productId);
+                        update.addBatch();
+                    }
+                    update.executeBatch();
+                }
+            });
             
             transaction.commit();
-            return order;
+            for (Long productId : productIds) {
+                HibernateUtil.getSessionFactory().getCache().evictEntity(Product.class, productId);
+            }
+            return true;
+            
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    /**
+     * Switches the product to flash-sale mode and returns the units it can
+     * still sell, or null when it does not exist or the switch failed. The
+     * product row is locked first, so checkouts that already put units on
+     * hold through it have committed and are counted.
+     */
+    public Integer startFlashSale(final Long productId) {
+        return switchFlashSale(productId, true);
+    }
+    
+    /**
+     * Switches the product out of flash-sale mode, writing its holds into
+     * products.reserved. Returns the units on hold, or null when the product
+     * does not exist or the switch failed.
+     */
+    public Integer endFlashSale(final Long productId) {
+        return switchFlashSale(productId, false);
+    }
+    
+    private Integer switchFlashSale(final Long productId, final boolean flashSale) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            
+            Integer result = session.doReturningWork(connection -> {
+                int quantity;
+                try (PreparedStatement lock = connection.prepareStatement(
+                        "SELECT quantity FROM products WHERE id = ? FOR UPDATE")) {
+                    lock.setLong(1, productId);
+                    try (ResultSet rows = lock.executeQuery()) {
+                        if (!rows.next()) {
+                            return null;
+                        }
+                        quantity = rows.getInt(1);
+                    }
+                }
+                // Read after the lock; settling a hold of this product needs the row too
+                int held;
+                try (PreparedStatement sum = connection.prepareStatement(
+                        "SELECT COALESCE(SUM(quantity), 0) FROM stock_reservations "
+                        + "WHERE product_id = ? AND status = ?")) {
+                    sum.setLong(1, productId);
+                    sum.setString(2, ReservationStatus.HELD.name());
+                    try (ResultSet rows = sum.executeQuery()) {
+                        rows.next();
+                        held = rows.getInt(1);
+                    }
+                }
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE products SET flash_sale = ?, reserved = ? WHERE id = ?")) {
+                    update.setBoolean(1, flashSale);
+                    update.setInt(2, held);
+                    update.setLong(3, productId);
+                    update.executeUpdate();
+                }
+                return flashSale ? quantity - held : held;
+            });
+            
+            transaction.commit();
+            HibernateUtil.getSessionFactory().getCache().evictEntity(Product.class, productId);
+            return result;
+            
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    /**
+     * Releases the order's holds that are past their expiry and cancels the
+     * order as EXPIRED, in one transaction; nothing changes when the order is
+     * no longer pending. Returns the product rows that were changed, or null when the
+     * transaction failed.
+     */
+    private List<long[]> releaseExpiredHolds(final Long orderId) {
+        Session session = null;
+        Transaction transaction = null;
+        final List<FlashSaleStock.Ticket> tickets = new ArrayList<>();
+        boolean committed = false;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            
+            // productId, change of reserved, units back on sale in flash-sale mode, change of quantity
+            final List<long[]> changes = session.doReturningWork(
+                    connection -> applyReservations(connection, orderId, ReservationStatus.RELEASED, true, tickets));
+            
+            boolean cancelled = false;
+            if (!changes.isEmpty()) {
+                cancelled = session.createSQLQuery(
+                        "UPDATE orders SET status = :cancelled, cancel_reason = :reason, version = version + 1 "
+                        + "WHERE id = :orderId AND status = :pending")
+                        .addSynchronizedEntityClass(Order.class)
+                        .setParameter("cancelled", OrderStatus.CANCELLED.name())
+                        .setParameter("reason", CancelReason.EXPIRED.name())
+                        .setParameter("pending", OrderStatus.PENDING.name())
+                        .setParameter("orderId", orderId)
+                        .executeUpdate() > 0;
+                if (!cancelled) {
+                    // Moved on since the sweep picked it; its holds are no longer ours to release
+                    transaction.rollback();
+                    return new ArrayList<>();
+                }
+                session.doWork(connection -> OutboxDAO.append(connection, OrderEvents.STATUS_CHANGED, orderId,
+                        OrderEvents.statusChanged(orderId, OrderStatus.CANCELLED.name())));
+            }
+            
+            transaction.commit();
+            committed = true;
+            
+            publishSettled(changes);
+            if (cancelled) {
+                DataVersions.ordersChanged();
+                OutboxDispatcher.getInstance().wake();
+            }
+            return changes;
             
         } catch (Exception e) {
             if (transaction != null) {
@@ -154,11 +575,187 @@ public class OrderDAO {
             e.printStackTrace();
             return null;
         } finally {
+            for (FlashSaleStock.Ticket ticket : tickets) {
+                ticket.finish(committed);
+            }
             if (session != null && session.isOpen()) {
                 session.close();
             }
         }
     }
+    
+    // Brings the in-memory stock in line with reservations settled by a committed transaction
+    private static void publishSettled(List<long[]> changes) {
+        for (long[] change : changes) {
+            HibernateUtil.getSessionFactory().getCache().evictEntity(Product.class, change[0]);
+            ReservationIndex.getInstance().addHeld(change[0], (int) change[1]);
+            if (change[2] != 0) {
+                FlashSaleStock.getInstance().add(change[0], (int) change[2]);
+            }
+            if (change[3] != 0) {
+                ReservationIndex.getInstance().addOnHand(change[0], (int) change[3]);
+            }
+            DataVersions.productChanged(change[0]);
+        }
+    }
+    
+    /**
+     * Moves the order's reservations to the target status, applying the
+     * matching change to products.quantity and products.reserved. For products
+     * in flash-sale mode the hold lives in FlashSaleStock rather than in
+     * products.reserved: released units go back to its counter once
+     * committed, and a late confirmation takes its units from there. With
+     * expiredOnly, only holds past their expiry are released.
+     */
+    private static List<long[]> applyReservations(Connection connection, Long orderId, ReservationStatus target,
+            boolean expiredOnly, List<FlashSaleStock.Ticket> tickets) throws SQLException {
+        List<long[]> changes = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        
+        // id, productId, quantity, status ordinal of the rows to settle
+        List<long[]> settled = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id, product_id, quantity, status, expires_at FROM stock_reservations "
+                + "WHERE order_id = ? ORDER BY product_id FOR UPDATE")) {
+            select.setLong(1, orderId);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    ReservationStatus status = ReservationStatus.valueOf(rows.getString(4));
+                    if (status == target) {
+                        continue;
+                    }
+                    if (expiredOnly && (status != ReservationStatus.HELD || rows.getTimestamp(5).getTime() >= now)) {
+                        continue;
+                    }
+                    settled.add(new long[] { rows.getLong(1), rows.getLong(2), rows.getInt(3), status.ordinal() });
+                }
+            }
+        }
+        if (settled.isEmpty()) {
+            return changes;
+        }
+        
+        // Product id order, the same order checkout locks products in; the flag is stable while locked
+        Map<Long, Boolean> flashSale = lockProducts(connection, settled);
+        
+        try (PreparedStatement takeHeld = connection.prepareStatement(
+                        "UPDATE products SET quantity = quantity - ?, reserved = reserved - ? WHERE id = ?");
+                PreparedStatement takeAgain = connection.prepareStatement(
+                        "UPDATE products SET quantity = quantity - ? WHERE id = ? AND quantity - reserved >= ?");
+                PreparedStatement takeStock = connection.prepareStatement(
+                        "UPDATE products SET quantity = quantity - ? WHERE id = ?");
+                PreparedStatement releaseHeld = connection.prepareStatement(
+                        "UPDATE products SET reserved = reserved - ? WHERE id = ?");
+                PreparedStatement restock = connection.prepareStatement(
+                        "UPDATE products SET quantity = quantity + ? WHERE id = ?")) {
+            for (long[] row : settled) {
+                long productId = row[1];
+                int quantity = (int) row[2];
+                ReservationStatus status = ReservationStatus.values()[(int) row[3]];
+                boolean flash = Boolean.TRUE.equals(flashSale.get(productId));
+                
+                if (target == ReservationStatus.CONFIRMED && status == ReservationStatus.HELD) {
+                    if (flash) {
+                        // Already gone from the counter; reserved catches up when FlashSaleStock reconciles
+                        takeStock.setInt(1, quantity);
+                        takeStock.setLong(2, productId);
+                        takeStock.executeUpdate();
+                        changes.add(new long[] { productId, 0, 0, -quantity });
+                    } else {
+                        takeHeld.setInt(1, quantity);
+                        takeHeld.setInt(2, quantity);
+                        takeHeld.setLong(3, productId);
+                        takeHeld.executeUpdate();
+                        changes.add(new long[] { productId, -quantity, 0, -quantity });
+                    }
+                } else if (target == ReservationStatus.CONFIRMED) {
+                    // Paid after the hold had expired
+                    boolean taken;
+                    if (flash) {
+                        FlashSaleStock.Ticket ticket = FlashSaleStock.getInstance().take(productId, quantity);
+                        taken = ticket != null;
+                        if (taken) {
+                            tickets.add(ticket);
+                            takeStock.setInt(1, quantity);
+                            takeStock.setLong(2, productId);
+                            takeStock.executeUpdate();
+                        }
+                    } else {
+                        takeAgain.setInt(1, quantity);
+                        takeAgain.setLong(2, productId);
+                        takeAgain.setInt(3, quantity);
+                        taken = takeAgain.executeUpdate() > 0;
+                    }
+                    if (!taken) {
+                        throw new SQLException("Product " + productId + " no longer has " + quantity
+                                + " units for order " + orderId);
+                    }
+                    changes.add(new long[] { productId, 0, 0, -quantity });
+                } else if (status == ReservationStatus.HELD) {
+                    if (flash) {
+                        changes.add(new long[] { productId, 0, quantity, 0 });
+                    } else {
+                        releaseHeld.setInt(1, quantity);
+                        releaseHeld.setLong(2, productId);
+                        releaseHeld.executeUpdate();
+                        changes.add(new long[] { productId, -quantity, 0, 0 });
+                    }
+                } else {
+                    restock.setInt(1, quantity);
+                    restock.setLong(2, productId);
+                    restock.executeUpdate();
+                    changes.add(new long[] { productId, 0, flash ? quantity : 0, quantity });
+                }
+            }
+        }
+        
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE stock_reservations SET status = ? WHERE id = ?")) {
+            for (long[] row : settled) {
+                update.setString(1, target.name());
+                update.setLong(2, row[0]);
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+        return changes;
+    }
+    
+    // Locks the product rows of the reservations and reads which of them are in flash-sale mode
+    private static Map<Long, Boolean> lockProducts(Connection connection, List<long[]> reservations)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id, flash_sale FROM products WHERE id IN (");
+        for (int i = 0; i < reservations.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY id FOR UPDATE");
+        
+        Map<Long, Boolean> flashSale = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < reservations.size(); i++) {
+                select.setLong(i + 1, reservations.get(i)[1]);
+            }
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    flashSale.put(rows.getLong(1), rows.getBoolean(2));
+                }
+            }
+        }
+        return flashSale;
+    }
+    
+    // Only the rows that were ordered; a line added meanwhile stays in the cart
+    private static void deleteCartLines(Connection connection, Long userId, List<long[]> lines) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM cart_items WHERE user_id = ? AND product_id = ?")) {
+            for (long[] line : lines) {
+                delete.setLong(1, userId);
+                delete.setLong(2, line[0]);
+                delete.addBatch();
+            }
+            delete.executeBatch();
+        }
+    }
 
     //in
      public Long getTotalOrdersCount() {
@@ -184,9 +781,9 @@ public class OrderDAO {
             session = HibernateUtil.getSessionFactory().openSession();
             
             // Using HQL for sum calculation
-            String hql = "SELECT SUM(o.totalAmount) FROM Order o WHERE o.status = 'COMPLETED'";
-            Double total = (Double) session.createQuery(hql).uniqueResult();
-            return total != null ? total : 0.0;
+            String hql = "SELECT SUM(o.totalAmount) FROM Order o WHERE o.status = 'DELIVERED'";
+            BigDecimal total = (BigDecimal) session.createQuery(hql).uniqueResult();
+            return total != null ? total.doubleValue() : 0.0;
         } catch (Exception e) {
             e.printStackTrace();
             return 0.0;
@@ -216,17 +813,17 @@ public class OrderDAO {
             calendar.set(Calendar.MILLISECOND, 999);
             Date todayEnd = calendar.getTime();
             
-            // HQL query for today's completed orders
+            // HQL query for today's delivered orders
             String hql = "SELECT SUM(o.totalAmount) FROM Order o " +
-                        "WHERE o.status = 'COMPLETED' " +
-                        "AND o.createdAt BETWEEN :startDate AND :endDate";
+                        "WHERE o.status = 'DELIVERED' " +
+                        "AND o.orderDate BETWEEN :startDate AND :endDate";
             
-            Double total = (Double) session.createQuery(hql)
+            BigDecimal total = (BigDecimal) session.createQuery(hql)
                     .setParameter("startDate", todayStart)
                     .setParameter("endDate", todayEnd)
                     .uniqueResult();
             
-            return total != null ? total : 0.0;
+            return total != null ? total.doubleValue() : 0.0;
         } catch (Exception e) {
             e.printStackTrace();
             return 0.0;
@@ -257,7 +854,7 @@ public class OrderDAO {
             Date todayEnd = calendar.getTime();
             
             Criteria criteria = session.createCriteria(Order.class);
-            criteria.add(Restrictions.between("createdAt", todayStart, todayEnd));
+            criteria.add(Restrictions.between("orderDate", todayStart, todayEnd));
             criteria.setProjection(Projections.rowCount());
             
             return (Long) criteria.uniqueResult();
@@ -276,11 +873,11 @@ public class OrderDAO {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             
-            String hql = "SELECT o.id as id, o.totalAmount as total, o.createdAt as date, " +
+            String hql = "SELECT o.id as id, o.totalAmount as total, o.orderDate as date, " +
                         "u.username as customerName, o.status as status " +
                         "FROM Order o " +
                         "LEFT JOIN o.user u " +
-                        "ORDER BY o.createdAt DESC";
+                        "ORDER BY o.orderDate DESC";
             
             List<Map<String, Object>> orders = session.createQuery(hql)
                     .setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP)
@@ -298,6 +895,75 @@ public class OrderDAO {
         }
     }
     
+    // Units sold per product id across all orders, used as a popularity signal
+    public Map<Long, Long> getUnitsSoldByProduct() {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            
+            String hql = "SELECT oi.product.id, SUM(oi.quantity) " +
+                        "FROM OrderItem oi " +
+                        "GROUP BY oi.product.id";
+            
+            @SuppressWarnings("unchecked")
+            List<Object[]> results = (List<Object[]>) session.createQuery(hql).list();
+            
+            Map<Long, Long> unitsSold = new HashMap<>();
+            for (Object[] result : results) {
+                unitsSold.put((Long) result[0], ((Number) result[1]).longValue());
+            }
+            
+            return unitsSold;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new HashMap<>();
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    /**
+     * { orderId, productId } for every line of orders with an id above
+     * afterOrderId that were placed before the given time, in order id order.
+     * Cancelled orders are skipped. Used by the co-purchase batch job.
+     */
+    public List<long[]> getOrderLinesAfter(Long afterOrderId, Date placedBefore, int maxLines) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            
+            String hql = "SELECT oi.order.id, oi.product.id " +
+                        "FROM OrderItem oi " +
+                        "WHERE oi.order.id > :afterOrderId " +
+                        "AND oi.order.orderDate < :placedBefore " +
+                        "AND oi.order.status <> :cancelled " +
+                        "ORDER BY oi.order.id";
+            
+            @SuppressWarnings("unchecked")
+            List<Object[]> results = (List<Object[]>) session.createQuery(hql)
+                    .setParameter("afterOrderId", afterOrderId)
+                    .setParameter("placedBefore", placedBefore)
+                    .setParameter("cancelled", OrderStatus.CANCELLED)
+                    .setMaxResults(maxLines)
+                    .list();
+            
+            List<long[]> lines = new ArrayList<>(results.size());
+            for (Object[] result : results) {
+                lines.add(new long[] { (Long) result[0], (Long) result[1] });
+            }
+            return lines;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
     public Map<String, Long> getOrdersByStatus() {
         Session session = null;
         try {
@@ -344,6 +1010,26 @@ public class OrderDAO {
             }
         }
     }
+    
+    // Id of the user who placed the order, without loading it; null when there is no such order
+    public Long getOrderUserId(Long orderId) {
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            
+            Object userId = session.createSQLQuery("SELECT user_id FROM orders WHERE id = :orderId")
+                    .setParameter("orderId", orderId)
+                    .uniqueResult();
+            return userId != null ? ((Number) userId).longValue() : null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
 
     public List<Order> getOrdersByUser(Long userId) {
         Session session = null;
@@ -366,28 +1052,135 @@ public class OrderDAO {
         }
     }
 
+    // True when the order now has the status; see changeStatus for why it may not
     public boolean updateOrderStatus(Long orderId, OrderStatus status) {
+        return changeStatus(orderId, null, status).isSuccess();
+    }
+
+    /**
+     * Moves the order to the target status, if OrderStatus allows the move
+     * from the status the order has now and, when expected is not null, that
+     * status is the expected one. The order is not loaded: its status and
+     * version are read, and the change is a single UPDATE conditional on
+     * both, so a change that lands in between is reported as CONFLICT
+     * instead of being overwritten.
+     *
+     * Stock moves with the status in the same transaction: leaving PENDING
+     * for anything but CANCELLED confirms the order's holds, and cancelling
+     * releases its holds and restocks the units it had taken. Either is
+     * rolled back with the status change.
+     */
+    public StatusChange changeStatus(Long orderId, OrderStatus expected, OrderStatus target) {
+        return applyStatus(orderId, expected, target, false, false);
+    }
+
+    /**
+     * A payment completed: moves the order to PROCESSING like changeStatus,
+     * and also revives an order the expiry sweep cancelled because the
+     * payment came after its holds ran out, taking its released units again
+     * (FAILED when they are gone). Orders cancelled for any other reason stay
+     * cancelled (NOT_ALLOWED). Only the payment inbox calls this.
+     */
+    public StatusChange confirmPayment(Long orderId) {
+        return applyStatus(orderId, null, OrderStatus.PROCESSING, false, true);
+    }
+
+    /**
+     * A cash on delivery order was placed for good: its held units leave
+     * stock while the order stays PENDING, and its version is bumped so that
+     * a status change read before this one conflicts. CONFLICT when the
+     * order is no longer PENDING, in which case nothing is taken; UNCHANGED
+     * when its units were already confirmed.
+     */
+    public StatusChange confirmReservations(Long orderId) {
+        return applyStatus(orderId, OrderStatus.PENDING, OrderStatus.PENDING, true, false);
+    }
+
+    private StatusChange applyStatus(Long orderId, OrderStatus expected, OrderStatus target, boolean confirmInPlace,
+            boolean reviveExpired) {
         Session session = null;
         Transaction transaction = null;
+        final List<FlashSaleStock.Ticket> tickets = new ArrayList<>();
+        boolean committed = false;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             transaction = session.beginTransaction();
             
-            Order order = (Order) session.get(Order.class, orderId);
-            if (order != null) {
-                order.setStatus(status);
-                session.update(order);
-                transaction.commit();
-                return true;
+            Object[] row = (Object[]) session.createSQLQuery(
+                    "SELECT status, version, cancel_reason FROM orders WHERE id = :orderId")
+                    .setParameter("orderId", orderId)
+                    .uniqueResult();
+            StatusChange result;
+            boolean moved = false;
+            List<long[]> changes = Collections.emptyList();
+            if (row == null) {
+                result = StatusChange.NOT_FOUND;
+            } else {
+                OrderStatus current = OrderStatus.valueOf((String) row[0]);
+                int version = ((Number) row[1]).intValue();
+                boolean revive = reviveExpired && current == OrderStatus.CANCELLED
+                        && CancelReason.EXPIRED.name().equals(row[2]);
+                moved = current != target;
+                if (!moved && !confirmInPlace) {
+                    result = StatusChange.UNCHANGED;
+                } else if (expected != null && current != expected) {
+                    result = StatusChange.CONFLICT;
+                } else if (moved && !current.canMoveTo(target) && !revive) {
+                    result = StatusChange.NOT_ALLOWED;
+                } else {
+                    final ReservationStatus settle = target == OrderStatus.CANCELLED ? ReservationStatus.RELEASED
+                            : current == OrderStatus.PENDING || current == OrderStatus.CANCELLED
+                                    ? ReservationStatus.CONFIRMED : null;
+                    if (settle != null) {
+                        // Reservations before the order row, the same lock order as the expiry sweep
+                        changes = session.doReturningWork(
+                                connection -> applyReservations(connection, orderId, settle, false, tickets));
+                    }
+                    if (!moved && changes.isEmpty()) {
+                        result = StatusChange.UNCHANGED;
+                    } else {
+                        int updated = session.createSQLQuery(
+                                "UPDATE orders SET status = :target, cancel_reason = :reason, version = version + 1 "
+                                + "WHERE id = :orderId AND status = :current AND version = :version")
+                                .addSynchronizedEntityClass(Order.class)
+                                .setParameter("target", target.name())
+                                .setParameter("reason", target == OrderStatus.CANCELLED
+                                        ? CancelReason.REQUESTED.name() : null, StringType.INSTANCE)
+                                .setParameter("orderId", orderId)
+                                .setParameter("current", current.name())
+                                .setParameter("version", version)
+                                .executeUpdate();
+                        result = updated > 0 ? StatusChange.APPLIED : StatusChange.CONFLICT;
+                    }
+                }
             }
-            return false;
+            
+            if (result != StatusChange.APPLIED) {
+                transaction.rollback();
+                return result;
+            }
+            if (moved) {
+                session.doWork(connection -> OutboxDAO.append(connection, OrderEvents.STATUS_CHANGED, orderId,
+                        OrderEvents.statusChanged(orderId, target.name())));
+            }
+            transaction.commit();
+            committed = true;
+            publishSettled(changes);
+            DataVersions.ordersChanged();
+            if (moved) {
+                OutboxDispatcher.getInstance().wake();
+            }
+            return result;
         } catch (Exception e) {
             if (transaction != null) {
                 transaction.rollback();
             }
             e.printStackTrace();
-            return false;
+            return StatusChange.FAILED;
         } finally {
+            for (FlashSaleStock.Ticket ticket : tickets) {
+                ticket.finish(committed);
+            }
             if (session != null && session.isOpen()) {
                 session.close();
             }
@@ -404,6 +1197,7 @@ public class OrderDAO {
             session.save(order);
             
             transaction.commit();
+            DataVersions.ordersChanged();
             return order;
         } catch (Exception e) {
             if (transaction != null) {
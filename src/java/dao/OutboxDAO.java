@@ -0,0 +1,177 @@
+package dao;
+
+import hibernate.HibernateUtil;
+import hibernate.OutboxEvent;
+import hibernate.OutboxStatus;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+public class OutboxDAO {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    /**
+     * Adds an event on the caller's connection, so it commits or rolls back
+     * together with the change it describes. The event is due right away.
+     */
+    public static void append(Connection connection, String eventType, Long aggregateId, String payload)
+            throws SQLException {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO outbox_events (event_type, aggregate_id, payload, status, attempts, available_at, created_at) "
+                + "VALUES (?, ?, ?, ?, 0, ?, ?)")) {
+            insert.setString(1, eventType);
+            insert.setLong(2, aggregateId);
+            insert.setString(3, payload);
+            insert.setString(4, OutboxStatus.PENDING.name());
+            insert.setTimestamp(5, now);
+            insert.setTimestamp(6, now);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * Takes up to limit due events, oldest first, and makes them unavailable
+     * until leaseUntil, so nobody else delivers them meanwhile. An event whose
+     * worker dies is delivered again once the lease runs out. Returns null
+     * when the database could not be read.
+     */
+    public List<OutboxEvent> claimDue(int limit, Date leaseUntil) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            List<OutboxEvent> events = session.doReturningWork(connection -> {
+                List<OutboxEvent> due = new ArrayList<>();
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT id, event_type, aggregate_id, payload, attempts FROM outbox_events "
+                        + "WHERE status = ? AND available_at <= ? ORDER BY available_at, id LIMIT ? FOR UPDATE")) {
+                    select.setString(1, OutboxStatus.PENDING.name());
+                    select.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                    select.setInt(3, limit);
+                    try (ResultSet rows = select.executeQuery()) {
+                        while (rows.next()) {
+                            OutboxEvent event = new OutboxEvent();
+                            event.setId(rows.getLong(1));
+                            event.setEventType(rows.getString(2));
+                            event.setAggregateId(rows.getLong(3));
+                            event.setPayload(rows.getString(4));
+                            event.setAttempts(rows.getInt(5));
+                            due.add(event);
+                        }
+                    }
+                }
+                if (!due.isEmpty()) {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE outbox_events SET available_at = ? WHERE id = ?")) {
+                        for (OutboxEvent event : due) {
+                            update.setTimestamp(1, new Timestamp(leaseUntil.getTime()));
+                            update.setLong(2, event.getId());
+                            update.addBatch();
+                        }
+                        update.executeBatch();
+                    }
+                }
+                return due;
+            });
+
+            transaction.commit();
+            return events;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    // Removes delivered events in one batch
+    public boolean delete(Collection<Long> ids) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            session.doWork(connection -> {
+                try (PreparedStatement delete = connection.prepareStatement(
+                        "DELETE FROM outbox_events WHERE id = ?")) {
+                    for (Long id : ids) {
+                        delete.setLong(1, id);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                }
+            });
+
+            transaction.commit();
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Records a failed delivery. The event is tried again at availableAt,
+     * or never again when dead, in which case it stays for inspection.
+     */
+    public boolean reschedule(Long id, int attempts, Date availableAt, String error, boolean dead) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            if (error != null && error.length() > MAX_ERROR_LENGTH) {
+                error = error.substring(0, MAX_ERROR_LENGTH);
+            }
+            session.createSQLQuery("UPDATE outbox_events "
+                    + "SET status = :status, attempts = :attempts, available_at = :availableAt, last_error = :error "
+                    + "WHERE id = :id")
+                    .addSynchronizedQuerySpace("outbox_events")
+                    .setParameter("status", (dead ? OutboxStatus.DEAD : OutboxStatus.PENDING).name())
+                    .setParameter("attempts", attempts)
+                    .setParameter("availableAt", new Timestamp(availableAt.getTime()))
+                    .setString("error", error)
+                    .setParameter("id", id)
+                    .executeUpdate();
+
+            transaction.commit();
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+}
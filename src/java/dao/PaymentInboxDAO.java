@@ -0,0 +1,248 @@
+package dao;
+
+import hibernate.HibernateUtil;
+import hibernate.NotificationStatus;
+import hibernate.PaymentNotification;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+
+public class PaymentInboxDAO {
+
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    /**
+     * Stores a notification, due right away. True when it was stored, false
+     * when the same payment and status code are already there, null when the
+     * database could not be written.
+     */
+    public Boolean append(String paymentId, int statusCode, Long orderId) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            session.createSQLQuery("INSERT INTO payment_notifications "
+                    + "(payment_id, status_code, order_id, status, attempts, available_at, received_at) "
+                    + "VALUES (:paymentId, :statusCode, :orderId, :status, 0, :now, :now)")
+                    .addSynchronizedQuerySpace("payment_notifications")
+                    .setParameter("paymentId", paymentId)
+                    .setParameter("statusCode", statusCode)
+                    .setParameter("orderId", orderId)
+                    .setParameter("status", NotificationStatus.PENDING.name())
+                    .setParameter("now", now)
+                    .executeUpdate();
+            transaction.commit();
+            return true;
+        } catch (ConstraintViolationException e) {
+            // A repeat of a notification we already have
+            transaction.rollback();
+            return false;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Takes up to limit due notifications and makes them unavailable until
+     * leaseUntil. Only the oldest pending notification of each order is
+     * taken, so the notifications of one order are applied one at a time in
+     * the order they arrived, while different orders go in parallel. Returns
+     * null when the database could not be read.
+     */
+    public List<PaymentNotification> claimDue(int limit, Date leaseUntil) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            List<PaymentNotification> notifications = session.doReturningWork(connection -> {
+                List<PaymentNotification> due = new ArrayList<>();
+                try (PreparedStatement select = connection.prepareStatement(
+                        "SELECT n.id, n.payment_id, n.status_code, n.order_id, n.attempts FROM payment_notifications n "
+                        + "WHERE n.status = ? AND n.available_at <= ? AND NOT EXISTS ("
+                        + "SELECT 1 FROM payment_notifications e WHERE e.order_id = n.order_id "
+                        + "AND e.status = ? AND e.id < n.id) "
+                        + "ORDER BY n.id LIMIT ? FOR UPDATE")) {
+                    select.setString(1, NotificationStatus.PENDING.name());
+                    select.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                    select.setString(3, NotificationStatus.PENDING.name());
+                    select.setInt(4, limit);
+                    try (ResultSet rows = select.executeQuery()) {
+                        while (rows.next()) {
+                            PaymentNotification notification = new PaymentNotification();
+                            notification.setId(rows.getLong(1));
+                            notification.setPaymentId(rows.getString(2));
+                            notification.setStatusCode(rows.getInt(3));
+                            notification.setOrderId(rows.getLong(4));
+                            notification.setAttempts(rows.getInt(5));
+                            due.add(notification);
+                        }
+                    }
+                }
+                if (!due.isEmpty()) {
+                    try (PreparedStatement update = connection.prepareStatement(
+                            "UPDATE payment_notifications SET available_at = ? WHERE id = ?")) {
+                        for (PaymentNotification notification : due) {
+                            update.setTimestamp(1, new Timestamp(leaseUntil.getTime()));
+                            update.setLong(2, notification.getId());
+                            update.addBatch();
+                        }
+                        update.executeBatch();
+                    }
+                }
+                return due;
+            });
+
+            transaction.commit();
+            return notifications;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    // Marks applied notifications in one batch; they stay to recognise repeats
+    public boolean markProcessed(Collection<Long> ids) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            session.doWork(connection -> {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE payment_notifications SET status = ? WHERE id = ?")) {
+                    for (Long id : ids) {
+                        update.setString(1, NotificationStatus.PROCESSED.name());
+                        update.setLong(2, id);
+                        update.addBatch();
+                    }
+                    update.executeBatch();
+                }
+            });
+
+            transaction.commit();
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Records a failed attempt. The notification is tried again at
+     * availableAt, or never again when dead, in which case it stays for
+     * inspection and no longer holds up the later notifications of its order.
+     */
+    public boolean reschedule(Long id, int attempts, Date availableAt, String error, boolean dead) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            if (error != null && error.length() > MAX_ERROR_LENGTH) {
+                error = error.substring(0, MAX_ERROR_LENGTH);
+            }
+            session.createSQLQuery("UPDATE payment_notifications "
+                    + "SET status = :status, attempts = :attempts, available_at = :availableAt, last_error = :error "
+                    + "WHERE id = :id")
+                    .addSynchronizedQuerySpace("payment_notifications")
+                    .setParameter("status", (dead ? NotificationStatus.DEAD : NotificationStatus.PENDING).name())
+                    .setParameter("attempts", attempts)
+                    .setParameter("availableAt", new Timestamp(availableAt.getTime()))
+                    .setString("error", error)
+                    .setParameter("id", id)
+                    .executeUpdate();
+
+            transaction.commit();
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes up to limit processed notifications received before the cutoff,
+     * oldest first. Returns the number deleted, or -1 on failure.
+     */
+    public int deleteProcessed(Date cutoff, int limit) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+
+            List<?> rows = session.createSQLQuery("SELECT id FROM payment_notifications "
+                    + "WHERE received_at < :cutoff AND status = :processed ORDER BY received_at LIMIT :limit")
+                    .setParameter("cutoff", new Timestamp(cutoff.getTime()))
+                    .setParameter("processed", NotificationStatus.PROCESSED.name())
+                    .setParameter("limit", limit)
+                    .list();
+            int deleted = 0;
+            if (!rows.isEmpty()) {
+                List<Long> ids = new ArrayList<>(rows.size());
+                for (Object row : rows) {
+                    ids.add(((Number) row).longValue());
+                }
+                deleted = session.createSQLQuery("DELETE FROM payment_notifications WHERE id IN (:ids)")
+                        .addSynchronizedQuerySpace("payment_notifications")
+                        .setParameterList("ids", ids)
+                        .executeUpdate();
+            }
+
+            transaction.commit();
+            return deleted;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return -1;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+}
@@ -10,18 +10,30 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.MatchMode;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Date;
+import org.hibernate.FetchMode;
 import org.hibernate.Transaction;
 import org.hibernate.criterion.Projections;
+import model.ProductDTO;
+import model.ProductPage;
+import util.DataVersions;
 
 public class ProductDAO {
     
+    // Same as hibernate.jdbc.batch_size
+    private static final int IMPORT_BATCH_SIZE = 50;
+    
     public List<Product> getAllProducts() {
+        return getAllProducts(ProductSort.NEWEST);
+    }
+    
+    public List<Product> getAllProducts(ProductSort sort) {
     Session session = null;
     try {
         session = HibernateUtil.getSessionFactory().openSession();
         
         // Use HQL with JOIN FETCH to load categories eagerly
-        String hql = "FROM Product p LEFT JOIN FETCH p.category ORDER BY p.createdAt DESC";
+        String hql = "FROM Product p LEFT JOIN FETCH p.category ORDER BY " + orderByClause("p", sort);
         List<Product> products = session.createQuery(hql).list();
         
         return products;
@@ -58,14 +70,20 @@ public Product getProductById(Long id) {
     }
 }
     
-    // METHOD 1: Using direct foreign key (if no JPA relationship)
     public List<Product> getProductsByCategory(Long categoryId) {
+        return getProductsByCategory(categoryId, ProductSort.NEWEST);
+    }
+    
+    // METHOD 1: Using direct foreign key (if no JPA relationship)
+    public List<Product> getProductsByCategory(Long categoryId, ProductSort sort) {
         Session session = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Product.class);
             criteria.add(Restrictions.eq("category.id", categoryId));
-            criteria.addOrder(Order.desc("createdAt"));
+            addSortOrder(criteria, sort);
+            criteria.setCacheable(true);
+            criteria.setCacheRegion("query.productsByCategory");
             return criteria.list();
         } catch (Exception e) {
             e.printStackTrace();
@@ -77,14 +95,20 @@ public Product getProductById(Long id) {
         }
     }
     
-    // METHOD 2: Alternative using HQL (if Criteria doesn't work)
     public List<Product> getProductsByCategoryHQL(Long categoryId) {
+        return getProductsByCategoryHQL(categoryId, ProductSort.NEWEST);
+    }
+    
+    // METHOD 2: Alternative using HQL (if Criteria doesn't work)
+    public List<Product> getProductsByCategoryHQL(Long categoryId, ProductSort sort) {
         Session session = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
-            String hql = "FROM Product p WHERE p.category.id = :categoryId ORDER BY p.createdAt DESC";
+            String hql = "FROM Product p WHERE p.category.id = :categoryId ORDER BY " + orderByClause("p", sort);
             return session.createQuery(hql)
                          .setParameter("categoryId", categoryId)
+                         .setCacheable(true)
+                         .setCacheRegion("query.productsByCategory")
                          .list();
         } catch (Exception e) {
             e.printStackTrace();
@@ -96,12 +120,17 @@ public Product getProductById(Long id) {
         }
     }
     
-    // METHOD 3: Using native SQL query (most reliable)
     public List<Product> getProductsByCategorySQL(Long categoryId) {
+        return getProductsByCategorySQL(categoryId, ProductSort.NEWEST);
+    }
+    
+    // METHOD 3: Using native SQL query (most reliable)
+    public List<Product> getProductsByCategorySQL(Long categoryId, ProductSort sort) {
         Session session = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
-            String sql = "SELECT * FROM products WHERE category_id = :categoryId ORDER BY created_at DESC";
+            // Sort properties map 1:1 onto column names of the products table
+            String sql = "SELECT * FROM products WHERE category_id = :categoryId ORDER BY " + orderByClause(null, sort);
             return session.createSQLQuery(sql)
                          .addEntity(Product.class)
                          .setParameter("categoryId", categoryId)
@@ -117,6 +146,10 @@ public Product getProductById(Long id) {
     }
     
     public List<Product> searchProducts(String query) {
+        return searchProducts(query, ProductSort.NEWEST);
+    }
+    
+    public List<Product> searchProducts(String query, ProductSort sort) {
         Session session = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
@@ -125,7 +158,7 @@ public Product getProductById(Long id) {
                 Restrictions.ilike("name", query, MatchMode.ANYWHERE),
                 Restrictions.ilike("description", query, MatchMode.ANYWHERE)
             ));
-            criteria.addOrder(Order.desc("createdAt"));
+            addSortOrder(criteria, sort);
             return criteria.list();
         } catch (Exception e) {
             e.printStackTrace();
@@ -137,28 +170,108 @@ public Product getProductById(Long id) {
         }
     }
     
-    public List<Product> sortProducts(List<Product> products, String sortBy) {
-        if (products == null) return new ArrayList<>();
-        
-        List<Product> sortedProducts = new ArrayList<>(products);
+    /**
+     * Keyset-paginated listing ordered by the given sort key with id as tie-breaker.
+     * Pass the nextCursor of the previous page to continue; page is only used
+     * when no cursor is given and falls back to an offset on the same ordering.
+     * totalCount is a hint and is only computed for the first request of a listing.
+     */
+    public ProductPage getProductsPage(Long categoryId, String search, ProductSort sort,
+            String cursor, Integer page, int size) {
+        Object[] keyset = cursor != null && !cursor.isEmpty() ? sort.parseCursor(cursor) : null;
         
-        switch (sortBy) {
-            case "price_low":
-                sortedProducts.sort((p1, p2) -> p1.getPrice().compareTo(p2.getPrice()));
-                break;
-            case "price_high":
-                sortedProducts.sort((p1, p2) -> p2.getPrice().compareTo(p1.getPrice()));
-                break;
-            case "name":
-                sortedProducts.sort((p1, p2) -> p1.getName().compareToIgnoreCase(p2.getName()));
-                break;
-            case "newest":
-            default:
-                // Already sorted by newest by default
-                break;
+        Session session = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            
+            Long totalCount = null;
+            if (keyset == null) {
+                Criteria countCriteria = session.createCriteria(Product.class);
+                addListingFilters(countCriteria, categoryId, search);
+                countCriteria.setProjection(Projections.rowCount());
+                totalCount = (Long) countCriteria.uniqueResult();
+            }
+            
+            Criteria criteria = session.createCriteria(Product.class);
+            criteria.setFetchMode("category", FetchMode.JOIN);
+            addListingFilters(criteria, categoryId, search);
+            
+            if (keyset != null) {
+                String property = sort.getProperty();
+                Object value = keyset[0];
+                Long id = (Long) keyset[1];
+                if (sort.isAscending()) {
+                    criteria.add(Restrictions.or(
+                        Restrictions.gt(property, value),
+                        Restrictions.and(Restrictions.eq(property, value), Restrictions.gt("id", id))
+                    ));
+                } else {
+                    criteria.add(Restrictions.or(
+                        Restrictions.lt(property, value),
+                        Restrictions.and(Restrictions.eq(property, value), Restrictions.lt("id", id))
+                    ));
+                }
+            } else if (page != null && page > 1) {
+                criteria.setFirstResult((page - 1) * size);
+            }
+            
+            addSortOrder(criteria, sort);
+            // Fetch one extra row to know whether another page exists
+            criteria.setMaxResults(size + 1);
+            
+            @SuppressWarnings("unchecked")
+            List<Product> products = criteria.list();
+            
+            String nextCursor = null;
+            if (products.size() > size) {
+                products = products.subList(0, size);
+                Product last = products.get(size - 1);
+                nextCursor = sort.cursor(last.getId(), last.getPrice(), last.getName(), last.getCreatedAt());
+            }
+            
+            // Convert while the session is open so the category is available
+            List<ProductDTO> items = new ArrayList<>();
+            for (Product product : products) {
+                items.add(new ProductDTO(product));
+            }
+            
+            return new ProductPage(items, nextCursor, totalCount, size);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ProductPage(new ArrayList<ProductDTO>(), null, 0L, size);
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
         }
-        
-        return sortedProducts;
+    }
+    
+    private void addListingFilters(Criteria criteria, Long categoryId, String search) {
+        if (categoryId != null) {
+            criteria.add(Restrictions.eq("category.id", categoryId));
+        }
+        if (search != null && !search.isEmpty()) {
+            criteria.add(Restrictions.or(
+                Restrictions.ilike("name", search, MatchMode.ANYWHERE),
+                Restrictions.ilike("description", search, MatchMode.ANYWHERE)
+            ));
+        }
+    }
+    
+    // id is always the tie-breaker so every ordering is total and seekable
+    private void addSortOrder(Criteria criteria, ProductSort sort) {
+        if (sort.isAscending()) {
+            criteria.addOrder(Order.asc(sort.getProperty()));
+            criteria.addOrder(Order.asc("id"));
+        } else {
+            criteria.addOrder(Order.desc(sort.getProperty()));
+            criteria.addOrder(Order.desc("id"));
+        }
+    }
+    
+    private String orderByClause(String alias, ProductSort sort) {
+        String prefix = alias != null ? alias + "." : "";
+        return prefix + sort.getProperty() + " " + sort.getDirection() + ", " + prefix + "id " + sort.getDirection();
     }
     
     public List<Product> getLowStockProducts(int threshold) {
@@ -166,8 +279,8 @@ public Product getProductById(Long id) {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Product.class);
-            criteria.add(Restrictions.le("quantity", threshold));
-            criteria.addOrder(Order.asc("quantity"));
+            criteria.add(Restrictions.le("Quantity", threshold));
+            criteria.addOrder(Order.asc("Quantity"));
             return criteria.list();
         } catch (Exception e) {
             e.printStackTrace();
@@ -184,7 +297,7 @@ public Product getProductById(Long id) {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Product.class);
-            criteria.add(Restrictions.eq("quantity", 0));
+            criteria.add(Restrictions.eq("Quantity", 0));
             criteria.setProjection(Projections.rowCount());
             return (Long) criteria.uniqueResult();
         } catch (Exception e) {
@@ -202,8 +315,8 @@ public Product getProductById(Long id) {
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Product.class);
-            criteria.add(Restrictions.le("quantity", threshold));
-            criteria.add(Restrictions.gt("quantity", 0));
+            criteria.add(Restrictions.le("Quantity", threshold));
+            criteria.add(Restrictions.gt("Quantity", 0));
             criteria.setProjection(Projections.rowCount());
             return (Long) criteria.uniqueResult();
         } catch (Exception e) {
@@ -224,6 +337,42 @@ public Product getProductById(Long id) {
             transaction = session.beginTransaction();
             session.saveOrUpdate(product);
             transaction.commit();
+            DataVersions.productChanged(product.getId());
+            return true;
+        } catch (Exception e) {
+            if (transaction != null) {
+                transaction.rollback();
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (session != null && session.isOpen()) {
+                session.close();
+            }
+        }
+    }
+    
+    /**
+     * Inserts many new products in one transaction, for bulk imports. The
+     * session is flushed and cleared every IMPORT_BATCH_SIZE products, so the
+     * inserts go out as JDBC batches and the session stays small. Callers
+     * reload the catalog snapshot and search indexes afterwards.
+     */
+    public boolean saveProducts(List<Product> products) {
+        Session session = null;
+        Transaction transaction = null;
+        try {
+            session = HibernateUtil.getSessionFactory().openSession();
+            transaction = session.beginTransaction();
+            for (int i = 0; i < products.size(); i++) {
+                session.save(products.get(i));
+                if ((i + 1) % IMPORT_BATCH_SIZE == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            transaction.commit();
+            DataVersions.catalogChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -251,6 +400,7 @@ public Product getProductById(Long id) {
             }
             
             transaction.commit();
+            DataVersions.productChanged(productId);
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -273,6 +423,7 @@ public Product getProductById(Long id) {
             transaction = session.beginTransaction();
             session.update(product);
             transaction.commit();
+            DataVersions.productChanged(product.getId());
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -288,16 +439,23 @@ public Product getProductById(Long id) {
     }
     
     public List<Product> getRelatedProducts(Product product) {
+        return getRelatedProducts(product.getId(),
+                product.getCategory() != null ? product.getCategory().getId() : null);
+    }
+    
+    // Newest products of the same category; the fallback for products nobody has bought yet
+    public List<Product> getRelatedProducts(Long productId, Long categoryId) {
         Session session = null;
         try {
             session = HibernateUtil.getSessionFactory().openSession();
             Criteria criteria = session.createCriteria(Product.class);
+            criteria.setFetchMode("category", FetchMode.JOIN);
             
-            if (product.getCategory() != null) {
-                criteria.add(Restrictions.eq("category.id", product.getCategory().getId()));
+            if (categoryId != null) {
+                criteria.add(Restrictions.eq("category.id", categoryId));
             }
             
-            criteria.add(Restrictions.ne("id", product.getId()));
+            criteria.add(Restrictions.ne("id", productId));
             criteria.setMaxResults(4);
             criteria.addOrder(Order.desc("createdAt"));
             return criteria.list();
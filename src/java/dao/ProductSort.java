@@ -0,0 +1,95 @@
+package dao;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+public enum ProductSort {
+    NEWEST("newest", "createdAt", false),
+    PRICE_LOW("price_low", "price", true),
+    PRICE_HIGH("price_high", "price", false),
+    NAME("name", "name", true);
+
+    private final String param;
+    private final String property;
+    private final boolean ascending;
+
+    ProductSort(String param, String property, boolean ascending) {
+        this.param = param;
+        this.property = property;
+        this.ascending = ascending;
+    }
+
+    public String getParam() { return param; }
+
+    // Entity property, which is also the column name on the products table
+    public String getProperty() { return property; }
+
+    public boolean isAscending() { return ascending; }
+
+    public String getDirection() {
+        return ascending ? "ASC" : "DESC";
+    }
+
+    // Opaque keyset cursor pointing just after the given row
+    public String cursor(Long id, BigDecimal price, String name, Date createdAt) {
+        String value;
+        switch (this) {
+            case PRICE_LOW:
+            case PRICE_HIGH:
+                value = price.toPlainString();
+                break;
+            case NAME:
+                value = name;
+                break;
+            case NEWEST:
+            default:
+                value = String.valueOf(createdAt.getTime());
+                break;
+        }
+        String raw = param + ":" + id + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns { sort key value, id }; the value is a Date, BigDecimal or String
+    public Object[] parseCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 3);
+            if (!param.equals(parts[0])) {
+                throw new IllegalArgumentException("Cursor does not match sort " + param);
+            }
+            Long id = Long.parseLong(parts[1]);
+            Object value;
+            switch (this) {
+                case PRICE_LOW:
+                case PRICE_HIGH:
+                    value = new BigDecimal(parts[2]);
+                    break;
+                case NAME:
+                    value = parts[2];
+                    break;
+                case NEWEST:
+                default:
+                    value = new Date(Long.parseLong(parts[2]));
+                    break;
+            }
+            return new Object[] { value, id };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    // Maps the ?sort= request value, defaulting to newest first
+    public static ProductSort fromParam(String param) {
+        if (param != null) {
+            for (ProductSort sort : values()) {
+                if (sort.param.equals(param)) {
+                    return sort;
+                }
+            }
+        }
+        return NEWEST;
+    }
+}
@@ -0,0 +1,19 @@
+package dao;
+
+// Outcome of OrderDAO.changeStatus
+public enum StatusChange {
+    // The order moved to the new status
+    APPLIED,
+    // The order already had the new status; nothing was written
+    UNCHANGED,
+    NOT_FOUND,
+    // OrderStatus does not allow the move from the order's current status
+    NOT_ALLOWED,
+    // The order was not in the expected status, or changed between the read and the update
+    CONFLICT,
+    FAILED;
+
+    public boolean isSuccess() {
+        return this == APPLIED || this == UNCHANGED;
+    }
+}
@@ -13,6 +13,7 @@ import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.criterion.Projections;
+import util.DataVersions;
 
 public class UserDAO {
 
@@ -96,6 +97,7 @@ public class UserDAO {
             transaction = session.beginTransaction();
             session.save(user);
             transaction.commit();
+            DataVersions.usersChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -118,6 +120,7 @@ public class UserDAO {
             transaction = session.beginTransaction();
             session.update(user);
             transaction.commit();
+            DataVersions.usersChanged();
             return true;
         } catch (Exception e) {
             if (transaction != null) {
@@ -0,0 +1,9 @@
+package hibernate;
+
+// Why an order was cancelled; see Order.cancelReason
+public enum CancelReason {
+    // The expiry sweep released its holds before any payment arrived
+    EXPIRED,
+    // A status change: an admin, the customer or a failed payment
+    REQUESTED
+}
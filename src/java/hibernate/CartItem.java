@@ -5,8 +5,14 @@ import javax.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "cart_items")
+@Table(name = "cart_items", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_cart_items_user_product", columnNames = {"user_id", "product_id"})
+}, indexes = {
+    @Index(name = "idx_cart_items_added_id", columnList = "added_date, id")
+})
 public class CartItem implements Serializable{
+    // AUTO_INCREMENT: rows are only written by CartDAO's JDBC upserts, which batch anyway
+    // and would use up a pooled id on every update of an existing line
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -15,6 +21,7 @@ public class CartItem implements Serializable{
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
     
+    // Resolved through the Product second-level cache region
     @ManyToOne(fetch = FetchType.EAGER)
     @JoinColumn(name = "product_id", nullable = false)
     private Product product;
@@ -9,7 +9,16 @@ public class HibernateUtil {
     static {
         try {
             // Create the SessionFactory from hibernate.cfg.xml
-            sessionFactory = new Configuration().configure().buildSessionFactory();
+            Configuration configuration = new Configuration().configure();
+            
+            // -Dhibernate.* system properties win over the file, e.g. to point
+            // the benchmarks at an embedded database
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("hibernate.")) {
+                    configuration.setProperty(name, System.getProperty(name));
+                }
+            }
+            sessionFactory = configuration.buildSessionFactory();
         } catch (Throwable ex) {
             // Log the exception
             System.err.println("Initial SessionFactory creation failed: " + ex);
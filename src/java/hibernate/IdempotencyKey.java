@@ -0,0 +1,79 @@
+package hibernate;
+
+import java.io.Serializable;
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A request that must not run twice, keyed by scope and client key, with the
+ * response it produced. Read and written by IdempotencyDAO with plain SQL.
+ */
+@Entity
+@Table(name = "idempotency_keys", indexes = {
+    @Index(name = "idx_idempotency_keys_expires", columnList = "expires_at")
+})
+public class IdempotencyKey implements Serializable {
+    @Id
+    @Column(name = "request_key", length = 160)
+    private String requestKey;
+    
+    // IN_PROGRESS while the first request runs, then COMPLETED
+    @Column(name = "status", nullable = false, length = 16)
+    private String status;
+    
+    @Column(name = "response", columnDefinition = "TEXT")
+    private String response;
+    
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_at", nullable = false)
+    private Date createdAt;
+    
+    // End of the lease while in progress, end of the replay window once completed
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "expires_at", nullable = false)
+    private Date expiresAt;
+    
+    // Constructors
+    public IdempotencyKey() { }
+    
+    // Getters and Setters
+    public String getRequestKey() {
+        return requestKey;
+    }
+    
+    public void setRequestKey(String requestKey) {
+        this.requestKey = requestKey;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public String getResponse() {
+        return response;
+    }
+    
+    public void setResponse(String response) {
+        this.response = response;
+    }
+    
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(Date expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
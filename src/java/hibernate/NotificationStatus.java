@@ -0,0 +1,7 @@
+package hibernate;
+
+public enum NotificationStatus {
+    PENDING,
+    PROCESSED,
+    DEAD
+}
@@ -11,7 +11,7 @@ import java.util.List;
 @Table(name = "orders")
 public class Order implements Serializable{
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "pooled-lo")
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -29,6 +29,16 @@ public class Order implements Serializable{
     @Column(name = "status", nullable = false)
     private OrderStatus status = OrderStatus.PENDING;
     
+    // Bumped by every status change; see OrderDAO.changeStatus
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int version;
+    
+    // Set when the order is cancelled; only EXPIRED orders can be revived by a late payment
+    @Enumerated(EnumType.STRING)
+    @Column(name = "cancel_reason", length = 16)
+    private CancelReason cancelReason;
+    
     @Column(name = "shipping_address", columnDefinition = "TEXT")
     private String shippingAddress;
     
@@ -88,6 +98,22 @@ public class Order implements Serializable{
         this.status = status;
     }
     
+    public int getVersion() {
+        return version;
+    }
+    
+    public void setVersion(int version) {
+        this.version = version;
+    }
+    
+    public CancelReason getCancelReason() {
+        return cancelReason;
+    }
+    
+    public void setCancelReason(CancelReason cancelReason) {
+        this.cancelReason = cancelReason;
+    }
+    
     public String getShippingAddress() {
         return shippingAddress;
     }
@@ -139,11 +165,3 @@ public class Order implements Serializable{
                 '}';
     }
 }
-
-enum OrderStatus {
-    PENDING,
-    PROCESSING,
-    SHIPPED,
-    DELIVERED,
-    CANCELLED
-}
@@ -7,7 +7,7 @@ import java.math.BigDecimal;
 @Table(name = "order_items")
 public class OrderItem {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "pooled-lo")
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
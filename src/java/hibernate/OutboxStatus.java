@@ -0,0 +1,6 @@
+package hibernate;
+
+public enum OutboxStatus {
+    PENDING,
+    DEAD
+}
@@ -0,0 +1,131 @@
+package hibernate;
+
+import java.io.Serializable;
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A payment notification from PayHere, stored as it arrives and applied to
+ * its order later by inbox.PaymentInbox. Only the fields the order needs are
+ * kept. A notification is identified by its payment and status code, so
+ * when PayHere repeats one the insert fails and nothing is applied twice;
+ * processed rows stay until the retention window has passed for that reason.
+ */
+@Entity
+@Table(name = "payment_notifications", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_payment_notifications_payment_status", columnNames = { "payment_id", "status_code" })
+}, indexes = {
+    @Index(name = "idx_payment_notifications_status_available", columnList = "status, available_at"),
+    @Index(name = "idx_payment_notifications_order", columnList = "order_id, status, id"),
+    @Index(name = "idx_payment_notifications_received", columnList = "received_at")
+})
+public class PaymentNotification implements Serializable {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "payment_id", nullable = false, length = 64)
+    private String paymentId;
+    
+    @Column(name = "status_code", nullable = false)
+    private Integer statusCode;
+    
+    // No foreign key: a notification for an unknown order is still acknowledged and then fails on its own
+    @Column(name = "order_id", nullable = false)
+    private Long orderId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private NotificationStatus status = NotificationStatus.PENDING;
+    
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+    
+    // Not processed before this; pushed forward while a worker has the notification and after a failure
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "available_at", nullable = false)
+    private Date availableAt;
+    
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "received_at", nullable = false)
+    private Date receivedAt;
+    
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+    
+    // Constructors
+    public PaymentNotification() { }
+    
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public String getPaymentId() {
+        return paymentId;
+    }
+    
+    public void setPaymentId(String paymentId) {
+        this.paymentId = paymentId;
+    }
+    
+    public Integer getStatusCode() {
+        return statusCode;
+    }
+    
+    public void setStatusCode(Integer statusCode) {
+        this.statusCode = statusCode;
+    }
+    
+    public Long getOrderId() {
+        return orderId;
+    }
+    
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+    
+    public NotificationStatus getStatus() {
+        return status;
+    }
+    
+    public void setStatus(NotificationStatus status) {
+        this.status = status;
+    }
+    
+    public Integer getAttempts() {
+        return attempts;
+    }
+    
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+    
+    public Date getAvailableAt() {
+        return availableAt;
+    }
+    
+    public void setAvailableAt(Date availableAt) {
+        this.availableAt = availableAt;
+    }
+    
+    public Date getReceivedAt() {
+        return receivedAt;
+    }
+    
+    public void setReceivedAt(Date receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+    
+    public String getLastError() {
+        return lastError;
+    }
+    
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
@@ -0,0 +1,171 @@
+package hibernate;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.type.Type;
+
+/**
+ * Table-backed "pooled-lo" ids. Every entity table has a row in id_generators
+ * holding its next unallocated id; a server takes a block of increment_size
+ * ids by moving that value forward and hands them out from memory. An insert
+ * then no longer has to run on save() to learn its id, so Hibernate can hold
+ * it for the flush and send it in a JDBC batch. Ids left in a block when the
+ * server stops are skipped.
+ *
+ * Blocks are taken on one connection kept for that purpose. Taking them on a
+ * pooled connection can deadlock once the pool is exhausted: every pooled
+ * connection is held by a transaction waiting for the next block, and the
+ * thread taking it waits for a connection.
+ *
+ * A table's row is created from MAX(id) + 1 when its first id is needed, which
+ * is the migration from AUTO_INCREMENT: existing rows keep their ids and new
+ * rows continue after them.
+ */
+public class PooledLoGenerator implements PersistentIdentifierGenerator, Configurable {
+
+    public static final String TABLE_NAME = "id_generators";
+    private static final int DEFAULT_INCREMENT_SIZE = 100;
+
+    // Dedicated connection for taking blocks, shared by every generator
+    private static final Object ALLOCATION_LOCK = new Object();
+    private static Connection connection;
+
+    private String segment;
+    private String idColumn;
+    private int incrementSize;
+
+    // Next id to hand out and the end of the current block, guarded by this
+    private long next;
+    private long limit;
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        segment = params.getProperty(TABLE);
+        idColumn = params.getProperty(PK);
+        incrementSize = ConfigurationHelper.getInt("increment_size", params, DEFAULT_INCREMENT_SIZE);
+        if (incrementSize < 1) {
+            throw new MappingException("increment_size must be positive for " + segment);
+        }
+    }
+
+    @Override
+    public synchronized Serializable generate(SessionImplementor session, Object object) throws HibernateException {
+        if (next >= limit) {
+            next = allocate(session);
+            limit = next + incrementSize;
+        }
+        return next++;
+    }
+
+    // First id of a new block of incrementSize ids
+    private long allocate(SessionImplementor session) {
+        synchronized (ALLOCATION_LOCK) {
+            try {
+                return allocateOnce(session);
+            } catch (SQLException first) {
+                // The connection may have timed out, or another server created the row first
+                closeConnection();
+                try {
+                    return allocateOnce(session);
+                } catch (SQLException e) {
+                    closeConnection();
+                    throw new HibernateException("Could not allocate ids for " + segment, e);
+                }
+            }
+        }
+    }
+
+    private long allocateOnce(SessionImplementor session) throws SQLException {
+        if (connection == null) {
+            connection = session.getFactory().getServiceRegistry().getService(ConnectionProvider.class)
+                    .getConnection();
+            connection.setAutoCommit(false);
+        }
+        try {
+            Long value = null;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT next_val FROM " + TABLE_NAME + " WHERE segment_name = ? FOR UPDATE")) {
+                select.setString(1, segment);
+                try (ResultSet rows = select.executeQuery()) {
+                    if (rows.next()) {
+                        value = rows.getLong(1);
+                    }
+                }
+            }
+
+            if (value == null) {
+                try (PreparedStatement max = connection.prepareStatement(
+                        "SELECT COALESCE(MAX(" + idColumn + "), 0) + 1 FROM " + segment);
+                        ResultSet rows = max.executeQuery()) {
+                    rows.next();
+                    value = rows.getLong(1);
+                }
+                try (PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO " + TABLE_NAME + " (segment_name, next_val) VALUES (?, ?)")) {
+                    insert.setString(1, segment);
+                    insert.setLong(2, value + incrementSize);
+                    insert.executeUpdate();
+                }
+            } else {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE " + TABLE_NAME + " SET next_val = ? WHERE segment_name = ?")) {
+                    update.setLong(1, value + incrementSize);
+                    update.setString(2, segment);
+                    update.executeUpdate();
+                }
+            }
+
+            connection.commit();
+            return value;
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // closed by the caller anyway
+            }
+            throw e;
+        }
+    }
+
+    private static void closeConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // already broken
+            }
+            connection = null;
+        }
+    }
+
+    @Override
+    public String[] sqlCreateStrings(Dialect dialect) throws HibernateException {
+        return new String[] {
+            dialect.getCreateTableString() + " " + TABLE_NAME + " (segment_name varchar(64) not null, "
+                    + "next_val bigint not null, primary key (segment_name))"
+        };
+    }
+
+    @Override
+    public String[] sqlDropStrings(Dialect dialect) throws HibernateException {
+        return new String[] { dialect.getDropTableString(TABLE_NAME) };
+    }
+
+    // The same for every generator, so the table is created once
+    @Override
+    public Object generatorKey() {
+        return TABLE_NAME;
+    }
+}
@@ -2,16 +2,26 @@ package hibernate;
 
 import java.io.Serializable;
 import javax.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 @Entity
-@Table(name = "products")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "products", indexes = {
+    @Index(name = "idx_products_created_id", columnList = "createdAt, id"),
+    @Index(name = "idx_products_category_created", columnList = "category_id, createdAt, id"),
+    @Index(name = "idx_products_price_id", columnList = "price, id"),
+    @Index(name = "idx_products_name_id", columnList = "name, id"),
+    @Index(name = "idx_products_category_price", columnList = "category_id, price, id"),
+    @Index(name = "idx_products_category_name", columnList = "category_id, name, id")
+})
 public class Product implements Serializable {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "pooled-lo")
     private Long id;
     
     @Column(name = "name", nullable = false)
@@ -26,6 +36,16 @@ public class Product implements Serializable {
     @Column(name = "quantity", nullable = false)
     private int Quantity;
     
+    // Units held by orders awaiting payment; only OrderDAO's reservation statements change it
+    @Column(name = "reserved", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int reserved;
+    
+    // Sold from FlashSaleStock's in-memory counter; only OrderDAO's flash-sale statements change it
+    @Column(name = "flash_sale", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "BOOLEAN NOT NULL DEFAULT FALSE")
+    private boolean flashSale;
+    
     @Column(name = "image_url")
     private String imageUrl;
     
@@ -98,6 +118,19 @@ public class Product implements Serializable {
         this.Quantity = Quantity;
     }
     
+    public int getReserved() {
+        return reserved;
+    }
+    
+    public boolean isFlashSale() {
+        return flashSale;
+    }
+    
+    // On-hand units that are not held for an unpaid order
+    public int getAvailable() {
+        return Math.max(0, Quantity - reserved);
+    }
+    
     public String getImageUrl() {
         return imageUrl;
     }
@@ -140,11 +173,11 @@ public class Product implements Serializable {
     
     // Business methods
     public boolean isInStock() {
-        return Quantity > 0;
+        return getAvailable() > 0;
     }
     
     public boolean hasSufficientStock(Integer requestedQuantity) {
-        return Quantity >= requestedQuantity;
+        return getAvailable() >= requestedQuantity;
     }
     
     public void decreaseStock(Integer quantity) {
@@ -0,0 +1,7 @@
+package hibernate;
+
+public enum ReservationStatus {
+    HELD,
+    CONFIRMED,
+    RELEASED
+}
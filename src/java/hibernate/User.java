@@ -8,7 +8,7 @@ import java.util.Date;
 @Table(name = "users")
 public class User implements Serializable{
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "pooled-lo")
     private Long id;
     
     @Column(unique = true, nullable = false)
@@ -0,0 +1,9 @@
+/**
+ * Entities and their id generator. Entities written through Hibernate sessions
+ * use the "pooled-lo" generator so their inserts can be batched; tables that are
+ * only written with hand-made JDBC batches keep AUTO_INCREMENT ids.
+ */
+@GenericGenerator(name = "pooled-lo", strategy = "hibernate.PooledLoGenerator")
+package hibernate;
+
+import org.hibernate.annotations.GenericGenerator;
@@ -0,0 +1,163 @@
+package idempotency;
+
+import dao.IdempotencyDAO;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the response of requests that must run at most once, such as
+ * order creation, so a retry with the same key gets the original response
+ * instead of running again. Keys are claimed in the idempotency_keys table,
+ * which makes them hold across restarts and servers; completed responses are
+ * also kept in memory, at most MAX_ENTRIES, least recently used go first, so
+ * most replays never reach the database.
+ *
+ * A claim is held for LEASE_MINUTES at most; a request that dies without
+ * completing or releasing its key stops blocking retries after that.
+ * Completed keys are forgotten after TTL_HOURS.
+ */
+public class IdempotencyStore {
+
+    private static final IdempotencyStore INSTANCE = new IdempotencyStore(new IdempotencyDAO());
+
+    // All can be set with -D on the server command line
+    public static final long TTL_HOURS = Long.getLong("idempotency.ttlHours", 24L);
+    public static final long PURGE_MINUTES = Long.getLong("idempotency.purgeMinutes", 30L);
+    private static final long LEASE_MINUTES = 5L;
+    private static final int MAX_ENTRIES = Integer.getInteger("idempotency.maxEntries", 10000);
+    private static final int KEYS_PER_BATCH = 500;
+
+    public static final int MAX_KEY_LENGTH = 100;
+
+    private final IdempotencyDAO idempotencyDAO;
+
+    // scope:key -> completed response, least recently used first; both guarded by this
+    private final LinkedHashMap<String, Completed> completed = new LinkedHashMap<String, Completed>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Completed> eldest) {
+            return size() > MAX_ENTRIES || eldest.getValue().expiresAt < System.currentTimeMillis();
+        }
+    };
+    // Keys claimed by requests still running on this server
+    private final Set<String> running = new HashSet<>();
+
+    private IdempotencyStore(IdempotencyDAO idempotencyDAO) {
+        this.idempotencyDAO = idempotencyDAO;
+    }
+
+    public static IdempotencyStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Claims the key for a request about to run. The caller runs the request
+     * only when the claim is owned, and then must complete or release it.
+     * A replay carries the stored response; busy means the first request with
+     * this key has not finished yet, or the key could not be checked.
+     */
+    public Claim begin(String scope, String key) {
+        String requestKey = scope + ":" + key;
+        synchronized (this) {
+            Completed entry = completed.get(requestKey);
+            if (entry != null && entry.expiresAt >= System.currentTimeMillis()) {
+                return Claim.replay(requestKey, entry.response);
+            }
+            if (!running.add(requestKey)) {
+                return Claim.busy(requestKey);
+            }
+        }
+
+        Date leaseUntil = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LEASE_MINUTES));
+        Boolean claimed = idempotencyDAO.claim(requestKey, leaseUntil);
+        if (Boolean.TRUE.equals(claimed)) {
+            return Claim.owned(requestKey);
+        }
+
+        synchronized (this) {
+            running.remove(requestKey);
+        }
+        if (claimed == null) {
+            return Claim.busy(requestKey);
+        }
+        // Taken by another server or an earlier run of this one
+        String response = idempotencyDAO.findResponse(requestKey);
+        return response != null ? Claim.replay(requestKey, response) : Claim.busy(requestKey);
+    }
+
+    // Stores the response of an owned claim so retries replay it
+    public void complete(Claim claim, String response) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(TTL_HOURS);
+        if (!idempotencyDAO.complete(claim.requestKey, response, new Date(expiresAt))) {
+            System.err.println("Could not store the response for " + claim.requestKey);
+        }
+        synchronized (this) {
+            running.remove(claim.requestKey);
+            completed.put(claim.requestKey, new Completed(response, expiresAt));
+        }
+    }
+
+    // Gives up an owned claim whose request failed, so a retry runs it again
+    public void release(Claim claim) {
+        idempotencyDAO.release(claim.requestKey);
+        synchronized (this) {
+            running.remove(claim.requestKey);
+        }
+    }
+
+    /**
+     * Deletes expired keys from the database in short batches and returns
+     * the number removed. Stops early when a batch fails; the next run
+     * carries on from there.
+     */
+    public int purgeExpired() {
+        Date cutoff = new Date();
+        int total = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            int deleted = idempotencyDAO.deleteExpired(cutoff, KEYS_PER_BATCH);
+            if (deleted < 0) {
+                System.err.println("Idempotency key purge stopped after a failed batch");
+                break;
+            }
+            total += deleted;
+            if (deleted < KEYS_PER_BATCH) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    public static class Claim {
+        private final String requestKey;
+        private final boolean owned;
+        private final String response;
+
+        private Claim(String requestKey, boolean owned, String response) {
+            this.requestKey = requestKey;
+            this.owned = owned;
+            this.response = response;
+        }
+
+        static Claim owned(String requestKey) { return new Claim(requestKey, true, null); }
+        static Claim replay(String requestKey, String response) { return new Claim(requestKey, false, response); }
+        static Claim busy(String requestKey) { return new Claim(requestKey, false, null); }
+
+        public boolean isOwned() { return owned; }
+        public boolean isReplay() { return response != null; }
+        // Stored response of the first request, for replays
+        public String getResponse() { return response; }
+    }
+
+    private static class Completed {
+        final String response;
+        final long expiresAt;
+
+        Completed(String response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package inbox;
+
+import dao.OrderDAO;
+import dao.PaymentInboxDAO;
+import dao.StatusChange;
+import hibernate.OrderStatus;
+import hibernate.PaymentNotification;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies stored PayHere notifications to their orders, off the request
+ * path, so the notify callback only has to insert one row before it answers.
+ * A poller thread claims due notifications from payment_notifications in
+ * batches and hands them to a fixed pool of WORKERS threads, never more
+ * than the pool's bounded queue can hold. Each order has at most one
+ * notification claimed at a time, which keeps its status changes in the
+ * order PayHere sent them. The servlet calls wake() after storing one.
+ *
+ * Applied notifications are marked in batches. A notification that fails
+ * is tried again after an exponential backoff, up to MAX_ATTEMPTS times,
+ * and is then marked DEAD and left in the table.
+ */
+public class PaymentInbox {
+
+    private static final PaymentInbox INSTANCE = new PaymentInbox(new PaymentInboxDAO(), new OrderDAO());
+
+    // PayHere status codes
+    public static final int STATUS_SUCCESS = 2;
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_CANCELLED = -1;
+    public static final int STATUS_FAILED = -2;
+
+    // All can be set with -D on the server command line
+    private static final int WORKERS = Integer.getInteger("payment.inbox.workers", 4);
+    private static final int QUEUE_SIZE = Integer.getInteger("payment.inbox.queueSize", 200);
+    private static final int NOTIFICATIONS_PER_BATCH = Integer.getInteger("payment.inbox.batchSize", 50);
+    private static final long POLL_MILLIS = Long.getLong("payment.inbox.pollMillis", 1000L);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("payment.inbox.maxAttempts", 10);
+    // Longer than PayHere keeps repeating a notification, so a repeat always finds the stored one
+    private static final int RETENTION_DAYS = Integer.getInteger("payment.inbox.retentionDays", 30);
+
+    public static final long PURGE_MINUTES = 60;
+    private static final int NOTIFICATIONS_PER_PURGE = 1000;
+
+    private static final long FIRST_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Longer than applying a notification should take; one still running after this may be applied twice
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final PaymentInboxDAO inboxDAO;
+    private final OrderDAO orderDAO;
+    // Ids of applied notifications, marked by the poller in one batch
+    private final ConcurrentLinkedQueue<Long> processed = new ConcurrentLinkedQueue<>();
+
+    private final Object signal = new Object();
+    private boolean woken;
+
+    private volatile boolean running;
+    private ThreadPoolExecutor workers;
+    private Thread poller;
+
+    private PaymentInbox(PaymentInboxDAO inboxDAO, OrderDAO orderDAO) {
+        this.inboxDAO = inboxDAO;
+        this.orderDAO = orderDAO;
+    }
+
+    public static PaymentInbox getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Stores a notification for later processing. True when it is stored,
+     * now or by an earlier delivery of the same notification; false when it
+     * could not be, and PayHere should be asked to send it again.
+     */
+    public boolean receive(String paymentId, int statusCode, Long orderId) {
+        Boolean stored = inboxDAO.append(paymentId, statusCode, orderId);
+        if (stored == null) {
+            return false;
+        }
+        if (stored) {
+            wake();
+        }
+        return true;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "payment-inbox-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        poller = new Thread(this::poll, "payment-inbox-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    // Notifications still queued stay leased and are applied after the next start
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        poller.interrupt();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        markProcessed();
+    }
+
+    // Cuts the poller's wait short; called after a notification was stored
+    public void wake() {
+        synchronized (signal) {
+            woken = true;
+            signal.notifyAll();
+        }
+    }
+
+    // Deletes processed notifications past the retention window; returns how many
+    public int purgeProcessed() {
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS));
+        int total = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            int deleted = inboxDAO.deleteProcessed(cutoff, NOTIFICATIONS_PER_PURGE);
+            if (deleted < 0) {
+                System.err.println("Payment notification purge stopped after a failed batch");
+                break;
+            }
+            total += deleted;
+            if (deleted < NOTIFICATIONS_PER_PURGE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void poll() {
+        while (running) {
+            try {
+                // Before claiming, so the next notification of an order is only taken once this one is marked
+                markProcessed();
+
+                int taken = 0;
+                int room = Math.min(NOTIFICATIONS_PER_BATCH, workers.getQueue().remainingCapacity());
+                if (room > 0) {
+                    List<PaymentNotification> notifications = inboxDAO.claimDue(room,
+                            new Date(System.currentTimeMillis() + LEASE_MILLIS));
+                    if (notifications != null) {
+                        for (PaymentNotification notification : notifications) {
+                            // Only this thread submits, so the queue has room for every claimed notification
+                            workers.execute(() -> process(notification));
+                        }
+                        taken = notifications.size();
+                    }
+                }
+
+                // A full batch means more may be due already
+                if (taken < NOTIFICATIONS_PER_BATCH) {
+                    synchronized (signal) {
+                        if (!woken) {
+                            signal.wait(POLL_MILLIS);
+                        }
+                        woken = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("Payment inbox poll failed: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void process(PaymentNotification notification) {
+        try {
+            apply(notification);
+            processed.add(notification.getId());
+            // The order's next notification, if any, can be claimed now
+            wake();
+        } catch (Exception e) {
+            int attempts = notification.getAttempts() + 1;
+            boolean dead = attempts >= MAX_ATTEMPTS;
+            Date retryAt = new Date(System.currentTimeMillis() + retryDelay(attempts));
+            System.err.println("Payment notification " + notification.getId() + " for order "
+                    + notification.getOrderId() + " failed on attempt " + attempts
+                    + (dead ? ", giving up" : ", retrying at " + retryAt) + ": " + e.getMessage());
+            inboxDAO.reschedule(notification.getId(), attempts, retryAt, String.valueOf(e), dead);
+        }
+    }
+
+    // Calling it again for the same notification changes nothing, in case a lease ran out
+    private void apply(PaymentNotification notification) {
+        Long orderId = notification.getOrderId();
+        int statusCode = notification.getStatusCode();
+
+        if (statusCode == STATUS_SUCCESS) {
+            // Confirms the held units as a permanent decrement along with the status, and revives
+            // an order whose holds expired while the customer was paying
+            StatusChange change = orderDAO.confirmPayment(orderId);
+            if (change == StatusChange.NOT_ALLOWED) {
+                // Already shipped or delivered, or cancelled by an admin or a failed payment
+                System.out.println("Payment " + notification.getPaymentId() + " succeeded, order " + orderId
+                        + " is past PROCESSING or was cancelled");
+            } else if (!change.isSuccess()) {
+                // A conflict is retried against the status that won
+                throw new IllegalStateException("Order " + orderId + " could not be moved to PROCESSING: " + change);
+            } else {
+                System.out.println("Payment " + notification.getPaymentId() + " succeeded, order " + orderId
+                        + " is PROCESSING");
+            }
+
+        } else if (statusCode == STATUS_PENDING || statusCode == STATUS_CANCELLED || statusCode == STATUS_FAILED) {
+            // Only an unpaid order is cancelled, so a late notification cannot undo a payment.
+            // Its units go back on sale right away instead of waiting for the holds to expire.
+            StatusChange change = orderDAO.changeStatus(orderId, OrderStatus.PENDING, OrderStatus.CANCELLED);
+            if (change == StatusChange.FAILED || change == StatusChange.NOT_FOUND) {
+                throw new IllegalStateException("Order " + orderId + " could not be cancelled: " + change);
+            }
+            if (!change.isSuccess()) {
+                System.out.println("Payment " + notification.getPaymentId() + " ended with status " + statusCode
+                        + ", order " + orderId + " is no longer PENDING and stays as it is");
+                return;
+            }
+            System.out.println("Payment " + notification.getPaymentId() + " ended with status " + statusCode
+                    + ", order " + orderId + " is CANCELLED");
+
+        } else {
+            System.out.println("Ignoring unknown PayHere status " + statusCode + " for order " + orderId);
+        }
+    }
+
+    // Doubles from FIRST_RETRY_MILLIS up to MAX_RETRY_MILLIS, with up to 20% jitter so failures spread out
+    private static long retryDelay(int attempts) {
+        long delay = FIRST_RETRY_MILLIS << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, MAX_RETRY_MILLIS);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    private void markProcessed() {
+        List<Long> ids = new ArrayList<>();
+        for (Long id = processed.poll(); id != null; id = processed.poll()) {
+            ids.add(id);
+        }
+        // On failure the leases run out and the notifications are applied again
+        if (!ids.isEmpty() && !inboxDAO.markProcessed(ids)) {
+            System.err.println("Could not mark " + ids.size() + " payment notifications as processed");
+        }
+    }
+}
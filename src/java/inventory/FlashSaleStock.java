@@ -0,0 +1,247 @@
+package inventory;
+
+import dao.OrderDAO;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import util.DataVersions;
+
+/**
+ * Stock of products in flash-sale mode, sold from an in-memory counter. For
+ * a limited promotion every buyer wants the same few products, and the
+ * conditional UPDATE of products.reserved made each checkout wait for the
+ * one before it to commit; here checkout takes its units with a
+ * compare-and-set and leaves the product row alone.
+ *
+ * The stock_reservations rows that checkout writes in its transaction stay
+ * the durable record. products.reserved of flash-sale products is
+ * recomputed from them in one batch every RECONCILE_MILLIS, and the
+ * counters are rebuilt from them at startup, so a restart loses nothing
+ * that was committed and units taken by a checkout that never committed
+ * come back. Like the cart cache, this assumes one application server.
+ */
+public class FlashSaleStock {
+
+    private static final FlashSaleStock INSTANCE = new FlashSaleStock(new OrderDAO());
+
+    // Can be set with -D on the server command line
+    public static final long RECONCILE_MILLIS = Long.getLong("flashSale.reconcileMillis", 1000L);
+    // How long switching a product off waits for checkouts that already took from its counter
+    private static final long DRAIN_MILLIS = 10_000L;
+
+    private final OrderDAO orderDAO;
+
+    // productId -> counter; only products in flash-sale mode have one
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<>();
+    // productId -> products.reserved as last written, so unchanged rows are not rewritten; guarded by this
+    private final Map<Long, Integer> written = new HashMap<>();
+
+    private FlashSaleStock(OrderDAO orderDAO) {
+        this.orderDAO = orderDAO;
+    }
+
+    public static FlashSaleStock getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isFlashSale(Long productId) {
+        return counters.containsKey(productId);
+    }
+
+    // Units that can still be sold, or null when the product is not in flash-sale mode
+    public Integer available(Long productId) {
+        Counter counter = counters.get(productId);
+        return counter != null ? Math.max(0, counter.available.get()) : null;
+    }
+
+    /**
+     * Takes units for a transaction that is about to record them in
+     * stock_reservations. Null when there are not enough left, or the product
+     * is not (or no longer) in flash-sale mode. The ticket must be finished
+     * once the transaction has ended.
+     */
+    public Ticket take(Long productId, int units) {
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            return null;
+        }
+        // Counted before the check, so disable() either sees this take or this take sees it closed
+        counter.inFlight.incrementAndGet();
+        if (!counter.closed && counter.tryTake(units)) {
+            return new Ticket(counter, units);
+        }
+        counter.inFlight.decrementAndGet();
+        return null;
+    }
+
+    /**
+     * Units that came back on sale through a committed release or restock, or
+     * negative when stock was written off. Ignored for products that are not
+     * in flash-sale mode, whose stock lives in the products row.
+     */
+    public void add(Long productId, int units) {
+        Counter counter = counters.get(productId);
+        if (counter != null) {
+            counter.available.addAndGet(units);
+        }
+    }
+
+    /**
+     * Rebuilds every counter from the products table and the holds on record.
+     * Run at startup, before the first checkout.
+     */
+    public synchronized void load() {
+        Map<Long, int[]> stock = orderDAO.getFlashSaleStock();
+        if (stock == null) {
+            throw new IllegalStateException("Flash-sale stock could not be loaded");
+        }
+        counters.clear();
+        written.clear();
+        for (Map.Entry<Long, int[]> entry : stock.entrySet()) {
+            counters.put(entry.getKey(), new Counter(entry.getValue()[0] - entry.getValue()[1]));
+        }
+        // Whatever was not reconciled before the restart
+        reconcile();
+    }
+
+    /**
+     * Writes products.reserved of every flash-sale product whose holds
+     * changed since the last run, as one batch. Run by a background thread.
+     */
+    public synchronized void reconcile() {
+        if (counters.isEmpty()) {
+            return;
+        }
+        Map<Long, Integer> held = orderDAO.getHeldUnits(counters.keySet());
+        if (held == null) {
+            return; // retried on the next run
+        }
+        Map<Long, Integer> changed = new HashMap<>();
+        for (Long productId : counters.keySet()) {
+            Integer units = held.containsKey(productId) ? held.get(productId) : 0;
+            if (!units.equals(written.get(productId))) {
+                changed.put(productId, units);
+            }
+        }
+        if (!changed.isEmpty() && orderDAO.updateReserved(changed)) {
+            written.putAll(changed);
+            for (Map.Entry<Long, Integer> entry : changed.entrySet()) {
+                ReservationIndex.getInstance().setHeld(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Puts the product in flash-sale mode; false when it does not exist or the switch failed
+    public synchronized boolean enable(Long productId) {
+        if (counters.containsKey(productId)) {
+            return true;
+        }
+        Integer available = orderDAO.startFlashSale(productId);
+        if (available == null) {
+            return false;
+        }
+        counters.put(productId, new Counter(available));
+        written.remove(productId);
+        DataVersions.productChanged(productId);
+        return true;
+    }
+
+    /**
+     * Hands the product's stock back to the products row. New checkouts of
+     * the product fail until the switch is done, and the checkouts that
+     * already took from the counter are waited for, so that their holds are
+     * counted in products.reserved. False when they did not finish in time or
+     * the switch failed, in which case the product stays in flash-sale mode.
+     */
+    public synchronized boolean disable(Long productId) {
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            return orderDAO.endFlashSale(productId) != null;
+        }
+        counter.closed = true;
+        Integer held = counter.drain(DRAIN_MILLIS) ? orderDAO.endFlashSale(productId) : null;
+        if (held == null) {
+            counter.closed = false;
+            return false;
+        }
+        counters.remove(productId);
+        written.remove(productId);
+        ReservationIndex.getInstance().setHeld(productId, held);
+        DataVersions.productChanged(productId);
+        return true;
+    }
+
+    // Drops the counter of a deleted product
+    public synchronized void forget(Long productId) {
+        counters.remove(productId);
+        written.remove(productId);
+    }
+
+    /**
+     * Units taken from a counter on behalf of one transaction. Rolled back
+     * units go back on sale; committed ones are now held in stock_reservations.
+     */
+    public static final class Ticket {
+        private final Counter counter;
+        private final int units;
+        private boolean finished;
+
+        private Ticket(Counter counter, int units) {
+            this.counter = counter;
+            this.units = units;
+        }
+
+        public void finish(boolean committed) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (!committed) {
+                counter.available.addAndGet(units);
+            }
+            counter.inFlight.decrementAndGet();
+        }
+    }
+
+    private static final class Counter {
+        // Goes negative when stock is written off below what has been sold
+        final AtomicInteger available;
+        // Tickets of transactions that have not ended yet
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean closed;
+
+        Counter(int available) {
+            this.available = new AtomicInteger(available);
+        }
+
+        boolean tryTake(int units) {
+            while (true) {
+                int current = available.get();
+                if (current < units) {
+                    return false;
+                }
+                if (available.compareAndSet(current, current - units)) {
+                    return true;
+                }
+            }
+        }
+
+        // True once no transaction holds units of this counter any more
+        boolean drain(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (inFlight.get() > 0) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
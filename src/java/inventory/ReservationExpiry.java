@@ -0,0 +1,51 @@
+package inventory;
+
+import dao.OrderDAO;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Releases the stock held by orders whose payment did not complete within
+ * HOLD_MINUTES and cancels those orders. Runs as a background job, one short
+ * transaction per order, at most ORDERS_PER_BATCH orders per query.
+ */
+public class ReservationExpiry {
+
+    // All can be set with -D on the server command line
+    public static final long HOLD_MINUTES = Long.getLong("stock.holdMinutes", 15L);
+    public static final long SWEEP_SECONDS = Long.getLong("stock.sweepSeconds", 60L);
+    private static final int ORDERS_PER_BATCH = Integer.getInteger("stock.sweepBatchSize", 100);
+
+    private final OrderDAO orderDAO;
+
+    public ReservationExpiry(OrderDAO orderDAO) {
+        this.orderDAO = orderDAO;
+    }
+
+    /**
+     * Releases every expired hold and returns the number of orders cancelled.
+     * Stops early when an order fails or the thread is interrupted; the next
+     * run carries on from there.
+     */
+    public int run() {
+        long started = System.nanoTime();
+        int total = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            int released = orderDAO.releaseExpiredReservations(ORDERS_PER_BATCH);
+            if (released < 0) {
+                System.err.println("Reservation expiry stopped after a failed batch");
+                break;
+            }
+            total += released;
+            if (released < ORDERS_PER_BATCH) {
+                break;
+            }
+        }
+
+        if (total > 0) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            System.out.println("Released expired stock holds of " + total + " orders in " + millis + " ms");
+        }
+        return total;
+    }
+}
@@ -0,0 +1,90 @@
+package inventory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import model.ProductDTO;
+
+/**
+ * Units on hand and on hold per product, mirroring products.quantity and
+ * products.reserved in memory so that storefront reads work out
+ * available-to-sell with two map lookups. Loaded at startup and adjusted by
+ * OrderDAO after every committed hold, confirmation, release or restock, and
+ * by the admin product editor; FlashSaleStock sets the holds of its products
+ * whenever it reconciles them. Products with nothing on hold have no entry
+ * in held.
+ */
+public class ReservationIndex {
+
+    private static final ReservationIndex INSTANCE = new ReservationIndex();
+
+    private final ConcurrentHashMap<Long, Integer> held = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Integer> onHand = new ConcurrentHashMap<>();
+
+    private ReservationIndex() {
+    }
+
+    public static ReservationIndex getInstance() {
+        return INSTANCE;
+    }
+
+    // Replaces the whole index with productId -> quantity and reserved units read from the database
+    public void load(Map<Long, Integer> quantities, Map<Long, Integer> reserved) {
+        onHand.clear();
+        onHand.putAll(quantities);
+        held.clear();
+        for (Map.Entry<Long, Integer> entry : reserved.entrySet()) {
+            if (entry.getValue() != null && entry.getValue() > 0) {
+                held.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Negative units were sold or written off
+    public void addOnHand(Long productId, int units) {
+        onHand.merge(productId, units, Integer::sum);
+    }
+
+    public void setOnHand(Long productId, int units) {
+        onHand.put(productId, units);
+    }
+
+    public void forget(Long productId) {
+        onHand.remove(productId);
+        held.remove(productId);
+    }
+
+    // Negative units release a hold
+    public void addHeld(Long productId, int units) {
+        held.merge(productId, units, (current, change) -> current + change > 0 ? current + change : null);
+    }
+
+    public void setHeld(Long productId, int units) {
+        if (units > 0) {
+            held.put(productId, units);
+        } else {
+            held.remove(productId);
+        }
+    }
+
+    public int getHeld(Long productId) {
+        Integer units = held.get(productId);
+        return units != null ? units : 0;
+    }
+
+    /**
+     * Stock that can still be sold: units on hand less what is on hold now.
+     * The DTO's quantity is only used for a product the index has not
+     * loaded, since catalog snapshots are not rebuilt when stock is sold.
+     */
+    public int available(ProductDTO product) {
+        Integer flashSale = FlashSaleStock.getInstance().available(product.getId());
+        if (flashSale != null) {
+            return flashSale;
+        }
+        Integer units = onHand.get(product.getId());
+        if (units == null) {
+            units = product.getQuantity() != null ? product.getQuantity() : 0;
+        }
+        return Math.max(0, units - getHeld(product.getId()));
+    }
+}
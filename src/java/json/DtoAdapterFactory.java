@@ -0,0 +1,143 @@
+package json;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import inventory.ReservationIndex;
+import java.io.IOException;
+import java.util.Date;
+import model.CartLineDTO;
+import model.CategoryDTO;
+import model.OrderRowDTO;
+import model.ProductDTO;
+
+/**
+ * Hand-written adapters for the DTOs on the hot read paths, so they are
+ * written field by field without reflection. Field names and order match
+ * what Gson's reflective adapter produced before; dates still go through
+ * Gson's own date adapter. The DTOs are write-only, so reading is not
+ * supported.
+ */
+public class DtoAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if (raw == ProductDTO.class) {
+            return (TypeAdapter<T>) new ProductAdapter(gson.getAdapter(Date.class));
+        }
+        if (raw == CategoryDTO.class) {
+            return (TypeAdapter<T>) new CategoryAdapter();
+        }
+        if (raw == CartLineDTO.class) {
+            return (TypeAdapter<T>) new CartLineAdapter();
+        }
+        if (raw == OrderRowDTO.class) {
+            return (TypeAdapter<T>) new OrderRowAdapter(gson.getAdapter(Date.class));
+        }
+        return null;
+    }
+
+    private abstract static class WriteOnlyAdapter<T> extends TypeAdapter<T> {
+        @Override
+        public T read(JsonReader in) throws IOException {
+            throw new UnsupportedOperationException("Response DTOs are not deserialised");
+        }
+    }
+
+    private static class ProductAdapter extends WriteOnlyAdapter<ProductDTO> {
+        private final TypeAdapter<Date> dates;
+
+        ProductAdapter(TypeAdapter<Date> dates) {
+            this.dates = dates;
+        }
+
+        @Override
+        public void write(JsonWriter out, ProductDTO product) throws IOException {
+            if (product == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(product.getId());
+            out.name("name").value(product.getName());
+            out.name("description").value(product.getDescription());
+            out.name("price").value(product.getPrice());
+            // Available to sell: stock on hold for unpaid orders is not shown
+            out.name("Quantity").value(ReservationIndex.getInstance().available(product));
+            out.name("imageUrl").value(product.getImageUrl());
+            out.name("categoryId").value(product.getCategoryId());
+            out.name("categoryName").value(product.getCategoryName());
+            out.name("createdAt");
+            dates.write(out, product.getCreatedAt());
+            out.endObject();
+        }
+    }
+
+    private static class CategoryAdapter extends WriteOnlyAdapter<CategoryDTO> {
+        @Override
+        public void write(JsonWriter out, CategoryDTO category) throws IOException {
+            if (category == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(category.getId());
+            out.name("name").value(category.getName());
+            out.name("description").value(category.getDescription());
+            out.name("imageUrl").value(category.getImageUrl());
+            out.endObject();
+        }
+    }
+
+    private static class CartLineAdapter extends WriteOnlyAdapter<CartLineDTO> {
+        @Override
+        public void write(JsonWriter out, CartLineDTO line) throws IOException {
+            if (line == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(line.getId());
+            out.name("productId").value(line.getProductId());
+            out.name("productName").value(line.getProductName());
+            out.name("price").value(line.getPrice());
+            out.name("productImage").value(line.getProductImage());
+            out.name("stock").value(line.getStock());
+            out.name("quantity").value(line.getQuantity());
+            out.name("subtotal").value(line.getSubtotal());
+            out.endObject();
+        }
+    }
+
+    private static class OrderRowAdapter extends WriteOnlyAdapter<OrderRowDTO> {
+        private final TypeAdapter<Date> dates;
+
+        OrderRowAdapter(TypeAdapter<Date> dates) {
+            this.dates = dates;
+        }
+
+        @Override
+        public void write(JsonWriter out, OrderRowDTO order) throws IOException {
+            if (order == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(order.getId());
+            out.name("orderDate");
+            dates.write(out, order.getOrderDate());
+            out.name("totalAmount").value(order.getTotalAmount());
+            out.name("status").value(order.getStatus());
+            out.name("shippingAddress").value(order.getShippingAddress());
+            out.name("itemCount").value(order.getItemCount());
+            out.name("customerName").value(order.getCustomerName());
+            out.name("customerEmail").value(order.getCustomerEmail());
+            out.endObject();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package json;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shared JSON output for the servlets. Values are serialised straight into
+ * the response writer instead of being built into one String first, so a
+ * large listing goes out in buffer-sized chunks as it is written.
+ */
+public class JsonResponse {
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new DtoAdapterFactory())
+            .create();
+
+    private JsonResponse() {
+    }
+
+    public static Gson gson() {
+        return GSON;
+    }
+
+    // Sets the JSON content type and streams the value as the response body
+    public static void write(HttpServletResponse response, Object value) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        write(response.getWriter(), value);
+    }
+
+    // PrintWriter swallows I/O errors itself, so callers need not handle them
+    public static void write(PrintWriter out, Object value) {
+        try {
+            write((Writer) out, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void write(Writer out, Object value) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        if (value == null) {
+            writer.nullValue();
+        } else {
+            GSON.toJson(value, value.getClass(), writer);
+        }
+        // Flush the JsonWriter only; the container owns the underlying writer
+        writer.flush();
+    }
+}
@@ -0,0 +1,265 @@
+package listener;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import cart.AbandonedCartPurge;
+import cart.CartCache;
+import catalog.CatalogSnapshot;
+import dao.CartDAO;
+import dao.CategoryDAO;
+import dao.OrderDAO;
+import dao.ProductDAO;
+import hibernate.Category;
+import hibernate.Product;
+import idempotency.IdempotencyStore;
+import inbox.PaymentInbox;
+import inventory.FlashSaleStock;
+import inventory.ReservationExpiry;
+import inventory.ReservationIndex;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import outbox.LowStockAlertHandler;
+import outbox.OrderEvents;
+import outbox.OrderNotificationHandler;
+import outbox.OutboxDispatcher;
+import recommend.CoPurchaseIndex;
+import search.ProductSearchIndex;
+import search.SuggestIndex;
+
+@WebListener
+public class AppContextListener implements ServletContextListener {
+    
+    private static final long RECOMMENDATION_REFRESH_MINUTES = 10;
+    
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService cartWriter;
+    private ScheduledExecutorService maintenance;
+    private ScheduledExecutorService flashSale;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        try {
+            // Counters first: this also brings products.reserved of flash-sale products up to date
+            FlashSaleStock.getInstance().load();
+        } catch (Exception e) {
+            System.err.println("Failed to load flash-sale stock: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        try {
+            // Build the catalog snapshot and search indexes before the first storefront request
+            List<Product> products = new ProductDAO().getAllProducts();
+            List<Category> categories = new CategoryDAO().getAllCategories();
+            CatalogSnapshot.rebuild(products, categories);
+            loadReservations(products);
+            ProductSearchIndex.getInstance().rebuild(products);
+            buildSuggestIndex(products, categories);
+        } catch (Exception e) {
+            System.err.println("Failed to build catalog snapshot or search index: " + e.getMessage());
+            e.printStackTrace();
+        }
+        
+        // Co-purchase mining runs off the request path; the first run covers all past orders
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "recommendations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshRecommendations, 0, RECOMMENDATION_REFRESH_MINUTES, TimeUnit.MINUTES);
+        
+        // Its own thread, so a long recommendation run never stretches the cart durability window
+        cartWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cartWriter.scheduleWithFixedDelay(this::flushCarts, CartCache.FLUSH_SECONDS, CartCache.FLUSH_SECONDS, TimeUnit.SECONDS);
+        
+        // Short interval, so products.reserved of flash-sale products lags the counters by about a second
+        flashSale = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "flash-sale");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flashSale.scheduleWithFixedDelay(this::reconcileFlashSales, FlashSaleStock.RECONCILE_MILLIS,
+                FlashSaleStock.RECONCILE_MILLIS, TimeUnit.MILLISECONDS);
+        
+        // Housekeeping of stale rows; first run one interval after startup, away from the warm-up
+        final AbandonedCartPurge cartPurge = new AbandonedCartPurge(new CartDAO());
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(() -> purgeCarts(cartPurge), AbandonedCartPurge.INTERVAL_MINUTES,
+                AbandonedCartPurge.INTERVAL_MINUTES, TimeUnit.MINUTES);
+        final ReservationExpiry reservationExpiry = new ReservationExpiry(new OrderDAO());
+        maintenance.scheduleWithFixedDelay(() -> expireReservations(reservationExpiry), ReservationExpiry.SWEEP_SECONDS,
+                ReservationExpiry.SWEEP_SECONDS, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(this::purgeIdempotencyKeys, IdempotencyStore.PURGE_MINUTES,
+                IdempotencyStore.PURGE_MINUTES, TimeUnit.MINUTES);
+        maintenance.scheduleWithFixedDelay(this::purgePaymentNotifications, PaymentInbox.PURGE_MINUTES,
+                PaymentInbox.PURGE_MINUTES, TimeUnit.MINUTES);
+        maintenance.scheduleWithFixedDelay(this::refreshSuggestSales, SuggestIndex.SALES_REFRESH_MINUTES,
+                SuggestIndex.SALES_REFRESH_MINUTES, TimeUnit.MINUTES);
+        
+        // Side effects of orders run here, after the order has committed
+        OrderNotificationHandler notifications = new OrderNotificationHandler(new OrderDAO());
+        OutboxDispatcher outbox = OutboxDispatcher.getInstance();
+        outbox.register(OrderEvents.ORDER_PLACED, notifications);
+        outbox.register(OrderEvents.ORDER_PLACED, new LowStockAlertHandler(new ProductDAO()));
+        outbox.register(OrderEvents.STATUS_CHANGED, notifications);
+        outbox.start();
+        
+        // PayHere notifications are stored by the servlet and applied here
+        PaymentInbox.getInstance().start();
+    }
+    
+    private void loadReservations(List<Product> products) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        Map<Long, Integer> reserved = new HashMap<>();
+        for (Product product : products) {
+            quantities.put(product.getId(), product.getQuantity() != null ? product.getQuantity() : 0);
+            if (product.getReserved() > 0) {
+                reserved.put(product.getId(), product.getReserved());
+            }
+        }
+        ReservationIndex.getInstance().load(quantities, reserved);
+    }
+    
+    private void expireReservations(ReservationExpiry reservationExpiry) {
+        try {
+            reservationExpiry.run();
+        } catch (Exception e) {
+            System.err.println("Failed to release expired stock reservations: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void purgeIdempotencyKeys() {
+        try {
+            int deleted = IdempotencyStore.getInstance().purgeExpired();
+            if (deleted > 0) {
+                System.out.println("Removed " + deleted + " expired idempotency keys");
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to purge idempotency keys: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void refreshSuggestSales() {
+        try {
+            Map<Long, Long> sales = new OrderDAO().getUnitsSoldByProduct();
+            // An empty result is also what a failed query returns; keep the last ranking then
+            if (!sales.isEmpty() && SuggestIndex.getInstance().updateSales(sales)) {
+                System.out.println("Suggestion ranking updated from sales of " + sales.size() + " products");
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to refresh suggestion ranking: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void reconcileFlashSales() {
+        try {
+            FlashSaleStock.getInstance().reconcile();
+        } catch (Exception e) {
+            System.err.println("Failed to reconcile flash-sale stock: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void purgePaymentNotifications() {
+        try {
+            int deleted = PaymentInbox.getInstance().purgeProcessed();
+            if (deleted > 0) {
+                System.out.println("Removed " + deleted + " old payment notifications");
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to purge payment notifications: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void purgeCarts(AbandonedCartPurge cartPurge) {
+        try {
+            cartPurge.run();
+        } catch (Exception e) {
+            System.err.println("Failed to purge abandoned carts: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void flushCarts() {
+        try {
+            CartCache.getInstance().flushAll();
+        } catch (Exception e) {
+            // Failed carts stay dirty and are retried on the next run
+            System.err.println("Failed to write carts: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void refreshRecommendations() {
+        try {
+            int orders = CoPurchaseIndex.getInstance().refresh(new OrderDAO());
+            if (orders > 0) {
+                System.out.println("Recommendations updated from " + orders + " new orders");
+            }
+        } catch (Exception e) {
+            // Keep the schedule alive; the next run picks up where this one stopped
+            System.err.println("Failed to refresh recommendations: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void buildSuggestIndex(List<Product> products, List<Category> categories) {
+        Map<Long, String> productNames = new HashMap<>();
+        Map<Long, Long> productCategories = new HashMap<>();
+        for (Product product : products) {
+            productNames.put(product.getId(), product.getName());
+            if (product.getCategory() != null) {
+                productCategories.put(product.getId(), product.getCategory().getId());
+            }
+        }
+        
+        Map<Long, String> categoryNames = new HashMap<>();
+        for (Category category : categories) {
+            categoryNames.put(category.getId(), category.getName());
+        }
+        
+        SuggestIndex.getInstance().rebuild(productNames, productCategories, categoryNames,
+                new OrderDAO().getUnitsSoldByProduct());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+        if (flashSale != null) {
+            flashSale.shutdownNow();
+        }
+        PaymentInbox.getInstance().stop();
+        OutboxDispatcher.getInstance().stop();
+        if (cartWriter != null) {
+            cartWriter.shutdown();
+            try {
+                cartWriter.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Whatever changed since the last run
+        CartCache.getInstance().flushAll();
+    }
+}
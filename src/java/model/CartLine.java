@@ -0,0 +1,28 @@
+package model;
+
+import java.util.Date;
+
+// One line of a cached cart; the product identifies it, id is the cart_items row once it has been read back
+public class CartLine {
+    private final Long id;
+    private final Long productId;
+    private final int quantity;
+    private final Date addedDate;
+
+    public CartLine(Long id, Long productId, int quantity, Date addedDate) {
+        this.id = id;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.addedDate = addedDate;
+    }
+
+    public CartLine withQuantity(int quantity) {
+        return new CartLine(id, productId, quantity, addedDate);
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public Long getProductId() { return productId; }
+    public int getQuantity() { return quantity; }
+    public Date getAddedDate() { return addedDate; }
+}
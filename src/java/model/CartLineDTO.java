@@ -0,0 +1,79 @@
+package model;
+
+import hibernate.CartItem;
+import hibernate.Product;
+import inventory.ReservationIndex;
+import java.math.BigDecimal;
+
+public class CartLineDTO {
+    private Long id;
+    private Long productId;
+    private String productName;
+    private BigDecimal price;
+    private String productImage;
+    private Integer stock;
+    private Integer quantity;
+    private Double subtotal;
+
+    public CartLineDTO(CartItem item) {
+        this.id = item.getId();
+        Product product = item.getProduct();
+        if (product != null) {
+            this.productId = product.getId();
+            this.productName = product.getName();
+            this.price = product.getPrice();
+            this.productImage = product.getImageUrl();
+            this.stock = product.getAvailable();
+        } else {
+            this.productId = 0L;
+            this.productName = "Unknown Product";
+            this.price = BigDecimal.ZERO;
+            this.productImage = "https://via.placeholder.com/100?text=No+Image";
+        }
+        this.quantity = item.getQuantity();
+        this.subtotal = item.getSubtotal();
+    }
+
+    // A cached line priced from the catalog snapshot; product is null when it is no longer listed
+    public CartLineDTO(CartLine line, ProductDTO product) {
+        this.id = line.getId();
+        this.quantity = line.getQuantity();
+        if (product != null) {
+            this.productId = product.getId();
+            this.productName = product.getName();
+            this.price = product.getPrice();
+            this.productImage = product.getImageUrl();
+            this.stock = ReservationIndex.getInstance().available(product);
+            this.subtotal = product.getPrice() != null ? product.getPrice().doubleValue() * quantity : 0.0;
+        } else {
+            this.productId = line.getProductId();
+            this.productName = "Unknown Product";
+            this.price = BigDecimal.ZERO;
+            this.productImage = "https://via.placeholder.com/100?text=No+Image";
+            this.subtotal = 0.0;
+        }
+    }
+
+    // A row of the cart view projection
+    public CartLineDTO(Long id, Long productId, String productName, BigDecimal price, String productImage,
+            Integer stock, Integer quantity) {
+        this.id = id;
+        this.productId = productId;
+        this.productName = productName;
+        this.price = price != null ? price : BigDecimal.ZERO;
+        this.productImage = productImage;
+        this.stock = stock;
+        this.quantity = quantity;
+        this.subtotal = this.price.doubleValue() * quantity;
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public Long getProductId() { return productId; }
+    public String getProductName() { return productName; }
+    public BigDecimal getPrice() { return price; }
+    public String getProductImage() { return productImage; }
+    public Integer getStock() { return stock; }
+    public Integer getQuantity() { return quantity; }
+    public Double getSubtotal() { return subtotal; }
+}
@@ -0,0 +1,30 @@
+package model;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+// Read model of a cart: flat lines plus the totals computed from the same lines
+public class CartView {
+    private final List<CartLineDTO> items;
+    private final BigDecimal subtotal;
+    private final int totalQuantity;
+
+    public CartView(List<CartLineDTO> items) {
+        this.items = items;
+        BigDecimal sum = BigDecimal.ZERO;
+        int quantity = 0;
+        for (CartLineDTO item : items) {
+            if (item.getPrice() != null) {
+                sum = sum.add(item.getPrice().multiply(BigDecimal.valueOf(item.getQuantity())));
+            }
+            quantity += item.getQuantity();
+        }
+        this.subtotal = sum;
+        this.totalQuantity = quantity;
+    }
+
+    // Getters
+    public List<CartLineDTO> getItems() { return items; }
+    public BigDecimal getSubtotal() { return subtotal; }
+    public int getTotalQuantity() { return totalQuantity; }
+}
@@ -0,0 +1,43 @@
+package model;
+
+import hibernate.Order;
+import java.math.BigDecimal;
+import java.util.Date;
+
+// One line of the admin order list
+public class OrderRowDTO {
+    private Long id;
+    private Date orderDate;
+    private BigDecimal totalAmount;
+    private String status;
+    private String shippingAddress;
+    private int itemCount;
+    private String customerName;
+    private String customerEmail;
+
+    public OrderRowDTO(Order order) {
+        this.id = order.getId();
+        this.orderDate = order.getOrderDate();
+        this.totalAmount = order.getTotalAmount();
+        this.status = order.getStatus().name();
+        this.shippingAddress = order.getShippingAddress();
+        this.itemCount = order.getOrderItems() != null ? order.getOrderItems().size() : 0;
+        if (order.getUser() != null) {
+            this.customerName = order.getUser().getFullName();
+            this.customerEmail = order.getUser().getEmail();
+        } else {
+            this.customerName = "Guest";
+            this.customerEmail = "";
+        }
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public Date getOrderDate() { return orderDate; }
+    public BigDecimal getTotalAmount() { return totalAmount; }
+    public String getStatus() { return status; }
+    public String getShippingAddress() { return shippingAddress; }
+    public int getItemCount() { return itemCount; }
+    public String getCustomerName() { return customerName; }
+    public String getCustomerEmail() { return customerEmail; }
+}
@@ -0,0 +1,26 @@
+package model;
+
+import java.util.List;
+
+public class ProductPage {
+    private List<ProductDTO> items;
+    private String nextCursor;
+    private boolean hasMore;
+    private Long totalCount;
+    private int size;
+
+    public ProductPage(List<ProductDTO> items, String nextCursor, Long totalCount, int size) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.hasMore = nextCursor != null;
+        this.totalCount = totalCount;
+        this.size = size;
+    }
+
+    // Getters
+    public List<ProductDTO> getItems() { return items; }
+    public String getNextCursor() { return nextCursor; }
+    public boolean isHasMore() { return hasMore; }
+    public Long getTotalCount() { return totalCount; }
+    public int getSize() { return size; }
+}
@@ -0,0 +1,37 @@
+package outbox;
+
+import dao.ProductDAO;
+import hibernate.OutboxEvent;
+import hibernate.Product;
+import search.ProductSearchIndex;
+
+/**
+ * Warns when an order takes a product's available stock down to the low
+ * stock threshold or below. Only the order that crosses the threshold
+ * raises the alert, so a product that stays low does not warn on every sale.
+ */
+public class LowStockAlertHandler implements OutboxHandler {
+
+    private final ProductDAO productDAO;
+
+    public LowStockAlertHandler(ProductDAO productDAO) {
+        this.productDAO = productDAO;
+    }
+
+    @Override
+    public void handle(OutboxEvent event) throws Exception {
+        OrderEvents.Placed placed = OrderEvents.readPlaced(event.getPayload());
+        for (long[] line : placed.lines) {
+            Product product = productDAO.getProductById(line[0]);
+            if (product == null) {
+                continue; // deleted since
+            }
+            int available = product.getAvailable();
+            if (available <= ProductSearchIndex.LOW_STOCK_THRESHOLD
+                    && available + line[1] > ProductSearchIndex.LOW_STOCK_THRESHOLD) {
+                System.out.println("Low stock: " + product.getName() + " (product " + product.getId() + ") has "
+                        + available + " units left after order #" + placed.orderId);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package outbox;
+
+import com.google.gson.Gson;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Types and payloads of the outbox events written for orders. Payloads are
+ * stored as JSON, so a handler reads exactly what the writer saw at commit.
+ */
+public final class OrderEvents {
+
+    public static final String ORDER_PLACED = "order.placed";
+    public static final String STATUS_CHANGED = "order.status";
+
+    private static final Gson GSON = new Gson();
+
+    private OrderEvents() {
+    }
+
+    // lines are productId, quantity pairs
+    public static String placed(Long orderId, Long userId, BigDecimal totalAmount, List<long[]> lines) {
+        Placed placed = new Placed();
+        placed.orderId = orderId;
+        placed.userId = userId;
+        placed.totalAmount = totalAmount;
+        placed.lines = lines.toArray(new long[0][]);
+        return GSON.toJson(placed);
+    }
+
+    public static String statusChanged(Long orderId, String status) {
+        StatusChanged changed = new StatusChanged();
+        changed.orderId = orderId;
+        changed.status = status;
+        return GSON.toJson(changed);
+    }
+
+    public static Placed readPlaced(String payload) {
+        return GSON.fromJson(payload, Placed.class);
+    }
+
+    public static StatusChanged readStatusChanged(String payload) {
+        return GSON.fromJson(payload, StatusChanged.class);
+    }
+
+    public static class Placed {
+        public Long orderId;
+        public Long userId;
+        public BigDecimal totalAmount;
+        public long[][] lines;
+    }
+
+    public static class StatusChanged {
+        public Long orderId;
+        public String status;
+    }
+}
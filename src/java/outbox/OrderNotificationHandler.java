@@ -0,0 +1,37 @@
+package outbox;
+
+import dao.OrderDAO;
+import hibernate.Order;
+import hibernate.OutboxEvent;
+
+/**
+ * Tells the customer their order was placed or changed status. There is no
+ * mail transport configured yet, so the message is written to the server log
+ * with the address it is meant for.
+ */
+public class OrderNotificationHandler implements OutboxHandler {
+
+    private final OrderDAO orderDAO;
+
+    public OrderNotificationHandler(OrderDAO orderDAO) {
+        this.orderDAO = orderDAO;
+    }
+
+    @Override
+    public void handle(OutboxEvent event) throws Exception {
+        Order order = orderDAO.getOrderWithUserData(event.getAggregateId());
+        if (order == null) {
+            throw new IllegalStateException("Order " + event.getAggregateId() + " could not be loaded");
+        }
+        String email = order.getUser() != null ? order.getUser().getEmail() : null;
+
+        if (OrderEvents.ORDER_PLACED.equals(event.getEventType())) {
+            OrderEvents.Placed placed = OrderEvents.readPlaced(event.getPayload());
+            System.out.println("Order confirmation for order #" + placed.orderId + " (" + placed.lines.length
+                    + " lines, total " + placed.totalAmount + ") to " + email);
+        } else {
+            OrderEvents.StatusChanged changed = OrderEvents.readStatusChanged(event.getPayload());
+            System.out.println("Status update for order #" + changed.orderId + ": " + changed.status + " to " + email);
+        }
+    }
+}
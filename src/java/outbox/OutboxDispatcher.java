@@ -0,0 +1,198 @@
+package outbox;
+
+import dao.OutboxDAO;
+import hibernate.OutboxEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers outbox events to the handlers registered for their type, off the
+ * request path. A poller thread takes due events from outbox_events in
+ * batches and hands them to a fixed pool of WORKERS threads; it never takes
+ * more than the pool's bounded queue can hold, so a slow handler makes
+ * events wait in the table rather than in memory. Writers call wake() after
+ * committing so new events go out without waiting for the next poll.
+ *
+ * Delivered events are deleted in batches. An event whose handler throws is
+ * tried again after an exponential backoff, up to MAX_ATTEMPTS times, and
+ * is then marked DEAD and left in the table.
+ */
+public class OutboxDispatcher {
+
+    private static final OutboxDispatcher INSTANCE = new OutboxDispatcher(new OutboxDAO());
+
+    // All can be set with -D on the server command line
+    private static final int WORKERS = Integer.getInteger("outbox.workers", 4);
+    private static final int QUEUE_SIZE = Integer.getInteger("outbox.queueSize", 200);
+    private static final int EVENTS_PER_BATCH = Integer.getInteger("outbox.batchSize", 50);
+    private static final long POLL_MILLIS = Long.getLong("outbox.pollMillis", 1000L);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("outbox.maxAttempts", 10);
+
+    private static final long FIRST_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Longer than any handler should take; an event still running after this may be delivered twice
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final OutboxDAO outboxDAO;
+    private final Map<String, List<OutboxHandler>> handlers = new ConcurrentHashMap<>();
+    // Ids of delivered events, deleted by the poller in one batch
+    private final ConcurrentLinkedQueue<Long> delivered = new ConcurrentLinkedQueue<>();
+
+    private final Object signal = new Object();
+    private boolean woken;
+
+    private volatile boolean running;
+    private ThreadPoolExecutor workers;
+    private Thread poller;
+
+    private OutboxDispatcher(OutboxDAO outboxDAO) {
+        this.outboxDAO = outboxDAO;
+    }
+
+    public static OutboxDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    // Handlers of one type run in registration order; register them all before start()
+    public void register(String eventType, OutboxHandler handler) {
+        handlers.computeIfAbsent(eventType, type -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+
+        final AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "outbox-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        poller = new Thread(this::poll, "outbox-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    // Events still queued stay leased and are delivered after the next start
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        poller.interrupt();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deleteDelivered();
+    }
+
+    // Cuts the poller's wait short; called after a commit that wrote events
+    public void wake() {
+        synchronized (signal) {
+            woken = true;
+            signal.notifyAll();
+        }
+    }
+
+    private void poll() {
+        while (running) {
+            try {
+                deleteDelivered();
+
+                int taken = 0;
+                int room = Math.min(EVENTS_PER_BATCH, workers.getQueue().remainingCapacity());
+                if (room > 0) {
+                    List<OutboxEvent> events = outboxDAO.claimDue(room,
+                            new Date(System.currentTimeMillis() + LEASE_MILLIS));
+                    if (events != null) {
+                        for (OutboxEvent event : events) {
+                            // Only this thread submits, so the queue has room for every claimed event
+                            workers.execute(() -> deliver(event));
+                        }
+                        taken = events.size();
+                    }
+                }
+
+                // A full batch means more may be due already
+                if (taken < EVENTS_PER_BATCH) {
+                    synchronized (signal) {
+                        if (!woken) {
+                            signal.wait(POLL_MILLIS);
+                        }
+                        woken = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("Outbox poll failed: " + e.getMessage());
+                e.printStackTrace();
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void deliver(OutboxEvent event) {
+        List<OutboxHandler> registered = handlers.getOrDefault(event.getEventType(),
+                Collections.<OutboxHandler>emptyList());
+        try {
+            if (registered.isEmpty()) {
+                throw new IllegalStateException("No handler for outbox event type " + event.getEventType());
+            }
+            for (OutboxHandler handler : registered) {
+                handler.handle(event);
+            }
+            delivered.add(event.getId());
+        } catch (Exception e) {
+            int attempts = event.getAttempts() + 1;
+            boolean dead = attempts >= MAX_ATTEMPTS || registered.isEmpty();
+            Date retryAt = new Date(System.currentTimeMillis() + retryDelay(attempts));
+            System.err.println("Outbox event " + event.getId() + " (" + event.getEventType() + ") failed on attempt "
+                    + attempts + (dead ? ", giving up" : ", retrying at " + retryAt) + ": " + e.getMessage());
+            outboxDAO.reschedule(event.getId(), attempts, retryAt, String.valueOf(e), dead);
+        }
+    }
+
+    // Doubles from FIRST_RETRY_MILLIS up to MAX_RETRY_MILLIS, with up to 20% jitter so failures spread out
+    private static long retryDelay(int attempts) {
+        long delay = FIRST_RETRY_MILLIS << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, MAX_RETRY_MILLIS);
+        return delay + ThreadLocalRandom.current().nextLong(delay / 5 + 1);
+    }
+
+    private void deleteDelivered() {
+        List<Long> ids = new ArrayList<>();
+        for (Long id = delivered.poll(); id != null; id = delivered.poll()) {
+            ids.add(id);
+        }
+        // On failure the leases run out and the events are delivered again
+        if (!ids.isEmpty() && !outboxDAO.delete(ids)) {
+            System.err.println("Could not delete " + ids.size() + " delivered outbox events");
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package outbox;
+
+import hibernate.OutboxEvent;
+
+/**
+ * Reacts to one type of outbox event, on a dispatcher worker thread. Delivery
+ * is at least once: an event is handed over again after any handler for it
+ * throws, or when the server stops before the delivery was recorded, so
+ * handlers must cope with seeing the same event twice.
+ */
+public interface OutboxHandler {
+
+    void handle(OutboxEvent event) throws Exception;
+}
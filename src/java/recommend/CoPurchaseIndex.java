@@ -0,0 +1,284 @@
+package recommend;
+
+import dao.OrderDAO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import util.DataVersions;
+
+/**
+ * "Customers also bought": for every product, the products that appear in
+ * the same orders most often. A batch job feeds it the lines of orders placed
+ * since the previous run; pair counts are accumulated in primitive arrays and
+ * only the products touched by new orders have their top list recomputed.
+ *
+ * The published lists live in one flat long[] indexed by a sorted long[] of
+ * product ids, and are replaced as a whole, so lookups never lock.
+ */
+public class CoPurchaseIndex {
+
+    private static final CoPurchaseIndex INSTANCE = new CoPurchaseIndex();
+
+    public static final int TOP_N = 8;
+
+    // Orders younger than this may still be committing out of id order
+    private static final long SETTLE_MILLIS = 60_000L;
+    private static final int LINES_PER_BATCH = 5000;
+
+    // Open addressing table of pair key -> count, guarded by this
+    private long[] pairKeys = new long[1024];
+    private int[] pairCounts = new int[1024];
+    private int pairSize;
+    private long lastOrderId;
+
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new int[] { 0 }, new long[0]);
+
+    private CoPurchaseIndex() {
+    }
+
+    public static CoPurchaseIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Related product ids for the product, best first; empty for products
+     * that have never been ordered together with anything else.
+     */
+    public long[] getRelated(long productId) {
+        Snapshot current = snapshot;
+        int index = Arrays.binarySearch(current.productIds, productId);
+        if (index < 0) {
+            return new long[0];
+        }
+        return Arrays.copyOfRange(current.related, current.offsets[index], current.offsets[index + 1]);
+    }
+
+    /**
+     * Reads the orders placed since the last run and republishes the lists
+     * of every product they contain. Returns the number of orders processed.
+     */
+    public synchronized int refresh(OrderDAO orderDAO) {
+        Date settledBefore = new Date(System.currentTimeMillis() - SETTLE_MILLIS);
+        Set<Long> touched = new HashSet<>();
+        int orders = 0;
+
+        while (true) {
+            List<long[]> lines = orderDAO.getOrderLinesAfter(lastOrderId, settledBefore, LINES_PER_BATCH);
+            if (lines.isEmpty()) {
+                break;
+            }
+
+            // A full batch may end halfway through an order; leave that order for the next batch
+            int end = lines.size();
+            if (lines.size() == LINES_PER_BATCH) {
+                long lastId = lines.get(end - 1)[0];
+                while (end > 0 && lines.get(end - 1)[0] == lastId) {
+                    end--;
+                }
+                if (end == 0) {
+                    end = lines.size(); // one huge order, take what we have
+                }
+            }
+
+            int start = 0;
+            while (start < end) {
+                long orderId = lines.get(start)[0];
+                int next = start;
+                while (next < end && lines.get(next)[0] == orderId) {
+                    next++;
+                }
+                addOrder(lines.subList(start, next), touched);
+                lastOrderId = orderId;
+                orders++;
+                start = next;
+            }
+
+            if (lines.size() < LINES_PER_BATCH) {
+                break;
+            }
+        }
+
+        if (!touched.isEmpty()) {
+            publish(touched);
+        }
+        return orders;
+    }
+
+    private void addOrder(List<long[]> lines, Set<Long> touched) {
+        long[] products = new long[lines.size()];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = lines.get(i)[1];
+        }
+        Arrays.sort(products);
+
+        // The same product on two lines of one order counts once
+        int distinct = 0;
+        for (int i = 0; i < products.length; i++) {
+            if (i == 0 || products[i] != products[i - 1]) {
+                products[distinct++] = products[i];
+            }
+        }
+
+        for (int i = 0; i < distinct; i++) {
+            touched.add(products[i]);
+            for (int j = i + 1; j < distinct; j++) {
+                increment(pairKey(products[i], products[j]));
+            }
+        }
+    }
+
+    // Rebuilds the top lists of the touched products and keeps everything else from the last snapshot
+    private void publish(Set<Long> touched) {
+        long[] touchedIds = new long[touched.size()];
+        int t = 0;
+        for (Long id : touched) {
+            touchedIds[t++] = id;
+        }
+        Arrays.sort(touchedIds);
+
+        // Per touched product: parallel arrays of the best TOP_N partners and counts, best first
+        long[][] bestIds = new long[touchedIds.length][TOP_N];
+        int[][] bestCounts = new int[touchedIds.length][TOP_N];
+        int[] found = new int[touchedIds.length];
+
+        for (int slot = 0; slot < pairKeys.length; slot++) {
+            if (pairKeys[slot] == 0) {
+                continue;
+            }
+            long low = pairKeys[slot] >>> 32;
+            long high = pairKeys[slot] & 0xFFFFFFFFL;
+            int count = pairCounts[slot];
+
+            int lowIndex = Arrays.binarySearch(touchedIds, low);
+            if (lowIndex >= 0) {
+                offer(bestIds[lowIndex], bestCounts[lowIndex], found, lowIndex, high, count);
+            }
+            int highIndex = Arrays.binarySearch(touchedIds, high);
+            if (highIndex >= 0) {
+                offer(bestIds[highIndex], bestCounts[highIndex], found, highIndex, low, count);
+            }
+        }
+
+        // Merge the untouched lists of the previous snapshot with the new ones, by product id
+        Snapshot previous = snapshot;
+        List<Long> ids = new ArrayList<>();
+        List<long[]> lists = new ArrayList<>();
+        int p = 0;
+        int n = 0;
+        while (p < previous.productIds.length || n < touchedIds.length) {
+            boolean takeNew = p == previous.productIds.length
+                    || (n < touchedIds.length && touchedIds[n] <= previous.productIds[p]);
+            if (takeNew) {
+                if (p < previous.productIds.length && previous.productIds[p] == touchedIds[n]) {
+                    p++; // replaced
+                }
+                ids.add(touchedIds[n]);
+                lists.add(Arrays.copyOf(bestIds[n], found[n]));
+                n++;
+            } else {
+                ids.add(previous.productIds[p]);
+                lists.add(Arrays.copyOfRange(previous.related, previous.offsets[p], previous.offsets[p + 1]));
+                p++;
+            }
+        }
+
+        long[] productIds = new long[ids.size()];
+        int[] offsets = new int[ids.size() + 1];
+        int total = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            total += lists.get(i).length;
+        }
+        long[] related = new long[total];
+        int position = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            productIds[i] = ids.get(i);
+            offsets[i] = position;
+            long[] list = lists.get(i);
+            System.arraycopy(list, 0, related, position, list.length);
+            position += list.length;
+        }
+        offsets[ids.size()] = position;
+
+        snapshot = new Snapshot(productIds, offsets, related);
+        DataVersions.recommendationsChanged();
+    }
+
+    // Insertion into a small array kept ordered by count desc, then id asc
+    private static void offer(long[] ids, int[] counts, int[] found, int index, long id, int count) {
+        int size = found[index];
+        if (size == TOP_N && !ranksBefore(count, id, counts[TOP_N - 1], ids[TOP_N - 1])) {
+            return;
+        }
+        int position = Math.min(size, TOP_N - 1);
+        while (position > 0 && ranksBefore(count, id, counts[position - 1], ids[position - 1])) {
+            ids[position] = ids[position - 1];
+            counts[position] = counts[position - 1];
+            position--;
+        }
+        ids[position] = id;
+        counts[position] = count;
+        found[index] = Math.min(size + 1, TOP_N);
+    }
+
+    private static boolean ranksBefore(int count, long id, int otherCount, long otherId) {
+        return count > otherCount || (count == otherCount && id < otherId);
+    }
+
+    // Product ids are auto increment values well below 2^32
+    private static long pairKey(long a, long b) {
+        return (Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    private void increment(long key) {
+        if ((pairSize + 1) * 4 > pairKeys.length * 3) {
+            grow();
+        }
+        int slot = slot(key, pairKeys.length);
+        while (pairKeys[slot] != 0 && pairKeys[slot] != key) {
+            slot = (slot + 1) & (pairKeys.length - 1);
+        }
+        if (pairKeys[slot] == 0) {
+            pairKeys[slot] = key;
+            pairSize++;
+        }
+        pairCounts[slot]++;
+    }
+
+    private void grow() {
+        long[] oldKeys = pairKeys;
+        int[] oldCounts = pairCounts;
+        pairKeys = new long[oldKeys.length * 2];
+        pairCounts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(oldKeys[i], pairKeys.length);
+                while (pairKeys[slot] != 0) {
+                    slot = (slot + 1) & (pairKeys.length - 1);
+                }
+                pairKeys[slot] = oldKeys[i];
+                pairCounts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int capacity) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32) & (capacity - 1);
+    }
+
+    private static class Snapshot {
+        // Sorted product ids; related ids of productIds[i] are related[offsets[i]..offsets[i + 1])
+        final long[] productIds;
+        final int[] offsets;
+        final long[] related;
+
+        Snapshot(long[] productIds, int[] offsets, long[] related) {
+            this.productIds = productIds;
+            this.offsets = offsets;
+            this.related = related;
+        }
+    }
+}
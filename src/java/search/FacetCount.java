@@ -0,0 +1,21 @@
+package search;
+
+public class FacetCount {
+    private final String value;
+    private final String label;
+    private final int count;
+    private final boolean selected;
+
+    public FacetCount(String value, String label, int count, boolean selected) {
+        this.value = value;
+        this.label = label;
+        this.count = count;
+        this.selected = selected;
+    }
+
+    // Getters
+    public String getValue() { return value; }
+    public String getLabel() { return label; }
+    public int getCount() { return count; }
+    public boolean isSelected() { return selected; }
+}
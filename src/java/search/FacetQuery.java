@@ -0,0 +1,38 @@
+package search;
+
+import dao.ProductSort;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FacetQuery {
+    private String text;
+    private List<Long> categoryIds = new ArrayList<>();
+    private List<String> priceBuckets = new ArrayList<>();
+    private List<String> stockStatuses = new ArrayList<>();
+    private ProductSort sort = ProductSort.NEWEST;
+    private int offset;
+    private int limit = 20;
+
+    // Getters and Setters
+    public String getText() { return text; }
+    public void setText(String text) { this.text = text; }
+
+    // Values selected within one facet are OR-ed, facets are AND-ed together
+    public List<Long> getCategoryIds() { return categoryIds; }
+    public void setCategoryIds(List<Long> categoryIds) { this.categoryIds = categoryIds; }
+
+    public List<String> getPriceBuckets() { return priceBuckets; }
+    public void setPriceBuckets(List<String> priceBuckets) { this.priceBuckets = priceBuckets; }
+
+    public List<String> getStockStatuses() { return stockStatuses; }
+    public void setStockStatuses(List<String> stockStatuses) { this.stockStatuses = stockStatuses; }
+
+    public ProductSort getSort() { return sort; }
+    public void setSort(ProductSort sort) { this.sort = sort; }
+
+    public int getOffset() { return offset; }
+    public void setOffset(int offset) { this.offset = offset; }
+
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = limit; }
+}
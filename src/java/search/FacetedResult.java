@@ -0,0 +1,22 @@
+package search;
+
+import java.util.List;
+import java.util.Map;
+import model.ProductDTO;
+
+public class FacetedResult {
+    private final List<ProductDTO> items;
+    private final int total;
+    private final Map<String, List<FacetCount>> facets;
+
+    public FacetedResult(List<ProductDTO> items, int total, Map<String, List<FacetCount>> facets) {
+        this.items = items;
+        this.total = total;
+        this.facets = facets;
+    }
+
+    // Getters
+    public List<ProductDTO> getItems() { return items; }
+    public int getTotal() { return total; }
+    public Map<String, List<FacetCount>> getFacets() { return facets; }
+}
@@ -0,0 +1,720 @@
+package search;
+
+import catalog.CatalogSnapshot;
+import dao.ProductSort;
+import hibernate.Product;
+import inventory.ReservationIndex;
+import model.ProductDTO;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over product name, description and category name.
+ * Ranking is BM25 over field-weighted term frequencies. Every query term also
+ * matches vocabulary terms it is a prefix of, and terms of four or more
+ * characters match vocabulary terms within one edit (insert, delete,
+ * substitute or transpose), both with a reduced score.
+ *
+ * Facets (category, price bucket) are kept as one bitset per facet value over
+ * the same document slots, so a faceted page with counts is a handful of
+ * bitset intersections over the text matches. Stock status changes with
+ * every sale, so its bitsets are built per query from ReservationIndex for
+ * the matching documents only.
+ *
+ * Updates append a new document and tombstone the old one; the index compacts
+ * itself once tombstones outnumber live documents.
+ */
+public class ProductSearchIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final float NAME_WEIGHT = 3.0f;
+    private static final float CATEGORY_WEIGHT = 2.0f;
+    private static final float DESCRIPTION_WEIGHT = 1.0f;
+    private static final float PREFIX_PENALTY = 0.7f;
+    private static final float FUZZY_PENALTY = 0.5f;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    private static final int MIN_COMPACT_TOMBSTONES = 64;
+
+    // Same threshold as the admin dashboard low stock count
+    public static final int LOW_STOCK_THRESHOLD = 10;
+    private static final int[] PRICE_BOUNDS = { 0, 50, 100, 250, 500, 1000 };
+    private static final String[] STOCK_STATUSES = { "in_stock", "low_stock", "out_of_stock" };
+    private static final String[] STOCK_LABELS = { "In stock", "Low stock", "Out of stock" };
+    private static final String[] PRICE_KEYS = priceKeys();
+
+    // Declared after the constants above, which instance initialization uses
+    private static final ProductSearchIndex INSTANCE = new ProductSearchIndex();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // term -> postings; sorted so prefix expansion is a range scan
+    private TreeMap<String, PostingList> postings = new TreeMap<>();
+    // single-delete variant -> vocabulary terms producing it (symmetric delete)
+    private Map<String, List<String>> deleteVariants = new HashMap<>();
+    private Map<Long, Integer> docByProduct = new HashMap<>();
+    private ProductDTO[] docs = new ProductDTO[256];
+    private float[] docLengths = new float[256];
+    private int docCount;
+    private int liveDocs;
+    private BitSet liveBits = new BitSet();
+    private Map<Long, BitSet> categoryBits = new HashMap<>();
+    private Map<Long, String> categoryNames = new HashMap<>();
+    private BitSet[] priceBits = newBitSets(PRICE_BOUNDS.length);
+    private double totalLength;
+    private volatile boolean ready;
+
+    private ProductSearchIndex() {
+    }
+
+    public static ProductSearchIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Replaces the whole index, used at startup
+    public void rebuild(List<Product> products) {
+        List<ProductDTO> dtos = new ArrayList<>(products.size());
+        for (Product product : products) {
+            dtos.add(new ProductDTO(product));
+        }
+
+        lock.writeLock().lock();
+        try {
+            reset(dtos.size());
+            for (ProductDTO dto : dtos) {
+                addDocument(dto);
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Search index built with " + dtos.size() + " products");
+    }
+
+    // Adds or replaces a product; its category must be initialized
+    public void index(Product product) {
+        if (product == null || product.getId() == null) {
+            return;
+        }
+        ProductDTO dto = new ProductDTO(product);
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(dto.getId());
+            addDocument(dto);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-indexes the products filed under a category that was renamed or
+     * deleted, since its name is indexed as a term and a facet label. Takes
+     * the products from a catalog snapshot built after the change: those it
+     * lists under the category, and those indexed under it before.
+     */
+    public void reindexCategory(Long categoryId, CatalogSnapshot catalog) {
+        List<ProductDTO> products = catalog.list(categoryId, ProductSort.NEWEST, 0, Integer.MAX_VALUE);
+
+        lock.writeLock().lock();
+        try {
+            List<Long> previous = new ArrayList<>();
+            BitSet bits = categoryBits.get(categoryId);
+            if (bits != null) {
+                for (int doc = bits.nextSetBit(0); doc >= 0; doc = bits.nextSetBit(doc + 1)) {
+                    previous.add(docs[doc].getId());
+                }
+            }
+            for (Long productId : previous) {
+                removeDocument(productId);
+            }
+            categoryBits.remove(categoryId);
+            categoryNames.remove(categoryId);
+
+            for (Long productId : previous) {
+                ProductDTO dto = catalog.getProduct(productId);
+                if (dto != null && !categoryId.equals(dto.getCategoryId())) {
+                    addDocument(dto);
+                }
+            }
+            for (ProductDTO dto : products) {
+                removeDocument(dto.getId());
+                addDocument(dto);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranked search. All query terms must match. With NEWEST (or null) the
+     * results are ordered by relevance, otherwise by the requested sort key.
+     */
+    public SearchHits search(String query, Long categoryId, ProductSort sort, int offset, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new SearchHits(new ArrayList<ProductDTO>(), 0);
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Float> scores = matchTerms(terms);
+
+            List<Integer> hits = new ArrayList<>();
+            for (Integer doc : scores.keySet()) {
+                ProductDTO dto = docs[doc];
+                if (dto != null && (categoryId == null || categoryId.equals(dto.getCategoryId()))) {
+                    hits.add(doc);
+                }
+            }
+
+            Collections.sort(hits, hitComparator(sort, scores));
+            return new SearchHits(slice(hits, offset, limit), hits.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Faceted listing: optional free text plus category, price bucket and stock
+     * filters. Each facet's counts apply every other facet's filter but not its
+     * own, so the UI can show how many results selecting another value yields.
+     */
+    public FacetedResult facetedSearch(FacetQuery query) {
+        List<String> terms = tokenize(query.getText());
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Float> scores = null;
+            BitSet base;
+            if (terms.isEmpty()) {
+                base = (BitSet) liveBits.clone();
+            } else {
+                scores = matchTerms(terms);
+                base = new BitSet(docCount);
+                for (Integer doc : scores.keySet()) {
+                    base.set(doc);
+                }
+                base.and(liveBits);
+            }
+
+            BitSet categoryFilter = null;
+            if (!query.getCategoryIds().isEmpty()) {
+                categoryFilter = new BitSet(docCount);
+                for (Long categoryId : query.getCategoryIds()) {
+                    BitSet bits = categoryBits.get(categoryId);
+                    if (bits != null) {
+                        categoryFilter.or(bits);
+                    }
+                }
+            }
+            BitSet[] stockBits = stockBits(base);
+            BitSet priceFilter = union(priceBits, query.getPriceBuckets(), PRICE_KEYS);
+            BitSet stockFilter = union(stockBits, query.getStockStatuses(), STOCK_STATUSES);
+
+            Map<String, List<FacetCount>> facets = new LinkedHashMap<>();
+            facets.put("category", categoryCounts(intersect(base, priceFilter, stockFilter), query.getCategoryIds()));
+            facets.put("price", valueCounts(intersect(base, categoryFilter, stockFilter), priceBits,
+                    PRICE_KEYS, PRICE_KEYS, query.getPriceBuckets()));
+            facets.put("stock", valueCounts(intersect(base, categoryFilter, priceFilter), stockBits,
+                    STOCK_STATUSES, STOCK_LABELS, query.getStockStatuses()));
+
+            BitSet result = intersect(base, categoryFilter, priceFilter, stockFilter);
+            List<Integer> hits = new ArrayList<>(result.cardinality());
+            for (int doc = result.nextSetBit(0); doc >= 0; doc = result.nextSetBit(doc + 1)) {
+                hits.add(doc);
+            }
+            Collections.sort(hits, hitComparator(query.getSort(), scores));
+
+            return new FacetedResult(slice(hits, query.getOffset(), query.getLimit()), hits.size(), facets);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Documents matching every term, with the summed term scores
+    private Map<Integer, Float> matchTerms(List<String> terms) {
+        Map<Integer, Float> scores = null;
+        double avgLength = liveDocs > 0 ? totalLength / liveDocs : 1.0;
+
+        for (String term : new LinkedHashSet<>(terms)) {
+            Map<Integer, Float> termScores = scoreTerm(term, avgLength);
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<Integer, Float> combined = new HashMap<>();
+                for (Map.Entry<Integer, Float> entry : scores.entrySet()) {
+                    Float termScore = termScores.get(entry.getKey());
+                    if (termScore != null) {
+                        combined.put(entry.getKey(), entry.getValue() + termScore);
+                    }
+                }
+                scores = combined;
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    private List<ProductDTO> slice(List<Integer> hits, int offset, int limit) {
+        int total = hits.size();
+        int from = Math.max(0, Math.min(offset, total));
+        int to = (int) Math.min((long) from + Math.max(0, limit), total);
+        List<ProductDTO> items = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            items.add(docs[hits.get(i)]);
+        }
+        return items;
+    }
+
+    private List<FacetCount> categoryCounts(BitSet scope, List<Long> selected) {
+        List<FacetCount> counts = new ArrayList<>();
+        for (Map.Entry<Long, BitSet> entry : categoryBits.entrySet()) {
+            BitSet bits = (BitSet) entry.getValue().clone();
+            bits.and(scope);
+            int count = bits.cardinality();
+            boolean isSelected = selected.contains(entry.getKey());
+            if (count > 0 || isSelected) {
+                counts.add(new FacetCount(String.valueOf(entry.getKey()), categoryNames.get(entry.getKey()), count, isSelected));
+            }
+        }
+        Collections.sort(counts, (a, b) -> a.getCount() != b.getCount()
+                ? Integer.compare(b.getCount(), a.getCount())
+                : String.valueOf(a.getLabel()).compareToIgnoreCase(String.valueOf(b.getLabel())));
+        return counts;
+    }
+
+    private List<FacetCount> valueCounts(BitSet scope, BitSet[] valueBits, String[] keys, String[] labels, List<String> selected) {
+        List<FacetCount> counts = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            BitSet bits = (BitSet) valueBits[i].clone();
+            bits.and(scope);
+            counts.add(new FacetCount(keys[i], labels[i], bits.cardinality(), selected.contains(keys[i])));
+        }
+        return counts;
+    }
+
+    private static BitSet union(BitSet[] valueBits, List<String> selected, String[] keys) {
+        if (selected.isEmpty()) {
+            return null;
+        }
+        BitSet bits = new BitSet();
+        for (String value : selected) {
+            int index = Arrays.asList(keys).indexOf(value);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown facet value: " + value);
+            }
+            bits.or(valueBits[index]);
+        }
+        return bits;
+    }
+
+    // Null filters mean "not filtered"
+    private static BitSet intersect(BitSet base, BitSet... filters) {
+        BitSet bits = (BitSet) base.clone();
+        for (BitSet filter : filters) {
+            if (filter != null) {
+                bits.and(filter);
+            }
+        }
+        return bits;
+    }
+
+    private static String[] priceKeys() {
+        String[] keys = new String[PRICE_BOUNDS.length];
+        for (int i = 0; i < PRICE_BOUNDS.length; i++) {
+            keys[i] = i + 1 < PRICE_BOUNDS.length
+                    ? PRICE_BOUNDS[i] + "-" + PRICE_BOUNDS[i + 1]
+                    : PRICE_BOUNDS[i] + "+";
+        }
+        return keys;
+    }
+
+    private static int priceBucket(ProductDTO dto) {
+        if (dto.getPrice() == null) {
+            return 0;
+        }
+        for (int i = PRICE_BOUNDS.length - 1; i > 0; i--) {
+            if (dto.getPrice().compareTo(BigDecimal.valueOf(PRICE_BOUNDS[i])) >= 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // Stock status of every document in scope, from the units available now
+    private BitSet[] stockBits(BitSet scope) {
+        BitSet[] bits = newBitSets(STOCK_STATUSES.length);
+        for (int doc = scope.nextSetBit(0); doc >= 0; doc = scope.nextSetBit(doc + 1)) {
+            bits[stockStatus(ReservationIndex.getInstance().available(docs[doc]))].set(doc);
+        }
+        return bits;
+    }
+
+    private static int stockStatus(int available) {
+        if (available <= 0) {
+            return 2;
+        }
+        return available <= LOW_STOCK_THRESHOLD ? 1 : 0;
+    }
+
+    private static BitSet[] newBitSets(int count) {
+        BitSet[] sets = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            sets[i] = new BitSet();
+        }
+        return sets;
+    }
+
+    // Best score per document for one query term across exact, prefix and fuzzy expansions
+    private Map<Integer, Float> scoreTerm(String term, double avgLength) {
+        Map<Integer, Float> termScores = new HashMap<>();
+
+        PostingList exact = postings.get(term);
+        if (exact != null) {
+            accumulate(termScores, exact, 1.0f, avgLength);
+        }
+
+        if (term.length() >= MIN_PREFIX_LENGTH) {
+            NavigableMap<String, PostingList> range = postings.subMap(term, false, term + Character.MAX_VALUE, false);
+            int expansions = 0;
+            for (PostingList list : range.values()) {
+                if (++expansions > MAX_PREFIX_EXPANSIONS) {
+                    break;
+                }
+                accumulate(termScores, list, PREFIX_PENALTY, avgLength);
+            }
+        }
+
+        if (term.length() >= MIN_FUZZY_LENGTH) {
+            for (String candidate : fuzzyCandidates(term)) {
+                accumulate(termScores, postings.get(candidate), FUZZY_PENALTY, avgLength);
+            }
+        }
+        return termScores;
+    }
+
+    private void accumulate(Map<Integer, Float> termScores, PostingList list, float penalty, double avgLength) {
+        if (list == null || list.live == 0) {
+            return;
+        }
+        double n = Math.max(liveDocs, 1);
+        double df = list.live;
+        double idf = Math.log(1.0 + (n - df + 0.5) / (df + 0.5));
+
+        for (int i = 0; i < list.size; i++) {
+            int doc = list.docs[i];
+            if (docs[doc] == null) {
+                continue;
+            }
+            float tf = list.weights[i];
+            double norm = K1 * (1 - B + B * docLengths[doc] / avgLength);
+            float score = (float) (idf * (tf * (K1 + 1)) / (tf + norm)) * penalty;
+            Float previous = termScores.get(doc);
+            if (previous == null || previous < score) {
+                termScores.put(doc, score);
+            }
+        }
+    }
+
+    // Vocabulary terms within one edit of the query term, excluding the term itself
+    private Set<String> fuzzyCandidates(String term) {
+        Set<String> candidates = new LinkedHashSet<>();
+        addVerified(candidates, term, deleteVariants.get(term));
+        for (String variant : deletes(term)) {
+            if (postings.containsKey(variant)) {
+                candidates.add(variant);
+            }
+            addVerified(candidates, term, deleteVariants.get(variant));
+        }
+        candidates.remove(term);
+        return candidates;
+    }
+
+    private void addVerified(Set<String> candidates, String term, List<String> terms) {
+        if (terms == null) {
+            return;
+        }
+        for (String candidate : terms) {
+            if (withinOneEdit(term, candidate)) {
+                candidates.add(candidate);
+            }
+        }
+    }
+
+    private Comparator<Integer> hitComparator(ProductSort sort, final Map<Integer, Float> scores) {
+        if ((sort == null || sort == ProductSort.NEWEST) && scores == null) {
+            return (a, b) -> compareDates(docs[b], docs[a]);
+        }
+        if (sort == null || sort == ProductSort.NEWEST) {
+            return (a, b) -> {
+                int cmp = Float.compare(scores.get(b), scores.get(a));
+                return cmp != 0 ? cmp : compareDates(docs[b], docs[a]);
+            };
+        }
+        switch (sort) {
+            case PRICE_LOW:
+                return (a, b) -> comparePrices(docs[a], docs[b]);
+            case PRICE_HIGH:
+                return (a, b) -> comparePrices(docs[b], docs[a]);
+            case NAME:
+            default:
+                return (a, b) -> {
+                    int cmp = docs[a].getName().compareToIgnoreCase(docs[b].getName());
+                    return cmp != 0 ? cmp : Long.compare(docs[a].getId(), docs[b].getId());
+                };
+        }
+    }
+
+    // Ties fall back to the id, as in CatalogSnapshot, so paging never repeats or skips a product
+    private static int comparePrices(ProductDTO a, ProductDTO b) {
+        int cmp = a.getPrice().compareTo(b.getPrice());
+        return cmp != 0 ? cmp : Long.compare(a.getId(), b.getId());
+    }
+
+    private static int compareDates(ProductDTO a, ProductDTO b) {
+        if (a.getCreatedAt() == null || b.getCreatedAt() == null) {
+            return Long.compare(a.getId(), b.getId());
+        }
+        int cmp = a.getCreatedAt().compareTo(b.getCreatedAt());
+        return cmp != 0 ? cmp : Long.compare(a.getId(), b.getId());
+    }
+
+    private void reset(int expected) {
+        int capacity = Math.max(256, expected * 2);
+        postings = new TreeMap<>();
+        deleteVariants = new HashMap<>();
+        docByProduct = new HashMap<>();
+        docs = new ProductDTO[capacity];
+        docLengths = new float[capacity];
+        docCount = 0;
+        liveDocs = 0;
+        totalLength = 0;
+        liveBits = new BitSet(capacity);
+        categoryBits = new HashMap<>();
+        categoryNames = new HashMap<>();
+        priceBits = newBitSets(PRICE_BOUNDS.length);
+    }
+
+    private void addDocument(ProductDTO dto) {
+        if (docCount == docs.length) {
+            docs = Arrays.copyOf(docs, docs.length * 2);
+            docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+        }
+        int doc = docCount++;
+
+        Map<String, Float> weights = new HashMap<>();
+        float length = addFields(weights, dto);
+
+        for (Map.Entry<String, Float> entry : weights.entrySet()) {
+            PostingList list = postings.get(entry.getKey());
+            if (list == null) {
+                list = new PostingList();
+                postings.put(entry.getKey(), list);
+                registerDeletes(entry.getKey());
+            }
+            list.add(doc, entry.getValue());
+        }
+
+        docs[doc] = dto;
+        docLengths[doc] = length;
+        docByProduct.put(dto.getId(), doc);
+        liveDocs++;
+        totalLength += length;
+
+        liveBits.set(doc);
+        if (dto.getCategoryId() != null) {
+            BitSet bits = categoryBits.get(dto.getCategoryId());
+            if (bits == null) {
+                bits = new BitSet();
+                categoryBits.put(dto.getCategoryId(), bits);
+            }
+            bits.set(doc);
+            categoryNames.put(dto.getCategoryId(), dto.getCategoryName());
+        }
+        priceBits[priceBucket(dto)].set(doc);
+    }
+
+    private float addFields(Map<String, Float> weights, ProductDTO dto) {
+        float length = 0;
+        length += addField(weights, dto.getName(), NAME_WEIGHT);
+        length += addField(weights, dto.getCategoryId() != null ? dto.getCategoryName() : null, CATEGORY_WEIGHT);
+        length += addField(weights, dto.getDescription(), DESCRIPTION_WEIGHT);
+        return length;
+    }
+
+    private float addField(Map<String, Float> weights, String text, float weight) {
+        List<String> tokens = tokenize(text);
+        for (String token : tokens) {
+            Float current = weights.get(token);
+            weights.put(token, current != null ? current + weight : weight);
+        }
+        return tokens.size() * weight;
+    }
+
+    private void removeDocument(Long productId) {
+        Integer doc = docByProduct.remove(productId);
+        if (doc == null) {
+            return;
+        }
+        ProductDTO dto = docs[doc];
+        docs[doc] = null;
+        liveDocs--;
+        totalLength -= docLengths[doc];
+
+        // Tombstoned slots stay in the posting lists until compaction, but no longer count towards df
+        Map<String, Float> weights = new HashMap<>();
+        addFields(weights, dto);
+        for (String term : weights.keySet()) {
+            PostingList list = postings.get(term);
+            if (list != null) {
+                list.live--;
+            }
+        }
+
+        liveBits.clear(doc);
+        if (dto.getCategoryId() != null) {
+            categoryBits.get(dto.getCategoryId()).clear(doc);
+        }
+        priceBits[priceBucket(dto)].clear(doc);
+
+        int tombstones = docCount - liveDocs;
+        if (tombstones >= MIN_COMPACT_TOMBSTONES && tombstones > liveDocs) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        List<ProductDTO> live = new ArrayList<>(liveDocs);
+        for (int i = 0; i < docCount; i++) {
+            if (docs[i] != null) {
+                live.add(docs[i]);
+            }
+        }
+        reset(live.size());
+        for (ProductDTO dto : live) {
+            addDocument(dto);
+        }
+    }
+
+    private void registerDeletes(String term) {
+        if (term.length() < MIN_FUZZY_LENGTH) {
+            return;
+        }
+        for (String variant : deletes(term)) {
+            List<String> terms = deleteVariants.get(variant);
+            if (terms == null) {
+                terms = new ArrayList<>(2);
+                deleteVariants.put(variant, terms);
+            }
+            terms.add(term);
+        }
+    }
+
+    private static Set<String> deletes(String term) {
+        Set<String> variants = new LinkedHashSet<>();
+        for (int i = 0; i < term.length(); i++) {
+            variants.add(term.substring(0, i) + term.substring(i + 1));
+        }
+        return variants;
+    }
+
+    // Optimal string alignment distance <= 1
+    static boolean withinOneEdit(String a, String b) {
+        int la = a.length();
+        int lb = b.length();
+        if (Math.abs(la - lb) > 1) {
+            return false;
+        }
+        int i = 0;
+        while (i < la && i < lb && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (la == lb) {
+            if (i == la) {
+                return true;
+            }
+            if (a.substring(i + 1).equals(b.substring(i + 1))) {
+                return true;
+            }
+            return i + 1 < la
+                    && a.charAt(i) == b.charAt(i + 1)
+                    && a.charAt(i + 1) == b.charAt(i)
+                    && a.substring(i + 2).equals(b.substring(i + 2));
+        }
+        return la > lb
+                ? a.substring(i + 1).equals(b.substring(i))
+                : a.substring(i).equals(b.substring(i + 1));
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static class PostingList {
+        int[] docs = new int[4];
+        float[] weights = new float[4];
+        int size;
+        int live;
+
+        void add(int doc, float weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+            live++;
+        }
+    }
+}
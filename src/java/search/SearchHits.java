@@ -0,0 +1,20 @@
+package search;
+
+import java.util.List;
+import model.ProductDTO;
+
+public class SearchHits {
+    private final List<ProductDTO> items;
+    private final int total;
+
+    public SearchHits(List<ProductDTO> items, int total) {
+        this.items = items;
+        this.total = total;
+    }
+
+    // Requested slice of the ranked results
+    public List<ProductDTO> getItems() { return items; }
+
+    // Number of matching products before slicing
+    public int getTotal() { return total; }
+}
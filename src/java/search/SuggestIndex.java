@@ -0,0 +1,291 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Typeahead over product and category names. Every word start of a name is a
+ * key in one sorted array, so a prefix lookup is a binary search followed by a
+ * short range scan. Prefixes of one or two characters have their top
+ * suggestions precomputed because their ranges are large.
+ *
+ * The arrays are immutable and replaced as a whole on every change, so
+ * lookups never lock.
+ */
+public class SuggestIndex {
+
+    private static final SuggestIndex INSTANCE = new SuggestIndex();
+
+    private static final int SHORT_PREFIX_LENGTH = 2;
+    private static final int PRECOMPUTED_SUGGESTIONS = 20;
+
+    // How often popularity is reloaded from order lines; can be set with -D on the server command line
+    public static final long SALES_REFRESH_MINUTES = Long.getLong("suggest.salesRefreshMinutes", 10L);
+
+    // Source data, guarded by this
+    private final Map<Long, String> productNames = new HashMap<>();
+    private final Map<Long, Long> productCategories = new HashMap<>();
+    private final Map<Long, String> categoryNames = new HashMap<>();
+    private final Map<Long, Long> unitsSold = new HashMap<>();
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new int[0], new Suggestion[0],
+            new HashMap<String, Suggestion[]>());
+
+    private SuggestIndex() {
+    }
+
+    public static SuggestIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Replaces all source data; names are keyed by id and popularity is the
+     * number of units sold per product.
+     */
+    public synchronized void rebuild(Map<Long, String> products, Map<Long, Long> categoriesByProduct,
+            Map<Long, String> categories, Map<Long, Long> sales) {
+        productNames.clear();
+        productNames.putAll(products);
+        productCategories.clear();
+        productCategories.putAll(categoriesByProduct);
+        categoryNames.clear();
+        categoryNames.putAll(categories);
+        unitsSold.clear();
+        unitsSold.putAll(sales);
+        publish();
+    }
+
+    /**
+     * Replaces the units sold per product, republishing only when they
+     * changed. Returns whether they did.
+     */
+    public synchronized boolean updateSales(Map<Long, Long> sales) {
+        if (unitsSold.equals(sales)) {
+            return false;
+        }
+        unitsSold.clear();
+        unitsSold.putAll(sales);
+        publish();
+        return true;
+    }
+
+    public synchronized void putProduct(Long id, String name, Long categoryId) {
+        productNames.put(id, name);
+        productCategories.put(id, categoryId);
+        publish();
+    }
+
+    public synchronized void removeProduct(Long id) {
+        productNames.remove(id);
+        productCategories.remove(id);
+        publish();
+    }
+
+    public synchronized void putCategory(Long id, String name) {
+        categoryNames.put(id, name);
+        publish();
+    }
+
+    public synchronized void removeCategory(Long id) {
+        categoryNames.remove(id);
+        publish();
+    }
+
+    public List<Suggestion> suggest(String prefix, int limit) {
+        List<Suggestion> results = new ArrayList<>();
+        String key = normalize(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return results;
+        }
+
+        Snapshot current = snapshot;
+        if (key.length() <= SHORT_PREFIX_LENGTH) {
+            Suggestion[] top = current.shortPrefixes.get(key);
+            if (top != null) {
+                results.addAll(Arrays.asList(top).subList(0, Math.min(limit, top.length)));
+            }
+            return results;
+        }
+
+        // Range scan over every key starting with the prefix, keeping the best `limit` ranks
+        int[] best = new int[limit];
+        int found = 0;
+        for (int i = lowerBound(current.keys, key); i < current.keys.length && current.keys[i].startsWith(key); i++) {
+            int rank = current.ranks[i];
+            if (found == limit && rank >= best[limit - 1]) {
+                continue;
+            }
+            int position = found;
+            while (position > 0 && rank < best[position - 1]) {
+                position--;
+            }
+            if (position > 0 && best[position - 1] == rank) {
+                continue; // same suggestion reached through another word
+            }
+            int end = Math.min(found, limit - 1);
+            System.arraycopy(best, position, best, position + 1, end - position);
+            best[position] = rank;
+            found = Math.min(found + 1, limit);
+        }
+        for (int i = 0; i < found; i++) {
+            results.add(current.byRank[best[i]]);
+        }
+        return results;
+    }
+
+    private void publish() {
+        Map<Long, Long> categoryWeights = new HashMap<>();
+        List<Suggestion> suggestions = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : productNames.entrySet()) {
+            Long sold = unitsSold.get(entry.getKey());
+            long weight = 1 + (sold != null ? sold : 0);
+            suggestions.add(new Suggestion(entry.getValue(), "product", entry.getKey(), weight));
+
+            Long categoryId = productCategories.get(entry.getKey());
+            if (categoryId != null) {
+                Long current = categoryWeights.get(categoryId);
+                categoryWeights.put(categoryId, (current != null ? current : 0) + weight);
+            }
+        }
+        for (Map.Entry<Long, String> entry : categoryNames.entrySet()) {
+            Long weight = categoryWeights.get(entry.getKey());
+            suggestions.add(new Suggestion(entry.getValue(), "category", entry.getKey(), weight != null ? weight : 1));
+        }
+
+        // Ranks turn the popularity order into int comparisons during lookups
+        Suggestion[] byRank = suggestions.toArray(new Suggestion[0]);
+        Arrays.sort(byRank, ORDER);
+        Map<Suggestion, Integer> rankOf = new IdentityHashMap<>();
+        for (int i = 0; i < byRank.length; i++) {
+            rankOf.put(byRank[i], i);
+        }
+
+        List<Object[]> pairs = new ArrayList<>();
+        for (Suggestion suggestion : suggestions) {
+            for (String key : wordStarts(suggestion.getText())) {
+                pairs.add(new Object[] { key, suggestion });
+            }
+        }
+        pairs.sort(Comparator.comparing((Object[] pair) -> (String) pair[0]));
+
+        String[] keys = new String[pairs.size()];
+        Suggestion[] targets = new Suggestion[pairs.size()];
+        int[] ranks = new int[pairs.size()];
+        Map<String, Set<Suggestion>> shortLists = new HashMap<>();
+        for (int i = 0; i < pairs.size(); i++) {
+            keys[i] = (String) pairs.get(i)[0];
+            targets[i] = (Suggestion) pairs.get(i)[1];
+            ranks[i] = rankOf.get(targets[i]);
+            for (int length = 1; length <= Math.min(SHORT_PREFIX_LENGTH, keys[i].length()); length++) {
+                String shortKey = keys[i].substring(0, length);
+                Set<Suggestion> set = shortLists.get(shortKey);
+                if (set == null) {
+                    set = new LinkedHashSet<>();
+                    shortLists.put(shortKey, set);
+                }
+                set.add(targets[i]);
+            }
+        }
+
+        Map<String, Suggestion[]> shortPrefixes = new HashMap<>();
+        for (Map.Entry<String, Set<Suggestion>> entry : shortLists.entrySet()) {
+            List<Suggestion> list = new ArrayList<>(entry.getValue());
+            list.sort(ORDER);
+            shortPrefixes.put(entry.getKey(), list.subList(0, Math.min(PRECOMPUTED_SUGGESTIONS, list.size()))
+                    .toArray(new Suggestion[0]));
+        }
+
+        snapshot = new Snapshot(keys, ranks, byRank, shortPrefixes);
+    }
+
+    // "Samsung Galaxy S21" -> "samsung galaxy s21", "galaxy s21", "s21"
+    private static List<String> wordStarts(String text) {
+        List<String> keys = new ArrayList<>();
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return keys;
+        }
+        keys.add(normalized);
+        for (int i = 1; i < normalized.length(); i++) {
+            if (normalized.charAt(i - 1) == ' ') {
+                keys.add(normalized.substring(i));
+            }
+        }
+        return keys;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Most popular first, then shorter and alphabetical
+    private static final Comparator<Suggestion> ORDER = (a, b) -> {
+        if (a.getWeight() != b.getWeight()) {
+            return Long.compare(b.getWeight(), a.getWeight());
+        }
+        if (a.getText().length() != b.getText().length()) {
+            return Integer.compare(a.getText().length(), b.getText().length());
+        }
+        return a.getText().compareToIgnoreCase(b.getText());
+    };
+
+    private static class Snapshot {
+        final String[] keys;
+        // Popularity rank of the suggestion each key points to
+        final int[] ranks;
+        final Suggestion[] byRank;
+        final Map<String, Suggestion[]> shortPrefixes;
+
+        Snapshot(String[] keys, int[] ranks, Suggestion[] byRank, Map<String, Suggestion[]> shortPrefixes) {
+            this.keys = keys;
+            this.ranks = ranks;
+            this.byRank = byRank;
+            this.shortPrefixes = shortPrefixes;
+        }
+    }
+
+    public static class Suggestion {
+        private final String text;
+        private final String type;
+        private final Long id;
+        private final transient long weight;
+
+        public Suggestion(String text, String type, Long id, long weight) {
+            this.text = text;
+            this.type = type;
+            this.id = id;
+            this.weight = weight;
+        }
+
+        // Getters
+        public String getText() { return text; }
+        public String getType() { return type; }
+        public Long getId() { return id; }
+        public long getWeight() { return weight; }
+    }
+}
@@ -0,0 +1,55 @@
+package util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Conditional GET for JSON endpoints. The ETag is derived from data versions
+ * only, so it can be checked before any database or serialisation work.
+ */
+public class ConditionalGet {
+
+    // Versions restart at zero on every deployment; the epoch keeps old tags from matching
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Adds ETag and Last-Modified for the given versions and answers 304 when
+     * the client already has this representation. Only If-None-Match is
+     * honoured: HTTP dates have second precision, so If-Modified-Since would
+     * hide changes made within the second of the client's copy. Returns true
+     * when the response is complete and the caller must not write a body.
+     */
+    public static boolean isNotModified(HttpServletRequest request, HttpServletResponse response,
+            DataVersions.Version... versions) {
+        StringBuilder tag = new StringBuilder("\"").append(EPOCH);
+        long lastModified = 0;
+        for (DataVersions.Version version : versions) {
+            tag.append('-').append(version.getCounter());
+            lastModified = Math.max(lastModified, version.getLastModified());
+        }
+        String etag = tag.append('"').toString();
+
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        // Cache, but revalidate on every use so polling turns into cheap 304s
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean notModified = ifNoneMatch != null && matches(ifNoneMatch, etag);
+
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
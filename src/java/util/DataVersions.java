@@ -0,0 +1,83 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change counters for the data behind the read-only JSON endpoints. Every
+ * write bumps the counters of what it touched; ConditionalGet turns them
+ * into ETags. A product or category change also bumps the catalog, since
+ * listings embed both.
+ */
+public class DataVersions {
+
+    private static final Version CATALOG = new Version(0);
+    private static final Version CATEGORIES = new Version(0);
+    private static final Version ORDERS = new Version(0);
+    private static final Version USERS = new Version(0);
+    private static final Version RECOMMENDATIONS = new Version(0);
+    private static final ConcurrentMap<Long, Version> PRODUCTS = new ConcurrentHashMap<>();
+    // Shared by every product that has not changed on its own since startup
+    private static final Version PRODUCT_DEFAULT = new Version(0);
+
+    public static Version catalog() { return CATALOG; }
+    public static Version categories() { return CATEGORIES; }
+    public static Version orders() { return ORDERS; }
+    public static Version users() { return USERS; }
+    public static Version recommendations() { return RECOMMENDATIONS; }
+
+    public static Version product(Long productId) {
+        Version version = PRODUCTS.get(productId);
+        return version != null ? version : PRODUCT_DEFAULT;
+    }
+
+    public static void productChanged(Long productId) {
+        // Continue from the shared counter so the product's next tag differs from its current one
+        PRODUCTS.computeIfAbsent(productId, id -> new Version(PRODUCT_DEFAULT.getCounter())).bump();
+        CATALOG.bump();
+    }
+
+    public static void categoriesChanged() {
+        CATEGORIES.bump();
+        CATALOG.bump();
+    }
+
+    // Bulk changes such as a snapshot reload, where individual products are unknown
+    public static void catalogChanged() {
+        PRODUCT_DEFAULT.bump();
+        for (Version version : PRODUCTS.values()) {
+            version.bump();
+        }
+        CATALOG.bump();
+    }
+
+    public static void ordersChanged() {
+        ORDERS.bump();
+    }
+
+    public static void usersChanged() {
+        USERS.bump();
+    }
+
+    public static void recommendationsChanged() {
+        RECOMMENDATIONS.bump();
+    }
+
+    public static class Version {
+        private final AtomicLong counter;
+        private volatile long lastModified = System.currentTimeMillis();
+
+        Version(long start) {
+            counter = new AtomicLong(start);
+        }
+
+        void bump() {
+            counter.incrementAndGet();
+            lastModified = System.currentTimeMillis();
+        }
+
+        public long getCounter() { return counter.get(); }
+        public long getLastModified() { return lastModified; }
+    }
+}
@@ -5,6 +5,8 @@ class CheckoutManager {
         this.baseUrl = window.location.origin + this.contextPath;
         this.cartItems = [];
         this.totals = {};
+        // One key per checkout attempt, so a retry or double click cannot place a second order
+        this.orderKey = this.newIdempotencyKey();
         
         console.log('🔧 Context Path:', this.contextPath);
         console.log('🔧 Base URL:', this.baseUrl);
@@ -152,6 +154,7 @@ class CheckoutManager {
                 method: 'POST',
                 headers: {
                     'Content-Type': 'application/x-www-form-urlencoded',
+                    'Idempotency-Key': this.orderKey
                 },
                 credentials: 'include',
                 body: new URLSearchParams({
@@ -175,6 +178,13 @@ class CheckoutManager {
             throw error;
         }
     }
+
+    newIdempotencyKey() {
+        if (window.crypto && typeof window.crypto.randomUUID === 'function') {
+            return window.crypto.randomUUID();
+        }
+        return Date.now().toString(36) + '-' + Math.random().toString(36).slice(2) + Math.random().toString(36).slice(2);
+    }
 }
 
 // Process payment based on selected method - SIMPLIFIED VERSION
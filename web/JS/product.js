@@ -155,14 +155,6 @@ class ProductManager {
             return;
         }
 
-        if (!window.sessionManager.isLoggedIn()) {
-            const redirectUrl = encodeURIComponent(window.location.href);
-            if (confirm('You need to login to add items to cart. Would you like to login now?')) {
-                window.location.href = `login.html?redirect=${redirectUrl}`;
-            }
-            return;
-        }
-
         try {
             const result = await window.sessionManager.addToCart(productId, 1);
             
@@ -42,7 +42,7 @@ class SessionManager {
     }
 
     isProtectedPage() {
-        const protectedPages = ['profile.html', 'orders.html', 'checkout.html', 'cart.html'];
+        const protectedPages = ['profile.html', 'orders.html', 'checkout.html'];
         const currentPage = window.location.pathname.split('/').pop();
         return protectedPages.includes(currentPage);
     }
@@ -95,16 +95,8 @@ class SessionManager {
     }
 
     // Update cart count in navigation
+    // Guests have a cart too, kept on the server under a cookie
     async updateCartCount() {
-        if (!this.isLoggedIn()) {
-            const cartCountElements = document.querySelectorAll('#cartCount');
-            cartCountElements.forEach(element => {
-                element.textContent = '0';
-                element.style.display = 'none';
-            });
-            return;
-        }
-
         try {
             const count = await this.cartManager.getCartCount();
             const cartCountElements = document.querySelectorAll('#cartCount');
@@ -196,12 +188,6 @@ class SessionManager {
 
     // ADD TO CART METHOD
     async addToCart(productId, quantity = 1) {
-        if (!this.isLoggedIn()) {
-            const redirectUrl = encodeURIComponent(window.location.href);
-            window.location.href = `login.html?redirect=${redirectUrl}`;
-            return false;
-        }
-
         try {
             console.log('🛒 SessionManager.addToCart called with:', {productId, quantity});
             const result = await this.cartManager.addToCart(productId, quantity);
@@ -215,10 +201,6 @@ class SessionManager {
 
     // Get cart items
     async getCartItems() {
-        if (!this.isLoggedIn()) {
-            return {items: []};
-        }
-
         try {
             const data = await this.cartManager.getCartItems();
             console.log('📦 SessionManager.getCartItems received:', data);
@@ -472,14 +454,14 @@ class CartManager {
     }
 
     // Update cart item quantity
-    async updateCartItem(cartItemId, quantity) {
+    async updateCartItem(productId, quantity) {
         try {
             const params = new URLSearchParams();
             params.append('action', 'update');
-            params.append('cartItemId', cartItemId.toString());
+            params.append('productId', productId.toString());
             params.append('quantity', quantity.toString());
 
-            console.log('✏️ Updating cart item:', cartItemId, 'Quantity:', quantity);
+            console.log('✏️ Updating cart item:', productId, 'Quantity:', quantity);
 
             const response = await fetch(this.baseUrl, {
                 method: 'POST',
@@ -514,13 +496,13 @@ class CartManager {
     }
 
     // Remove item from cart
-    async removeFromCart(cartItemId) {
+    async removeFromCart(productId) {
         try {
             const params = new URLSearchParams();
             params.append('action', 'remove');
-            params.append('cartItemId', cartItemId.toString());
+            params.append('productId', productId.toString());
 
-            console.log('🗑️ Removing cart item:', cartItemId);
+            console.log('🗑️ Removing cart item:', productId);
 
             const response = await fetch(this.baseUrl, {
                 method: 'POST',
@@ -554,6 +536,20 @@ class CartManager {
         }
     }
 
+    // Apply several add/update/remove operations in one request; resolves to the new cart
+    async applyBatch(operations) {
+        const params = new URLSearchParams();
+        params.append('action', 'batch');
+        params.append('operations', JSON.stringify(operations));
+
+        console.log('📦 Sending batch cart update:', operations);
+
+        return await this.makeRequest(this.baseUrl, {
+            method: 'POST',
+            body: params
+        });
+    }
+
     // Clear entire cart
     async clearCart() {
         try {